@@ -0,0 +1,31 @@
+package subitleseditor;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+
+/**
+ * Subtitle files used as benchmark input, the same on every run
+ * @author isacv
+ */
+public final class BenchmarkFiles {
+    private static final long SEED = 42;
+
+    private BenchmarkFiles(){
+    }
+
+    /**
+     * Writes a generated file, with the line endings and byte order mark such files usually have:
+     * windows-1252 files with CRLF, and UTF-8 ones with CRLF and a byte order mark
+     * @param file The file to write
+     * @param charset The charset of the file
+     * @param cues Amount of cues
+     * @throws IOException If the file can't be written
+     */
+    public static void write(Path file, Charset charset, int cues) throws IOException {
+        CorpusGenerator generator = new CorpusGenerator(SEED, charset);
+        generator.setCrlf(!charset.name().startsWith("UTF-16"));
+        generator.setBom(charset.name().equals("UTF-8"));
+        generator.write(file, charset, cues);
+    }
+}
@@ -0,0 +1,333 @@
+package subitleseditor;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.Charset;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Benchmarks of the load, cached load, format, shift and save paths at several file sizes and encodings.
+ * Each case is warmed up and then run for a while, and the average time and heap allocated per operation
+ * are reported, the later measured by the JVM per thread.
+ * Usage:
+ * <pre>
+ * java subitleseditor.BenchmarkRunner [options]
+ *   --sizes &lt;n,n...&gt;         cues of each generated file, 1000,100000,1000000 by default
+ *   --encodings &lt;name,...&gt;   UTF-8,windows-1252,UTF-16 by default
+ *   --filter &lt;text&gt;         only runs the cases whose name contains the text
+ *   --time &lt;millis&gt;         measured time of each case, 2000 by default
+ *   --csv &lt;file&gt;            also writes the results to a CSV file
+ * </pre>
+ * @author isacv
+ */
+public class BenchmarkRunner {
+    /**
+     * A benchmarked operation
+     */
+    public interface Operation {
+        void run() throws IOException;
+    }
+
+    /**
+     * Measured values of a case
+     */
+    public static class Result {
+        public final String name;
+        public final int cues;
+        public final String encoding;
+        public final double millisPerOp;
+        public final double bytesPerOp;
+
+        Result(String name, int cues, String encoding, double millisPerOp, double bytesPerOp){
+            this.name = name;
+            this.cues = cues;
+            this.encoding = encoding;
+            this.millisPerOp = millisPerOp;
+            this.bytesPerOp = bytesPerOp;
+        }
+
+        /**
+         * Gets the key of the case, which identifies it between runs
+         * @return The name, cues and encoding of the case
+         */
+        public String key(){
+            return name + "/" + cues + "/" + encoding;
+        }
+
+        public double cuesPerSecond(){
+            return cues / millisPerOp * 1000;
+        }
+    }
+
+    private static final int MIN_WARMUP_RUNS = 3;
+    private static final int MIN_MEASURED_RUNS = 5;
+
+    private int[] sizes = {1000, 100000, 1000000};
+    private String[] encodings = {"UTF-8", "windows-1252", "UTF-16"};
+    private String filter = "";
+    private long measureMillis = 2000;
+    private Path csv;
+    private final List<Result> results = new ArrayList<>();
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+    public static void main(String[] args) throws IOException {
+        BenchmarkRunner runner = new BenchmarkRunner();
+        runner.parseArgs(args);
+        //failures show up as wrong numbers, the stack traces would only be noise
+        Logger.getLogger(SubtitlesManager.class.getName()).setLevel(Level.OFF);
+        runner.runAll();
+
+        if (runner.csv != null){
+            runner.writeCsv(runner.csv);
+        }
+    }
+
+    private void parseArgs(String[] args){
+        for (int i = 0; i + 1 < args.length; i += 2){
+            String value = args[i + 1];
+
+            switch (args[i]){
+                case "--sizes":
+                    sizes = Arrays.stream(value.split(",")).mapToInt(Integer::parseInt).toArray();
+                    break;
+                case "--encodings":
+                    encodings = value.split(",");
+                    break;
+                case "--filter":
+                    filter = value;
+                    break;
+                case "--time":
+                    measureMillis = Long.parseLong(value);
+                    break;
+                case "--csv":
+                    csv = Paths.get(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+    }
+
+    public void setSizes(int[] sizes){
+        this.sizes = sizes;
+    }
+
+    public void setEncodings(String[] encodings){
+        this.encodings = encodings;
+    }
+
+    public void setMeasureMillis(long measureMillis){
+        this.measureMillis = measureMillis;
+    }
+
+    public List<Result> getResults(){
+        return results;
+    }
+
+    /**
+     * Runs all the cases, printing each result as it is measured
+     * @throws IOException If the benchmark files can't be written
+     */
+    public void runAll() throws IOException {
+        Path dir = Files.createTempDirectory("subtitles-bench");
+        System.out.println(String.format(Locale.ROOT, "%-12s %9s %-13s %12s %14s %14s",
+                "case", "cues", "encoding", "ms/op", "cues/s", "alloc B/op"));
+
+        try {
+            for (int size : sizes){
+                for (int e = 0; e < encodings.length; ++e){
+                    Path file = dir.resolve(size + "-" + encodings[e] + ".srt");
+                    BenchmarkFiles.write(file, Charset.forName(encodings[e]), size);
+                    CueStore cues = runEncodingDependent(file, size, encodings[e]);
+
+                    if (e == 0){
+                        runEncodingIndependent(cues);
+                    }
+
+                    Files.delete(file);
+                }
+            }
+        } finally {
+            try (DirectoryStream<Path> left = Files.newDirectoryStream(dir)){
+                for (Path path : left){
+                    Files.delete(path);
+                }
+            }
+
+            Files.delete(dir);
+        }
+    }
+
+    private void runEncodingIndependent(CueStore cues) throws IOException {
+        int size = cues.size();
+        char[] chars = new char[TimeCodec.MAX_LENGTH];
+        long[] sink = new long[1];
+
+        run("format", size, "-", () -> {
+            for (int i = 0; i < size; ++i){
+                sink[0] += Subtitle.formatTime(cues.getStart(i)).length();
+            }
+        });
+
+        run("format-raw", size, "-", () -> {
+            for (int i = 0; i < size; ++i){
+                sink[0] += TimeCodec.format(cues.getStart(i), chars, 0);
+            }
+        });
+
+        SubtitlesManager manager = new SubtitlesManager();
+        manager.setSubtitles(cues);
+        int first = manager.getFirstSubNumber();
+        int last = manager.getLastSubNumber();
+
+        run("shift", size, "-", () -> manager.updateRangedSubs(0, 1, 0, first, last));
+
+        //writes the pending changes to every cue, as when they pile up
+        run("shift-all", size, "-", () -> {
+            CueStore shifted = cues.snapshot();
+            shifted.shiftRange(0, size - 1, 1000);
+            shifted.applyTransforms();
+        });
+    }
+
+    /**
+     * Measures the cases that depend on the encoding of the file
+     * @return The cues of the file
+     */
+    private CueStore runEncodingDependent(Path file, int size, String encoding) throws IOException {
+        SubtitlesManager manager = new SubtitlesManager();
+        manager.setEncoding(encoding);
+        String path = file.toString();
+
+        run("load", size, encoding, () -> {
+            if (manager.loadFromFile(path) == null){
+                throw new IOException("Unable to load " + path);
+            }
+        });
+
+        CueStore loaded = manager.loadFromFile(path);
+
+        if (loaded == null || loaded.size() != size){
+            throw new IOException("The generated file " + path + " can't be loaded");
+        }
+
+        runCached(manager, file, size, encoding);
+
+        manager.setSubtitles(loaded);
+        String target = path + ".out";
+
+        run("save", size, encoding, () -> {
+            if (!manager.writeToFile(manager.snapshot(), target)){
+                throw new IOException("Unable to save " + target);
+            }
+        });
+
+        Files.deleteIfExists(Paths.get(target));
+        return manager.snapshot();
+    }
+
+    /**
+     * Measures reopening an unchanged file through the cache of parsed files
+     */
+    private void runCached(SubtitlesManager manager, Path file, int size, String encoding) throws IOException {
+        Path cacheDir = file.resolveSibling("cache");
+        String path = file.toString();
+        manager.setCache(new CueCache(cacheDir));
+
+        try {
+            manager.loadFromFile(path); //writes the entry
+
+            run("load-cached", size, encoding, () -> {
+                if (manager.loadFromFile(path) == null){
+                    throw new IOException("Unable to load " + path);
+                }
+            });
+        } finally {
+            manager.setCache(null);
+
+            if (Files.isDirectory(cacheDir)){
+                try (DirectoryStream<Path> entries = Files.newDirectoryStream(cacheDir)){
+                    for (Path entry : entries){
+                        Files.delete(entry);
+                    }
+                }
+
+                Files.delete(cacheDir);
+            }
+        }
+    }
+
+    /**
+     * Measures a case, if it isn't filtered out
+     */
+    private void run(String name, int cues, String encoding, Operation operation) throws IOException {
+        if (!name.contains(filter)){
+            return;
+        }
+
+        long warmupEnd = System.nanoTime() + measureMillis * 1000000 / 4;
+
+        for (int i = 0; i < MIN_WARMUP_RUNS || System.nanoTime() < warmupEnd; ++i){
+            operation.run();
+        }
+
+        long threadId = Thread.currentThread().getId();
+        long allocatedBefore = allocatedBytes(threadId);
+        long start = System.nanoTime();
+        long measureEnd = start + measureMillis * 1000000;
+        int runs = 0;
+
+        while (runs < MIN_MEASURED_RUNS || System.nanoTime() < measureEnd){
+            operation.run();
+            ++runs;
+        }
+
+        double millis = (System.nanoTime() - start) / 1e6 / runs;
+        long allocatedAfter = allocatedBytes(threadId);
+        double allocated = allocatedBefore < 0 ? Double.NaN : (double)(allocatedAfter - allocatedBefore) / runs;
+        Result result = new Result(name, cues, encoding, millis, allocated);
+        results.add(result);
+        print(System.out, result);
+    }
+
+    /**
+     * Gets the bytes allocated by a thread so far, which only some JVMs can tell
+     * @return The allocated bytes or -1 if unknown
+     */
+    private long allocatedBytes(long threadId){
+        if (threads instanceof com.sun.management.ThreadMXBean){
+            return ((com.sun.management.ThreadMXBean)threads).getThreadAllocatedBytes(threadId);
+        }
+
+        return -1;
+    }
+
+    private static void print(PrintStream out, Result result){
+        out.println(String.format(Locale.ROOT, "%-12s %9d %-13s %12.3f %14.0f %14.0f",
+                result.name, result.cues, result.encoding, result.millisPerOp, result.cuesPerSecond(),
+                result.bytesPerOp));
+    }
+
+    private void writeCsv(Path file) throws IOException {
+        List<String> lines = new ArrayList<>();
+        lines.add("case,cues,encoding,ms_per_op,cues_per_s,alloc_bytes_per_op");
+
+        for (Result result : results){
+            lines.add(String.format(Locale.ROOT, "%s,%d,%s,%.4f,%.0f,%.0f", result.name, result.cues,
+                    result.encoding, result.millisPerOp, result.cuesPerSecond(), result.bytesPerOp));
+        }
+
+        Files.write(file, lines);
+    }
+}
@@ -0,0 +1,212 @@
+package subitleseditor;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+
+/**
+ * Generates SRT files of any size that look like real ones: one to three lines per cue, dialog dashes,
+ * italics, accented text, gaps and overlaps between cues, CRLF or LF line endings and an optional byte order mark.
+ * The same seed always generates the same file.
+ * Usage:
+ * <pre>
+ * java subitleseditor.CorpusGenerator &lt;file&gt; [options]
+ *   --cues &lt;count&gt;          amount of cues, 1000 by default
+ *   --seed &lt;number&gt;         seed of the random values, 1 by default
+ *   --encoding &lt;name&gt;       file encoding, UTF-8 by default
+ *   --crlf                  ends lines with CRLF instead of LF
+ *   --bom                   starts the file with a byte order mark
+ * </pre>
+ * @author isacv
+ */
+public class CorpusGenerator {
+    private static final String[] WORDS = {
+        "the", "you", "I", "what", "we", "know", "don't", "here", "right", "now", "just", "going", "think",
+        "come", "time", "want", "never", "little", "tonight", "something", "listen", "please", "sorry",
+        "café", "señor", "naïve", "déjà", "vu", "über", "façade", "piñata", "crème", "brûlée", "niño",
+        "¿qué", "pasa?", "¡vamos!", "mañana", "garçon", "l'été", "fiancée", "résumé", "smörgåsbord"
+    };
+    //only in UTF-8 files, as windows-1252 can't hold them
+    private static final String[] UNICODE_WORDS = {"Łódź", "Привет", "こんにちは", "Ελλάδα", "€", "—", "…"};
+
+    private final Random random;
+    private final boolean unicode;
+    private String lineEnd = "\n";
+    private boolean bom;
+    private long time;
+
+    /**
+     * Creates a generator
+     * @param seed Seed of the random values
+     * @param charset The charset the file will be written in, which decides which words can be used
+     */
+    public CorpusGenerator(long seed, Charset charset){
+        random = new Random(seed);
+        CharsetEncoder encoder = charset.newEncoder();
+        unicode = encoder.canEncode(UNICODE_WORDS[0]) && encoder.canEncode(UNICODE_WORDS[2]);
+    }
+
+    public void setCrlf(boolean crlf){
+        lineEnd = crlf ? "\r\n" : "\n";
+    }
+
+    public void setBom(boolean bom){
+        this.bom = bom;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0){
+            System.err.println("Usage: CorpusGenerator <file> [--cues <count>] [--seed <number>] "
+                    + "[--encoding <name>] [--crlf] [--bom]");
+            System.exit(2);
+        }
+
+        int cues = 1000;
+        long seed = 1;
+        Charset charset = StandardCharsets.UTF_8;
+        boolean crlf = false;
+        boolean bom = false;
+
+        for (int i = 1; i < args.length; ++i){
+            switch (args[i]){
+                case "--cues":
+                    cues = Integer.parseInt(args[++i]);
+                    break;
+                case "--seed":
+                    seed = Long.parseLong(args[++i]);
+                    break;
+                case "--encoding":
+                    charset = Charset.forName(args[++i]);
+                    break;
+                case "--crlf":
+                    crlf = true;
+                    break;
+                case "--bom":
+                    bom = true;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        CorpusGenerator generator = new CorpusGenerator(seed, charset);
+        generator.setCrlf(crlf);
+        generator.setBom(bom);
+        generator.write(Paths.get(args[0]), charset, cues);
+    }
+
+    /**
+     * Writes a file with generated cues
+     * @param file The file to write
+     * @param charset The charset of the file
+     * @param cues Amount of cues
+     * @throws IOException If the file can't be written
+     */
+    public void write(Path file, Charset charset, int cues) throws IOException {
+        try (OutputStream out = Files.newOutputStream(file);
+             Writer writer = new BufferedWriter(new OutputStreamWriter(out, charset), 1 << 16)){
+            //UTF-16 writes its own byte order mark
+            if (bom && !charset.name().startsWith("UTF-16")){
+                writer.write('\uFEFF');
+            }
+
+            generate(writer, cues);
+        }
+    }
+
+    /**
+     * Writes generated cues
+     * @param out Where the cues are written
+     * @param cues Amount of cues
+     * @throws IOException If the cues can't be written
+     */
+    public void generate(Appendable out, int cues) throws IOException {
+        time = 500 + random.nextInt(5000);
+        StringBuilder cue = new StringBuilder(256);
+
+        for (int i = 1; i <= cues; ++i){
+            cue.setLength(0);
+            long start = nextStart();
+            long end = start + 700 + random.nextInt(5300);
+
+            cue.append(i).append(lineEnd);
+            TimeCodec.append(start, cue);
+            cue.append(" --> ");
+            TimeCodec.append(end, cue);
+            cue.append(lineEnd);
+            appendText(cue);
+            cue.append(lineEnd).append(lineEnd);
+            out.append(cue);
+
+            time = end;
+        }
+    }
+
+    /**
+     * Gets the start of the next cue: most follow the previous one after a short gap, some after a long
+     * silence and a few overlap it
+     */
+    private long nextStart(){
+        int kind = random.nextInt(100);
+
+        if (kind < 5){ //overlap with the previous cue
+            return Math.max(0, time - 1 - random.nextInt(800));
+        }
+
+        if (kind < 10){ //scene without dialog
+            return time + 10000 + random.nextInt(120000);
+        }
+
+        return time + 40 + random.nextInt(1500);
+    }
+
+    private void appendText(StringBuilder cue){
+        int lines = 1 + (random.nextInt(10) < 6 ? 0 : 1) + (random.nextInt(20) == 0 ? 1 : 0);
+        boolean dialog = lines == 2 && random.nextInt(4) == 0;
+        boolean italic = random.nextInt(12) == 0;
+
+        for (int line = 0; line < lines; ++line){
+            if (line > 0){
+                cue.append(lineEnd);
+            }
+
+            if (dialog){
+                cue.append("- ");
+            }
+
+            if (italic){
+                cue.append("<i>");
+            }
+
+            int words = 1 + random.nextInt(8);
+
+            for (int w = 0; w < words; ++w){
+                if (w > 0){
+                    cue.append(' ');
+                }
+
+                if (unicode && random.nextInt(25) == 0){
+                    cue.append(UNICODE_WORDS[random.nextInt(UNICODE_WORDS.length)]);
+                }
+                else {
+                    cue.append(WORDS[random.nextInt(WORDS.length)]);
+                }
+            }
+
+            cue.append(random.nextInt(3) == 0 ? "?" : ".");
+
+            if (italic){
+                cue.append("</i>");
+            }
+        }
+    }
+}
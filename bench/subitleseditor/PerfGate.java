@@ -0,0 +1,134 @@
+package subitleseditor;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Fails when the load, shift or save throughput drops more than a threshold below a stored baseline.
+ * The baseline is machine dependent, so it should be recorded again with --update on the machine that runs the gate.
+ * Usage:
+ * <pre>
+ * java subitleseditor.PerfGate &lt;baseline.csv&gt; [--threshold &lt;fraction&gt;] [--update]
+ * </pre>
+ * @author isacv
+ */
+public class PerfGate {
+    private static final String[] GATED_CASES = {"load", "shift-all", "save"};
+    private static final int[] SIZES = {100000};
+    private static final String[] ENCODINGS = {"UTF-8", "windows-1252"};
+    private static final long MEASURE_MILLIS = 1500;
+    private static final double DEFAULT_THRESHOLD = 0.25;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0){
+            System.err.println("Usage: PerfGate <baseline.csv> [--threshold <fraction>] [--update]");
+            System.exit(2);
+        }
+
+        Path baseline = Paths.get(args[0]);
+        double threshold = DEFAULT_THRESHOLD;
+        boolean update = false;
+
+        for (int i = 1; i < args.length; ++i){
+            if (args[i].equals("--update")){
+                update = true;
+            }
+            else if (args[i].equals("--threshold") && i + 1 < args.length){
+                threshold = Double.parseDouble(args[++i]);
+            }
+            else {
+                throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        Logger.getLogger(SubtitlesManager.class.getName()).setLevel(Level.OFF);
+        BenchmarkRunner runner = new BenchmarkRunner();
+        runner.setSizes(SIZES);
+        runner.setEncodings(ENCODINGS);
+        runner.setMeasureMillis(MEASURE_MILLIS);
+        runner.runAll();
+
+        List<BenchmarkRunner.Result> gated = new ArrayList<>();
+
+        for (BenchmarkRunner.Result result : runner.getResults()){
+            for (String name : GATED_CASES){
+                if (result.name.equals(name)){
+                    gated.add(result);
+                }
+            }
+        }
+
+        if (update || !Files.exists(baseline)){
+            writeBaseline(baseline, gated);
+            System.out.println("Baseline written to " + baseline);
+            return;
+        }
+
+        System.exit(check(readBaseline(baseline), gated, threshold) ? 0 : 1);
+    }
+
+    /**
+     * Compares the results against the baseline
+     * @return true if no case regressed beyond the threshold
+     */
+    private static boolean check(Map<String, Double> baseline, List<BenchmarkRunner.Result> results,
+            double threshold){
+        boolean passed = true;
+
+        for (BenchmarkRunner.Result result : results){
+            Double expected = baseline.get(result.key());
+
+            if (expected == null){
+                System.out.println(String.format(Locale.ROOT, "NEW  %-30s %12.0f cues/s", result.key(),
+                        result.cuesPerSecond()));
+                continue;
+            }
+
+            double ratio = result.cuesPerSecond() / expected;
+            boolean regressed = ratio < 1 - threshold;
+            passed &= !regressed;
+            System.out.println(String.format(Locale.ROOT, "%-4s %-30s %12.0f cues/s, baseline %12.0f (%+.1f%%)",
+                    regressed ? "FAIL" : "OK", result.key(), result.cuesPerSecond(), expected, (ratio - 1) * 100));
+        }
+
+        System.out.println(passed ? "Performance gate passed"
+                : String.format(Locale.ROOT, "Performance gate failed, throughput dropped more than %.0f%%",
+                        threshold * 100));
+        return passed;
+    }
+
+    private static Map<String, Double> readBaseline(Path file) throws IOException {
+        Map<String, Double> baseline = new HashMap<>();
+
+        for (String line : Files.readAllLines(file)){
+            if (line.isEmpty() || line.startsWith("#")){
+                continue;
+            }
+
+            int separator = line.lastIndexOf(',');
+            baseline.put(line.substring(0, separator), Double.parseDouble(line.substring(separator + 1)));
+        }
+
+        return baseline;
+    }
+
+    private static void writeBaseline(Path file, List<BenchmarkRunner.Result> results) throws IOException {
+        List<String> lines = new ArrayList<>();
+        lines.add("# case/cues/encoding,cues per second. Recorded by PerfGate --update");
+
+        for (BenchmarkRunner.Result result : results){
+            lines.add(String.format(Locale.ROOT, "%s,%.0f", result.key(), result.cuesPerSecond()));
+        }
+
+        Files.write(file, lines);
+    }
+}
@@ -0,0 +1,100 @@
+package subitleseditor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Compares shifting the times of many cues one Subtitle object at a time against the bulk kernels,
+ * single threaded and with an increasing amount of threads.
+ * Usage: java subitleseditor.TimeKernelBenchmark [cues...]
+ * @author isacv
+ */
+public class TimeKernelBenchmark {
+    private static final int WARMUP_RUNS = 5;
+    private static final int MEASURED_RUNS = 15;
+
+    public static void main(String[] args){
+        int[] sizes = args.length == 0 ? new int[]{1000000, 4000000}
+                : Arrays.stream(args).mapToInt(Integer::parseInt).toArray();
+        int cores = Runtime.getRuntime().availableProcessors();
+
+        System.out.println(String.format(Locale.ROOT, "%-28s %10s %12s %12s %8s",
+                "case", "cues", "ms/op", "Mcues/s", "speedup"));
+
+        for (int size : sizes){
+            List<Subtitle> subs = new ArrayList<>(size);
+            long[] starts = new long[size];
+            long[] ends = new long[size];
+
+            for (int i = 0; i < size; ++i){
+                Subtitle sub = new Subtitle();
+                sub.start = i * 2000L;
+                sub.end = sub.start + 1500;
+                subs.add(sub);
+                starts[i] = sub.start;
+                ends[i] = sub.end;
+            }
+
+            double baseline = measure(() -> {
+                for (Subtitle sub : subs){
+                    sub.updateTimes(0, 1, 5);
+                }
+            });
+            print("Subtitle.updateTimes loop", size, baseline, baseline);
+
+            print("kernel shift, 1 thread", size, baseline, measure(() -> {
+                TimeKernels.transform(null, starts, starts, 0, size, 1, 1005, 0);
+                TimeKernels.transform(null, ends, ends, 0, size, 1, 1005, 0);
+            }));
+
+            print("kernel re-time, 1 thread", size, baseline, measure(() -> {
+                TimeKernels.transform(null, starts, starts, 0, size, 1.0001, 3, 0.5);
+                TimeKernels.transform(null, ends, ends, 0, size, 1.0001, 3, 0.5);
+            }));
+
+            for (int threads = 2; threads <= cores; threads *= 2){
+                ForkJoinPool pool = new ForkJoinPool(threads);
+
+                print("kernel shift, " + threads + " threads", size, baseline, measure(() -> {
+                    TimeKernels.transform(pool, starts, starts, 0, size, 1, 1005, 0);
+                    TimeKernels.transform(pool, ends, ends, 0, size, 1, 1005, 0);
+                }));
+
+                print("kernel re-time, " + threads + " threads", size, baseline, measure(() -> {
+                    TimeKernels.transform(pool, starts, starts, 0, size, 1.0001, 3, 0.5);
+                    TimeKernels.transform(pool, ends, ends, 0, size, 1.0001, 3, 0.5);
+                }));
+
+                pool.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Gets the median time of an operation, in milliseconds
+     */
+    private static double measure(Runnable operation){
+        for (int i = 0; i < WARMUP_RUNS; ++i){
+            operation.run();
+        }
+
+        double[] times = new double[MEASURED_RUNS];
+
+        for (int i = 0; i < MEASURED_RUNS; ++i){
+            long start = System.nanoTime();
+            operation.run();
+            times[i] = (System.nanoTime() - start) / 1e6;
+        }
+
+        Arrays.sort(times);
+        return times[MEASURED_RUNS / 2];
+    }
+
+    private static void print(String name, int size, double baseline, double millis){
+        System.out.println(String.format(Locale.ROOT, "%-28s %10d %12.3f %12.1f %7.1fx",
+                name, size, millis, size / millis / 1000, baseline / millis));
+    }
+}
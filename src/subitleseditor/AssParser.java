@@ -0,0 +1,143 @@
+package subitleseditor;
+
+import java.io.IOException;
+
+/**
+ * Parses Advanced SubStation Alpha (ASS) and SubStation Alpha (SSA) files by scanning their bytes directly,
+ * like {@link SrtParser}. Only the Dialogue lines of the [Events] section are read, finding their times and
+ * text through the Format line of the section. Their "\N" line breaks are handed out as "\n", and the override
+ * tags, like {\i1}, are kept in the text. The cues are numbered by their position in the file.
+ * @author isacv
+ */
+public class AssParser extends CueTokenizer {
+    private static final int DEFAULT_START_FIELD = 1;
+    private static final int DEFAULT_END_FIELD = 2;
+    private static final int DEFAULT_TEXT_FIELD = 9;
+
+    private boolean inEvents;
+    private int startField;
+    private int endField;
+    private int textField;
+
+    public AssParser(CueHandler handler){
+        super(handler);
+    }
+
+    @Override
+    protected void reset(){
+        inEvents = false;
+        startField = DEFAULT_START_FIELD;
+        endField = DEFAULT_END_FIELD;
+        textField = DEFAULT_TEXT_FIELD;
+    }
+
+    @Override
+    protected int parseBuffer(int from, boolean endOfInput) throws IOException {
+        final int limit = buffer.limit();
+        int pos = from;
+
+        while (true){
+            pos = skipBlankLines(pos, limit);
+            int lineStart = pos;
+
+            if (pos >= limit){
+                return limit;
+            }
+
+            int lineEnd = findLineEnd(pos, limit);
+
+            if (lineEnd == limit && !endOfInput){
+                return lineStart;
+            }
+
+            int end = contentEnd(pos, lineEnd);
+            pos = nextLine(lineEnd, limit);
+
+            if (buffer.get(lineStart) == '['){
+                inEvents = startsWith(lineStart, end, "[Events]");
+            }
+            else if (inEvents && startsWith(lineStart, end, "Format:")){
+                parseFormat(lineStart + "Format:".length(), end);
+            }
+            else if (inEvents && startsWith(lineStart, end, "Dialogue:")){
+                parseDialogue(lineStart + "Dialogue:".length(), end);
+            }
+        }
+    }
+
+    /**
+     * Finds the positions of the start, end and text fields in a Format line
+     */
+    private void parseFormat(int pos, int end) throws IOException {
+        startField = -1;
+        endField = -1;
+        textField = -1;
+
+        for (int field = 0; pos <= end; ++field){
+            int fieldEnd = indexOf(pos, end, (byte)',');
+
+            if (fieldEnd < 0){
+                fieldEnd = end;
+            }
+
+            int nameStart = skipSpaces(pos, fieldEnd);
+            int nameEnd = fieldEnd;
+
+            while (nameEnd > nameStart && buffer.get(nameEnd - 1) == ' '){
+                --nameEnd;
+            }
+
+            if (isName(nameStart, nameEnd, "Start")){
+                startField = field;
+            }
+            else if (isName(nameStart, nameEnd, "End")){
+                endField = field;
+            }
+            else if (isName(nameStart, nameEnd, "Text")){
+                textField = field;
+            }
+
+            pos = fieldEnd + 1;
+        }
+
+        if (startField < 0 || endField < 0 || textField < 0){
+            throw formatError("The events format has no Start, End or Text field", pos);
+        }
+    }
+
+    private boolean isName(int pos, int end, String name){
+        return end - pos == name.length() && startsWith(pos, end, name);
+    }
+
+    /**
+     * Parses the fields of a Dialogue line. The text is the last field, so it may hold commas
+     */
+    private void parseDialogue(int pos, int end) throws IOException {
+        long start = 0;
+        long finish = 0;
+
+        for (int field = 0; field < textField; ++field){
+            int fieldEnd = indexOf(pos, end, (byte)',');
+
+            if (fieldEnd < 0){
+                throw formatError("Missing dialogue fields", pos);
+            }
+
+            if (field == startField || field == endField){
+                int timeStart = skipSpaces(pos, fieldEnd);
+                long time = parseClock(timeStart, TimeCodec.scanEnd(buffer, timeStart, fieldEnd));
+
+                if (field == startField){
+                    start = time;
+                }
+                else {
+                    finish = time;
+                }
+            }
+
+            pos = fieldEnd + 1;
+        }
+
+        emit(getCuesParsed() + 1, start, finish, pos, end, "\\N");
+    }
+}
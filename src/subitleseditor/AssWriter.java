@@ -0,0 +1,78 @@
+package subitleseditor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Writes cues in the Advanced SubStation Alpha (ASS) format straight to a byte channel, as Dialogue lines
+ * with a single default style. The line breaks of the texts are written as "\N".
+ * @author isacv
+ */
+public class AssWriter extends CueWriter {
+    private static final String FILE_HEADER = "[Script Info]\n"
+            + "ScriptType: v4.00+\n"
+            + "WrapStyle: 0\n"
+            + "ScaledBorderAndShadow: yes\n"
+            + "\n"
+            + "[V4+ Styles]\n"
+            + "Format: Name, Fontname, Fontsize, PrimaryColour, SecondaryColour, OutlineColour, BackColour, "
+            + "Bold, Italic, Underline, StrikeOut, ScaleX, ScaleY, Spacing, Angle, BorderStyle, Outline, Shadow, "
+            + "Alignment, MarginL, MarginR, MarginV, Encoding\n"
+            + "Style: Default,Arial,20,&H00FFFFFF,&H000000FF,&H00000000,&H00000000,0,0,0,0,100,100,0,0,1,2,2,2,"
+            + "10,10,10,1\n"
+            + "\n"
+            + "[Events]\n"
+            + "Format: Layer, Start, End, Style, Name, MarginL, MarginR, MarginV, Effect, Text\n";
+    private static final String DIALOGUE = "Dialogue: 0,";
+    private static final String DIALOGUE_FIELDS = ",Default,,0,0,0,,"; //style, name, margins and effect
+    private static final String LINE_BREAK = "\\N";
+
+    /**
+     * Creates a writer to a channel. The channel isn't closed by this writer
+     * @param channel The channel to write to
+     * @param charset The charset used to encode the subtitles
+     */
+    public AssWriter(WritableByteChannel channel, Charset charset){
+        super(channel, charset);
+    }
+
+    @Override
+    protected void writeFileHeader() throws IOException {
+        writeAscii(FILE_HEADER);
+    }
+
+    /**
+     * Writes the fields of the Dialogue line up to the text. The number isn't kept, as the format has no place
+     * for it
+     */
+    @Override
+    protected void writeHeader(int number, long start, long end) throws IOException {
+        DIALOGUE.getChars(0, DIALOGUE.length(), chars, 0);
+        int length = DIALOGUE.length();
+        length = TimeCodec.format(Math.max(0, start), chars, length, 1, '.', 2);
+        chars[length++] = ',';
+        length = TimeCodec.format(Math.max(0, end), chars, length, 1, '.', 2);
+        DIALOGUE_FIELDS.getChars(0, DIALOGUE_FIELDS.length(), chars, length);
+        length += DIALOGUE_FIELDS.length();
+
+        writeAscii(chars, length);
+    }
+
+    @Override
+    protected void writeText(CharBuffer text) throws IOException {
+        writeText(text, LINE_BREAK);
+    }
+
+    @Override
+    protected void writeText(ByteBuffer text) throws IOException {
+        writeText(text, LINE_BREAK);
+    }
+
+    @Override
+    protected void writeFooter() throws IOException {
+        writeAscii("\n");
+    }
+}
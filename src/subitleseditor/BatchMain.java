@@ -0,0 +1,320 @@
+package subitleseditor;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Headless entry point that shifts, synchronizes or converts many subtitle files in parallel, without the UI.
+ * Usage:
+ * <pre>
+ * java -cp SubitlesEditor.jar subitleseditor.BatchMain &lt;directory|glob&gt; [options]
+ *   --shift &lt;millis&gt;         moves the subtitles, negative values make them show earlier
+ *   --range &lt;from&gt;:&lt;to&gt;     subtitle numbers to shift (inclusive), all by default
+ *   --sync &lt;sub&gt;:&lt;millis&gt;   moves a subtitle and adjusts the previous ones proportionally
+ *   --anchor &lt;sub&gt;@&lt;time&gt;   subtitle that must start at a time (hh:mm:ss,mmm), repeated for each anchor.
+ *                          The subtitles between anchors are stretched linearly
+ *   --encoding &lt;name&gt;       file encoding, detected in each file by default (auto)
+ *   --to &lt;format&gt;           converts the files to a format (srt, vtt, ass or sub) in the same pass,
+ *                          alone or along with any of the above
+ *   --out &lt;directory&gt;      writes the results there instead of replacing the files
+ *   --threads &lt;count&gt;      amount of files processed at the same time, all the cores by default
+ * </pre>
+ * @author isacv
+ */
+public class BatchMain {
+    //kept so that the loggers, which are only weakly referenced, keep their level
+    private static final Logger[] QUIET_LOGGERS = {
+        Logger.getLogger(SubtitlesManager.class.getName()),
+        Logger.getLogger(MainUI.class.getName())
+    };
+
+    private Path root;
+    private PathMatcher matcher;
+    private final JobSpec job = new JobSpec("--");
+    private Path outDir;
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    public static void main(String[] args){
+        BatchMain batch = new BatchMain();
+
+        try {
+            batch.parseArgs(args);
+        } catch (IllegalArgumentException ex) {
+            System.err.println(ex.getMessage());
+            printUsage();
+            System.exit(2);
+        }
+
+        //each failure is reported in the file summary, the stack traces would only be noise
+        for (Logger logger : QUIET_LOGGERS){
+            logger.setLevel(Level.OFF);
+        }
+
+        try {
+            System.exit(batch.run() ? 0 : 1);
+        } catch (IOException | InterruptedException ex) {
+            System.err.println("Batch failed: " + ex.getMessage());
+            System.exit(1);
+        }
+    }
+
+    private static void printUsage(){
+        System.err.println("Usage: BatchMain <directory|glob> (--shift <millis> [--range <from>:<to>] | "
+                + "--sync <sub>:<millis> | --anchor <sub>@<hh:mm:ss,mmm>...) [--encoding <name>] [--to <format>] "
+                + "[--out <directory>] [--threads <count>]");
+    }
+
+    private void parseArgs(String[] args){
+        if (args.length == 0){
+            throw new IllegalArgumentException("No files given");
+        }
+
+        setInput(args[0]);
+
+        for (int i = 1; i < args.length; ++i){
+            String option = args[i];
+
+            if (i + 1 >= args.length){
+                throw new IllegalArgumentException("Missing value for " + option);
+            }
+
+            String value = args[++i];
+
+            if (option.startsWith("--") && job.set(option.substring(2), value)){
+                continue;
+            }
+
+            try {
+                switch (option){
+                    case "--out":
+                        outDir = Paths.get(value);
+                        break;
+                    case "--threads":
+                        threads = Integer.parseInt(value);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option " + option);
+                }
+            } catch (NumberFormatException ex) {
+                throw new IllegalArgumentException("Invalid value for " + option + ": " + value);
+            }
+        }
+
+        job.validate();
+
+        if (threads < 1){
+            throw new IllegalArgumentException("The amount of threads must be at least 1");
+        }
+    }
+
+    /**
+     * Sets the files to process, either a directory (all its subtitle files, recursively) or a glob
+     */
+    private void setInput(String input){
+        Path path = Paths.get(input);
+
+        if (Files.isDirectory(path)){
+            root = path;
+            List<String> extensions = SubtitleFormats.extensions();
+            String all = extensions.stream().collect(Collectors.joining(","));
+            String upperCase = extensions.stream().map(e -> e.toUpperCase(Locale.ROOT))
+                    .collect(Collectors.joining(","));
+            matcher = FileSystems.getDefault().getPathMatcher("glob:**.{" + all + "," + upperCase + "}");
+            return;
+        }
+
+        //the root is the deepest directory before the first glob char
+        int globStart = 0;
+
+        while (globStart < input.length() && "*?[{".indexOf(input.charAt(globStart)) < 0){
+            ++globStart;
+        }
+
+        int separator = Math.max(input.lastIndexOf('/', globStart), input.lastIndexOf('\\', globStart));
+        root = separator < 0 ? Paths.get(".") : Paths.get(input.substring(0, separator + 1));
+        String pattern = input.substring(separator + 1);
+        matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+    }
+
+    private List<Path> findFiles() throws IOException {
+        try (Stream<Path> paths = Files.walk(root)){
+            return paths.filter(Files::isRegularFile)
+                    .filter(p -> matcher.matches(root.relativize(p)))
+                    .collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Processes all the files and prints the summary
+     * @return true if all the files were processed
+     */
+    private boolean run() throws IOException, InterruptedException {
+        List<Path> files = findFiles();
+
+        if (files.isEmpty()){
+            System.err.println("No subtitle files found");
+            return false;
+        }
+
+        List<Callable<FileResult>> tasks = new ArrayList<>(files.size());
+
+        for (Path file : files){
+            tasks.add(() -> process(file));
+        }
+
+        long startTime = System.nanoTime();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        List<Future<FileResult>> results;
+
+        try {
+            results = pool.invokeAll(tasks);
+        } finally {
+            pool.shutdown();
+        }
+
+        long totalNanos = System.nanoTime() - startTime;
+        int failed = 0;
+        long cues = 0;
+        long bytes = 0;
+
+        for (Future<FileResult> future : results){
+            FileResult result;
+
+            try {
+                result = future.get();
+            } catch (ExecutionException ex) { //process catches everything, so this is unexpected
+                throw new IOException(ex.getCause());
+            }
+
+            if (result.error != null){
+                ++failed;
+                System.out.println(String.format(Locale.ROOT, "FAILED %s: %s", result.file, result.error));
+            }
+            else {
+                cues += result.cues;
+                bytes += result.bytes;
+                System.out.println(String.format(Locale.ROOT, "%8.2f ms %8d cues  %s",
+                        result.nanos / 1e6, result.cues, result.file));
+            }
+        }
+
+        double seconds = totalNanos / 1e9;
+        System.out.println(String.format(Locale.ROOT,
+                "%d files (%d failed), %d cues, %.1f MB in %.3f s: %.1f files/s, %.0f cues/s, %.1f MB/s, %d threads",
+                files.size(), failed, cues, bytes / 1e6, seconds, (files.size() - failed) / seconds, cues / seconds,
+                bytes / 1e6 / seconds, threads));
+
+        return failed == 0;
+    }
+
+    /**
+     * Shifts or synchronizes a single file, never throwing
+     */
+    private FileResult process(Path file){
+        FileResult result = new FileResult(file);
+        long startTime = System.nanoTime();
+
+        try {
+            Path target = targetOf(file);
+            SubtitlesManager manager = new SubtitlesManager();
+            manager.setEncoding(job.getEncoding());
+            manager.addNotifier(result);
+            result.bytes = Files.size(file);
+
+            if (job.isShift() && CueTokenizer.supports(charsetOf(file))){
+                result.cues = manager.shiftFile(file.toString(), target.toString(), 0, 0, job.getShift(),
+                        job.getRangeMin(), job.getRangeMax());
+            }
+            else { //loaded whole, which also reads the encodings that can't be streamed, like UTF-16
+                manager.setFilePath(file.toString());
+                manager.readFromFile();
+
+                if (result.error == null && job.isShift()){
+                    manager.updateRangedSubs(0, 0, job.getShift(), job.getRangeMin(), job.getRangeMax());
+                }
+                else if (result.error == null && job.isSync()){
+                    manager.updateSubsProprortionally(0, 0, job.getSyncMillis(), job.getSyncSub());
+                }
+                else if (result.error == null){
+                    manager.syncSubs(job.getAnchorSubs(), job.getAnchorTimes());
+                }
+
+                if (result.error == null){
+                    manager.setFilePath(target.toString());
+                    manager.writeToFile();
+                    result.cues = manager.getSubtitlesCount();
+                }
+            }
+        } catch (IOException | RuntimeException ex) {
+            result.error = ex.toString();
+        }
+
+        result.nanos = System.nanoTime() - startTime;
+        return result;
+    }
+
+    /**
+     * Gets the encoding a file is read with
+     */
+    private Charset charsetOf(Path file) throws IOException {
+        return job.isAutoDetect() ? EncodingDetector.detect(file) : Charset.forName(job.getEncoding());
+    }
+
+    private Path targetOf(Path file) throws IOException {
+        if (outDir == null){
+            return job.getTargetFormat() == null ? file : SubtitleFormats.withExtension(file, job.getTargetFormat());
+        }
+
+        Path target = outDir.resolve(root.relativize(file).toString());
+
+        if (job.getTargetFormat() != null){
+            target = SubtitleFormats.withExtension(target, job.getTargetFormat());
+        }
+
+        Files.createDirectories(target.toAbsolutePath().getParent());
+
+        return target;
+    }
+
+    /**
+     * Outcome of a single file, which also collects the severe notifications of its manager
+     */
+    private static class FileResult implements Notifier {
+        final Path file;
+        String error;
+        long cues;
+        long bytes;
+        long nanos;
+
+        FileResult(Path file){
+            this.file = file;
+        }
+
+        @Override
+        public void notifyAction(String message) {
+        }
+
+        @Override
+        public void severeNotifyAction(String message) {
+            if (error == null){
+                error = message;
+            }
+        }
+    }
+}
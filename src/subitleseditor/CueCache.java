@@ -0,0 +1,292 @@
+package subitleseditor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Binary cache of parsed subtitle files, so that reopening an unchanged file doesn't parse nor decode it again.
+ * Each entry holds the columns of a {@link CueStore} as they are in memory: numbers, times and the
+ * {@link TextArena} of the texts. It is keyed by the source file path, size, modification time and a hash of its content, plus the
+ * charset and format it was read with. Entries are memory mapped and bulk copied into the store columns.
+ * <p>
+ * Entry layout, little endian: magic, version, source size, modification time and hash, cue count and text
+ * length, then the source path, charset and format names as length prefixed UTF-8, padded to 8 bytes,
+ * the starts, ends and numbers columns and the texts as written by {@link TextArena#writeTo(ByteBuffer)}.
+ * @author isacv
+ */
+public class CueCache {
+    private static final int MAGIC = 0x53554243; //"SUBC"
+    private static final int VERSION = 2;
+    private static final int FIXED_HEADER_BYTES = 4 + 4 + 8 + 8 + 8 + 4 + 4;
+    private static final String EXTENSION = ".cues";
+    private static final int MAX_ENTRIES = 32; //the least recently written ones are deleted past this
+    private static final int HASH_WINDOW = 64 * 1024 * 1024;
+    private static final long HASH_MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+    private final Path directory;
+
+    /**
+     * Creates a cache that keeps its entries in a directory, which is created when the first entry is written
+     * @param directory The cache directory
+     */
+    public CueCache(Path directory){
+        this.directory = directory;
+    }
+
+    /**
+     * Gets the directory of the cache shared by all the editor sessions of the user
+     * @return The default cache directory
+     */
+    public static Path defaultDirectory(){
+        return Paths.get(System.getProperty("user.home"), ".subtitles-editor", "cache");
+    }
+
+    public Path getDirectory(){
+        return directory;
+    }
+
+    /**
+     * Reads the cues of a file from the cache
+     * @param source The subtitle file
+     * @param charset The charset the file is read with
+     * @param format The format the file is read with
+     * @return The cached cues or null if there is no entry for the file as it is now
+     * @throws IOException If the source or the entry can't be read
+     */
+    public CueStore load(Path source, Charset charset, SubtitleFormat format) throws IOException {
+        Path entry = entryOf(source);
+
+        if (!Files.isRegularFile(entry)){
+            return null;
+        }
+
+        try (FileChannel channel = FileChannel.open(entry, StandardOpenOption.READ)){
+            if (channel.size() < FIXED_HEADER_BYTES){
+                return null;
+            }
+
+            ByteBuffer content = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())
+                    .order(ByteOrder.LITTLE_ENDIAN);
+
+            if (content.getInt() != MAGIC || content.getInt() != VERSION){
+                return null;
+            }
+
+            long size = content.getLong();
+            long modified = content.getLong();
+            long hash = content.getLong();
+            int count = content.getInt();
+            int textLength = content.getInt();
+
+            if (size != Files.size(source) || modified != Files.getLastModifiedTime(source).toMillis()
+                    || !readName(content).equals(source.toAbsolutePath().toString())
+                    || !readName(content).equals(charset.name()) || !readName(content).equals(format.getName())
+                    || content.remaining() < cueColumnBytes(count) || hash != hash(source)){
+                return null;
+            }
+
+            align(content);
+            long[] starts = new long[Math.max(count, 1)];
+            long[] ends = new long[Math.max(count, 1)];
+            int[] numbers = new int[Math.max(count, 1)];
+
+            content.asLongBuffer().get(starts, 0, count);
+            content.position(content.position() + count * 8);
+            content.asLongBuffer().get(ends, 0, count);
+            content.position(content.position() + count * 8);
+            content.asIntBuffer().get(numbers, 0, count);
+            content.position(content.position() + count * 4);
+            align(content);
+            TextArena texts = TextArena.readFrom(content, count);
+
+            if (texts == null || texts.getTotalChars() != textLength){
+                return null;
+            }
+
+            return CueStore.ofColumns(count, numbers, starts, ends, texts);
+        } catch (NoSuchFileException ex) { //removed while reading it
+            return null;
+        }
+    }
+
+    /**
+     * Writes the cues of a file to the cache, replacing its previous entry
+     * @param source The subtitle file the cues were read from
+     * @param charset The charset the file was read with
+     * @param format The format the file was read with
+     * @param cues The cues, without pending time changes
+     * @throws IOException If the source can't be read or the entry can't be written
+     */
+    public void store(Path source, Charset charset, SubtitleFormat format, CueStore cues) throws IOException {
+        int count = cues.size();
+        int textLength = cues.getTotalTextLength();
+        byte[] path = source.toAbsolutePath().toString().getBytes(StandardCharsets.UTF_8);
+        byte[] charsetName = charset.name().getBytes(StandardCharsets.UTF_8);
+        byte[] formatName = format.getName().getBytes(StandardCharsets.UTF_8);
+        int headerBytes = FIXED_HEADER_BYTES + 6 + path.length + charsetName.length + formatName.length;
+        long totalBytes = (headerBytes + 7) / 8 * 8 + (cueColumnBytes(count) + 7) / 8 * 8
+                + cues.getTexts().storedBytes();
+
+        if (totalBytes > Integer.MAX_VALUE){
+            return;
+        }
+
+        ByteBuffer content = ByteBuffer.allocateDirect((int)totalBytes).order(ByteOrder.LITTLE_ENDIAN);
+        content.putInt(MAGIC).putInt(VERSION);
+        content.putLong(Files.size(source));
+        content.putLong(Files.getLastModifiedTime(source).toMillis());
+        content.putLong(hash(source));
+        content.putInt(count).putInt(textLength);
+        content.putShort((short)path.length).put(path);
+        content.putShort((short)charsetName.length).put(charsetName);
+        content.putShort((short)formatName.length).put(formatName);
+        align(content);
+
+        long[] starts = new long[count];
+        long[] ends = new long[count];
+        cues.copyTimes(starts, ends);
+        content.asLongBuffer().put(starts);
+        content.position(content.position() + count * 8);
+        content.asLongBuffer().put(ends);
+        content.position(content.position() + count * 8);
+        content.asIntBuffer().put(cues.numberBuffer());
+        content.position(content.position() + count * 4);
+        align(content);
+        cues.getTexts().writeTo(content);
+        content.clear();
+
+        Files.createDirectories(directory);
+        Path entry = entryOf(source);
+        Path temp = Files.createTempFile(directory, entry.getFileName().toString(), ".tmp");
+
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)){
+                while (content.hasRemaining()){
+                    channel.write(content);
+                }
+            }
+
+            try {
+                Files.move(temp, entry, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(temp, entry, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+
+        prune();
+    }
+
+    /**
+     * Deletes the oldest entries past {@link #MAX_ENTRIES}
+     */
+    private void prune() throws IOException {
+        List<Path> entries = new ArrayList<>();
+
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + EXTENSION)){
+            for (Path entry : stream){
+                entries.add(entry);
+            }
+        }
+
+        if (entries.size() <= MAX_ENTRIES){
+            return;
+        }
+
+        entries.sort(Comparator.comparingLong(CueCache::lastModified));
+
+        for (Path entry : entries.subList(0, entries.size() - MAX_ENTRIES)){
+            Files.deleteIfExists(entry);
+        }
+    }
+
+    private static long lastModified(Path file){
+        try {
+            return Files.getLastModifiedTime(file).toMillis();
+        } catch (IOException ex) {
+            return 0;
+        }
+    }
+
+    /**
+     * Gets the entry of a source file, named after a hash of its absolute path
+     */
+    private Path entryOf(Path source){
+        String path = source.toAbsolutePath().toString();
+        long hash = 1125899906842597L;
+
+        for (int i = 0; i < path.length(); ++i){
+            hash = 31 * hash + path.charAt(i);
+        }
+
+        return directory.resolve(Long.toHexString(hash) + EXTENSION);
+    }
+
+    /**
+     * Gets the size of the starts, ends and numbers columns
+     */
+    private static long cueColumnBytes(int count){
+        return count * 8L * 2 + count * 4L;
+    }
+
+    private static String readName(ByteBuffer content){
+        int length = content.getShort() & 0xFFFF;
+
+        if (content.remaining() < length){
+            return "";
+        }
+
+        byte[] name = new byte[length];
+        content.get(name);
+        return new String(name, StandardCharsets.UTF_8);
+    }
+
+    private static void align(ByteBuffer content){
+        content.position((content.position() + 7) / 8 * 8);
+    }
+
+    /**
+     * Hashes the content of a file 8 bytes at a time, mapping it in windows
+     * @param file The file
+     * @return The 64 bit hash
+     * @throws IOException If the file can't be read
+     */
+    static long hash(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)){
+            long size = channel.size();
+            long hash = size * HASH_MULTIPLIER;
+
+            for (long position = 0; position < size; position += HASH_WINDOW){
+                ByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                        Math.min(HASH_WINDOW, size - position)).order(ByteOrder.LITTLE_ENDIAN);
+
+                while (window.remaining() >= 8){
+                    hash = (hash ^ window.getLong()) * HASH_MULTIPLIER;
+                    hash ^= hash >>> 32;
+                }
+
+                while (window.hasRemaining()){
+                    hash = (hash ^ (window.get() & 0xFF)) * HASH_MULTIPLIER;
+                }
+            }
+
+            return hash ^ (hash >>> 29);
+        }
+    }
+}
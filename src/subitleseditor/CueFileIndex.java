@@ -0,0 +1,330 @@
+package subitleseditor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Byte ranges of the cues of a file as it was last parsed, each with a hash of its bytes. Comparing the hashes
+ * with the file after it changed finds the cues before and after the edited part, which are the same, so only
+ * the cues in between have to be parsed again.
+ * <p>
+ * The ranges cover the whole file: a cue spans from the end of the previous one (or the start of the file) to the
+ * end of its text, and the bytes after the last cue are a range of their own. Indexes are immutable, each update
+ * gives a new one.
+ * @author isacv
+ */
+final class CueFileIndex {
+    private static final long HASH_MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+    private final int size; //amount of cues
+    private final int[] ends; //range i is [ends[i - 1], ends[i]), from 0 for the first one, the last is the tail
+    private final long[] hashes;
+
+    private CueFileIndex(int size, int[] ends, long[] hashes){
+        this.size = size;
+        this.ends = ends;
+        this.hashes = hashes;
+    }
+
+    /**
+     * Parts of the file that changed since it was indexed, with the cues parsed again from them
+     */
+    static final class Update {
+        private final int fromIndex;
+        private final int toIndex;
+        private final int parsedCues;
+        private final CueFileIndex index;
+
+        private Update(int fromIndex, int toIndex, int parsedCues, CueFileIndex index){
+            this.fromIndex = fromIndex;
+            this.toIndex = toIndex;
+            this.parsedCues = parsedCues;
+            this.index = index;
+        }
+
+        /**
+         * @return First replaced cue index (inclusive)
+         */
+        int getFromIndex(){
+            return fromIndex;
+        }
+
+        /**
+         * @return Last replaced cue index (exclusive)
+         */
+        int getToIndex(){
+            return toIndex;
+        }
+
+        /**
+         * @return Amount of cues parsed again, which replace the ones from {@link #getFromIndex()} to
+         *         {@link #getToIndex()}
+         */
+        int getParsedCues(){
+            return parsedCues;
+        }
+
+        /**
+         * @return The index of the file as it is now
+         */
+        CueFileIndex getIndex(){
+            return index;
+        }
+    }
+
+    /**
+     * Records where each parsed cue ends, passing the cues on to another handler
+     */
+    private static final class CueEnds implements CueTokenizer.CueHandler {
+        private final CueTokenizer.CueHandler next;
+        private CueTokenizer parser;
+        private int[] ends = new int[256];
+        private int size;
+
+        CueEnds(CueTokenizer.CueHandler next){
+            this.next = next;
+        }
+
+        @Override
+        public void cue(int number, long start, long end, ByteBuffer text) throws IOException {
+            if (size == ends.length){
+                ends = Arrays.copyOf(ends, size * 2);
+            }
+
+            ends[size++] = (int)parser.getCueEnd();
+
+            if (next != null){
+                next.cue(number, start, end, text);
+            }
+        }
+
+        int parse(SubtitleFormat format, ByteBuffer content, ProgressListener progress) throws IOException {
+            parser = format.newParser(this);
+            parser.setProgressListener(progress);
+            return parser.parse(content);
+        }
+    }
+
+    /**
+     * Indexes the current content of a file, parsing it without decoding the texts
+     * @param channel The file
+     * @param format The file format
+     * @return The index, or null if the file is too big to be mapped at once
+     * @throws IOException If the file can't be read or parsed
+     */
+    static CueFileIndex build(FileChannel channel, SubtitleFormat format) throws IOException {
+        return build(channel, format, null, null);
+    }
+
+    /**
+     * Parses a whole file while indexing it, so that loading a file gives its index without reading it twice
+     * @param channel The file
+     * @param format The file format
+     * @param handler Receives the parsed cues, or null to only index them
+     * @param progress Receives the parsing progress, or null
+     * @return The index, or null if the file is too big to be mapped at once, in which case it isn't parsed
+     * @throws IOException If the file can't be read or parsed, or the handler fails
+     */
+    static CueFileIndex build(FileChannel channel, SubtitleFormat format, CueTokenizer.CueHandler handler,
+            ProgressListener progress) throws IOException {
+        ByteBuffer content = map(channel);
+
+        if (content == null){
+            return null;
+        }
+
+        CueEnds cues = new CueEnds(handler);
+        cues.parse(format, content.duplicate(), progress);
+
+        int[] ends = Arrays.copyOf(cues.ends, cues.size + 1);
+        ends[cues.size] = content.limit();
+        long[] hashes = new long[cues.size + 1];
+
+        for (int i = 0; i <= cues.size; ++i){
+            hashes[i] = hash(content, i == 0 ? 0 : ends[i - 1], ends[i]);
+        }
+
+        return new CueFileIndex(cues.size, ends, hashes);
+    }
+
+    /**
+     * Maps the whole content of a file, in the byte order the hashes read it
+     * @return The content, or null if the file is too big to be mapped at once
+     */
+    static ByteBuffer map(FileChannel channel) throws IOException {
+        long fileSize = channel.size();
+
+        if (fileSize > Integer.MAX_VALUE){
+            return null;
+        }
+
+        return channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Gets the amount of indexed cues
+     * @return The amount of cues
+     */
+    int size(){
+        return size;
+    }
+
+    /**
+     * Checks if a file is still the same as when it was indexed, which only needs hashing it
+     * @param content The whole file as it is now, as given by {@link #map(FileChannel)}
+     * @return true if no byte changed
+     */
+    boolean isUnchanged(ByteBuffer content){
+        if (content.limit() != ends[size]){
+            return false;
+        }
+
+        for (int i = 0; i <= size; ++i){
+            if (hash(content, rangeStart(i), ends[i]) != hashes[i]){
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Compares the index with the current content of the file, and parses again the cues between the first and
+     * the last ranges that changed. The ranges before and after them are only hashed, so parsing costs as much
+     * as the edit, whatever the size of the file
+     * @param content The whole file as it is now, as given by {@link #map(FileChannel)}
+     * @param format The file format, which must parse any cue without the ones before it, once a blank line
+     * separates them, like SRT
+     * @param handler Receives the cues parsed again, in file order
+     * @return The changed cues, or null if the file didn't change
+     * @throws IOException If the changed part can't be parsed
+     */
+    Update update(ByteBuffer content, SubtitleFormat format, CueTokenizer.CueHandler handler) throws IOException {
+        int fileSize = content.limit();
+        int delta = fileSize - ends[size];
+
+        //unchanged ranges at the start, the tail is compared up to the new end of the file
+        int first = 0;
+
+        while (first <= size){
+            int end = first == size ? fileSize : ends[first];
+
+            if (end > fileSize || hash(content, rangeStart(first), end) != hashes[first]){
+                break;
+            }
+
+            ++first;
+        }
+
+        if (first > size){
+            return null;
+        }
+
+        //unchanged ranges at the end, moved by the change of size
+        int last = size + 1; //first of them
+
+        while (last > first && rangeStart(last - 1) + delta >= rangeStart(first)
+                && hash(content, rangeStart(last - 1) + delta, ends[last - 1] + delta) == hashes[last - 1]){
+            --last;
+        }
+
+        //at least one cue that is still there is parsed again, so the changed bytes always belong to a cue
+        if (first > 0){
+            --first;
+        }
+        else if (last < size){
+            ++last;
+        }
+
+        //and the cues kept must still be apart from the changed ones, or their texts could have merged
+        while (first > 0 && !startsWithBlankLine(content, rangeStart(first))){
+            --first;
+        }
+
+        while (last < size && !startsWithBlankLine(content, rangeStart(last) + delta)){
+            ++last;
+        }
+
+        boolean tailChanged = last > size;
+        int toIndex = Math.min(last, size);
+        int regionStart = rangeStart(first);
+        int regionEnd = tailChanged ? fileSize : rangeStart(last) + delta;
+
+        CueEnds parsed = new CueEnds(handler);
+        ByteBuffer region = content.duplicate();
+        //with the line break after the last text, which tells a '\r' ending the text from the one of "\r\n"
+        region.limit(Math.max(regionEnd, skipLineBreak(content, regionEnd))).position(regionStart);
+        parsed.parse(format, region, null);
+
+        int newSize = size - (toIndex - first) + parsed.size;
+        int[] newEnds = new int[newSize + 1];
+        long[] newHashes = new long[newSize + 1];
+        System.arraycopy(ends, 0, newEnds, 0, first);
+        System.arraycopy(hashes, 0, newHashes, 0, first);
+
+        for (int i = 0; i < parsed.size; ++i){
+            //the last one takes the bytes up to the unchanged ranges
+            newEnds[first + i] = i == parsed.size - 1 && !tailChanged ? regionEnd : regionStart + parsed.ends[i];
+            newHashes[first + i] = hash(content, first + i == 0 ? 0 : newEnds[first + i - 1], newEnds[first + i]);
+        }
+
+        for (int i = toIndex; i < size; ++i){
+            newEnds[i - toIndex + first + parsed.size] = ends[i] + delta;
+            newHashes[i - toIndex + first + parsed.size] = hashes[i];
+        }
+
+        newEnds[newSize] = fileSize;
+        newHashes[newSize] = hash(content, newSize == 0 ? 0 : newEnds[newSize - 1], fileSize);
+
+        return new Update(first, toIndex, parsed.size, new CueFileIndex(newSize, newEnds, newHashes));
+    }
+
+    /**
+     * Checks if a line break followed by an empty line starts at a position, which ends any cue text before it
+     */
+    private static boolean startsWithBlankLine(ByteBuffer content, int pos){
+        pos = skipLineBreak(content, pos);
+        return pos == content.limit() || (pos >= 0 && skipLineBreak(content, pos) >= 0);
+    }
+
+    /**
+     * Gets the position after a "\n" or "\r\n" line break, or -1 if there is none at a position
+     */
+    private static int skipLineBreak(ByteBuffer content, int pos){
+        if (pos < content.limit() && content.get(pos) == '\n'){
+            return pos + 1;
+        }
+
+        if (pos + 1 < content.limit() && content.get(pos) == '\r' && content.get(pos + 1) == '\n'){
+            return pos + 2;
+        }
+
+        return -1;
+    }
+
+    private int rangeStart(int range){
+        return range == 0 ? 0 : ends[range - 1];
+    }
+
+    /**
+     * Hashes a range of bytes 8 at a time, seeded with its length
+     */
+    private static long hash(ByteBuffer content, int from, int to){
+        long hash = (to - from) * HASH_MULTIPLIER;
+        int pos = from;
+
+        for (; pos + 8 <= to; pos += 8){
+            hash = (hash ^ content.getLong(pos)) * HASH_MULTIPLIER;
+            hash ^= hash >>> 32;
+        }
+
+        for (; pos < to; ++pos){
+            hash = (hash ^ (content.get(pos) & 0xFF)) * HASH_MULTIPLIER;
+        }
+
+        return hash ^ (hash >>> 29);
+    }
+}
@@ -0,0 +1,249 @@
+package subitleseditor;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Index of the cue times to find which cues are shown at a given time, or during a time window,
+ * in O(log n + k). The cues are kept sorted by start time as an implicit balanced tree, where each node
+ * also knows the latest end of its subtree, so whole subtrees that end too early are skipped.
+ * A cue is considered to be shown from its start (inclusive) to its end (exclusive).
+ * <p>
+ * The index is tied to the modification count of its store and is rebuilt on the first query after
+ * any change. The previous order is reused for the rebuild, so after a shift, which keeps most cues
+ * in order, the rebuild takes linear time. An index over a snapshot of the cues can also start from the order
+ * of the index of a previous snapshot, and can be queried by many threads at once.
+ * @author isacv
+ */
+public class CueIntervalIndex {
+    private final CueStore cues;
+    private int builtModCount = -1;
+    private int size;
+    private int[] order = new int[0]; //cue indexes sorted by start
+    private long[] sortedStarts = new long[0];
+    private long[] sortedEnds = new long[0];
+    private long[] maxEnds = new long[0]; //latest end of the subtree whose root is at each position
+    private long[] cueStarts = new long[0]; //times by cue index, read once per build
+    private long[] cueEnds = new long[0];
+    private int[] sortBuffer = new int[0];
+    private CueIntervalIndex previous; //built index whose order is reused by the first build, if any
+
+    public CueIntervalIndex(CueStore cues){
+        this.cues = cues;
+    }
+
+    /**
+     * Creates an index that is built starting from the order of another one, meant for a snapshot of the
+     * same cues taken after a change
+     * @param cues The cues to index
+     * @param previous The index of the cues before the change, or null
+     */
+    public CueIntervalIndex(CueStore cues, CueIntervalIndex previous){
+        this.cues = cues;
+
+        if (previous != null){ //only a built one is kept, so that indexes never chain
+            synchronized (previous){
+                this.previous = previous.builtModCount >= 0 ? previous : previous.previous;
+            }
+        }
+    }
+
+    /**
+     * Gets the cues shown at a given time
+     * @param time The time in milliseconds
+     * @return The indexes of the cues shown at that time, in start order
+     */
+    public int[] at(long time){
+        return between(time, time + 1);
+    }
+
+    /**
+     * Gets the cues shown at any moment of a time window
+     * @param from Start of the window in milliseconds (inclusive)
+     * @param to End of the window in milliseconds (exclusive)
+     * @return The indexes of the cues that overlap the window, in start order
+     */
+    public int[] between(long from, long to){
+        IntCollector collector = new IntCollector();
+        forEachBetween(from, to, collector);
+
+        return collector.toArray();
+    }
+
+    /**
+     * Visits the cues shown at any moment of a time window, in start order
+     * @param from Start of the window in milliseconds (inclusive)
+     * @param to End of the window in milliseconds (exclusive)
+     * @param action Receives the index of each cue that overlaps the window
+     */
+    public void forEachBetween(long from, long to, IntConsumer action){
+        ensureBuilt();
+
+        if (from < to){
+            visit(0, size, from, to, action);
+        }
+    }
+
+    private void visit(int low, int high, long from, long to, IntConsumer action){
+        while (low < high){
+            int middle = (low + high) >>> 1;
+
+            if (maxEnds[middle] <= from){ //everything in this subtree ends before the window
+                return;
+            }
+
+            visit(low, middle, from, to, action);
+
+            if (sortedStarts[middle] >= to){ //this cue and all the following start after the window
+                return;
+            }
+
+            if (sortedEnds[middle] > from){
+                action.accept(order[middle]);
+            }
+
+            low = middle + 1;
+        }
+    }
+
+    private synchronized void ensureBuilt(){
+        if (builtModCount == cues.getModCount()){
+            return;
+        }
+
+        if (previous != null){
+            synchronized (previous){
+                order = Arrays.copyOf(previous.order, previous.size);
+                size = previous.size;
+            }
+
+            previous = null;
+        }
+
+        int previousSize = size;
+        size = cues.size();
+
+        if (order.length < size){
+            order = Arrays.copyOf(order, size);
+        }
+
+        if (sortedStarts.length < size){
+            sortedStarts = new long[size];
+            sortedEnds = new long[size];
+            maxEnds = new long[size];
+            sortBuffer = new int[size];
+            cueStarts = new long[size];
+            cueEnds = new long[size];
+        }
+
+        cues.copyTimes(cueStarts, cueEnds);
+
+        if (previousSize != size){ //different cues, start from the file order
+            for (int i = 0; i < size; ++i){
+                order[i] = i;
+            }
+        }
+
+        sortByStart();
+
+        for (int i = 0; i < size; ++i){
+            sortedStarts[i] = cueStarts[order[i]];
+            sortedEnds[i] = cueEnds[order[i]];
+        }
+
+        computeMaxEnds(0, size);
+        builtModCount = cues.getModCount();
+    }
+
+    private long computeMaxEnds(int low, int high){
+        if (low >= high){
+            return Long.MIN_VALUE;
+        }
+
+        int middle = (low + high) >>> 1;
+        long max = Math.max(sortedEnds[middle],
+                Math.max(computeMaxEnds(low, middle), computeMaxEnds(middle + 1, high)));
+        maxEnds[middle] = max;
+
+        return max;
+    }
+
+    /**
+     * Stable natural merge sort of the order by start time. Already sorted runs are found and merged,
+     * so a nearly sorted order takes close to linear time
+     */
+    private void sortByStart(){
+        int[] source = order;
+        int[] target = sortBuffer;
+
+        while (true){
+            int runs = 0;
+            int low = 0;
+
+            while (low < size){
+                int middle = runEnd(source, low);
+                int high = middle < size ? runEnd(source, middle) : size;
+                merge(source, target, low, middle, high);
+                low = high;
+                ++runs;
+            }
+
+            int[] swap = source;
+            source = target;
+            target = swap;
+
+            if (runs <= 1){
+                break;
+            }
+        }
+
+        if (source != order){
+            System.arraycopy(source, 0, order, 0, size);
+        }
+    }
+
+    private int runEnd(int[] source, int from){
+        int i = from + 1;
+
+        while (i < size && cueStarts[source[i - 1]] <= cueStarts[source[i]]){
+            ++i;
+        }
+
+        return i;
+    }
+
+    private void merge(int[] source, int[] target, int low, int middle, int high){
+        int left = low;
+        int right = middle;
+
+        for (int i = low; i < high; ++i){
+            if (right >= high || (left < middle && cueStarts[source[left]] <= cueStarts[source[right]])){
+                target[i] = source[left++];
+            }
+            else {
+                target[i] = source[right++];
+            }
+        }
+    }
+
+    /**
+     * Growable list of ints for the query results
+     */
+    private static class IntCollector implements IntConsumer {
+        private int[] values = new int[8];
+        private int count;
+
+        @Override
+        public void accept(int value) {
+            if (count == values.length){
+                values = Arrays.copyOf(values, count * 2);
+            }
+
+            values[count++] = value;
+        }
+
+        int[] toArray(){
+            return Arrays.copyOf(values, count);
+        }
+    }
+}
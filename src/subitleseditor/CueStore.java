@@ -0,0 +1,721 @@
+package subitleseditor;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * Columnar storage for subtitle cues. Instead of keeping one Subtitle object per cue, every field is
+ * kept in its own primitive array and all the texts are kept in a {@link TextArena}, which stores each
+ * distinct line once as Latin-1 or UTF-8 bytes and decodes the texts when they are read.
+ * Cues are addressed by their index (position in the file), not by their subtitle number, but the index of
+ * a number can be found in constant time: directly when the numbering is contiguous, which is the normal case,
+ * or through a hash index otherwise.
+ * <p>
+ * Time changes aren't written to the cues right away. They are kept as pending transforms by ranges of cues,
+ * applied whenever a time is read, so shifting any amount of cues takes constant time and the original times
+ * are kept unless {@link #applyTransforms()} is called. When there are too many ranges they are folded into times
+ * kept apart without rounding, so undoing the changes still gives back the original times exactly.
+ * @author isacv
+ */
+public class CueStore {
+    private static final int INITIAL_CAPACITY = 256;
+    private static final int MAX_TRANSFORM_RANGES = 256; //pending changes are folded past this
+
+    private int size;
+    private int[] numbers;
+    private long[] starts; //start of each subtitle in milliseconds
+    private long[] ends; //end of each subtitle in milliseconds
+    private TextArena texts = new TextArena(); //text of each cue
+    private boolean contiguousNumbers = true; //numbers[i] == numbers[0] + i
+    private boolean sortedNumbers = true; //numbers are strictly increasing
+    private int[] numberKeys; //open addressing index of number to index, only built when not contiguous
+    private int[] numberSlots; //index + 1 of each key, 0 for empty slots
+    private int modCount; //incremented on every change of the cues or their times
+    private double[] foldedStarts; //start times with the folded changes, null if none. Replaced, never written
+    private double[] foldedEnds; //end times with the folded changes, null if none. Replaced, never written
+    private RangeTransforms transforms = new RangeTransforms(); //pending changes of the original or folded times
+    private boolean transformed; //there are pending changes
+    private boolean timesShared; //the time arrays are shared with a snapshot
+
+    public CueStore(){
+        numbers = new int[INITIAL_CAPACITY];
+        starts = new long[INITIAL_CAPACITY];
+        ends = new long[INITIAL_CAPACITY];
+    }
+
+    /**
+     * Creates a copy of a store. Everything is shared, as cues are only ever added after the shared arrays end,
+     * which is never visible to the copy, and the original times are copied before being written
+     */
+    private CueStore(CueStore source){
+        size = source.size;
+        numbers = source.numbers;
+        starts = source.starts;
+        ends = source.ends;
+        foldedStarts = source.foldedStarts;
+        foldedEnds = source.foldedEnds;
+        texts = source.texts.snapshot();
+        contiguousNumbers = source.contiguousNumbers;
+        sortedNumbers = source.sortedNumbers;
+        transforms = source.transforms.copy();
+        transformed = source.transformed;
+        timesShared = true;
+        source.timesShared = true;
+    }
+
+    /**
+     * Creates a store over columns that are already filled, like the ones read by {@link CueCache}.
+     * The arrays are taken, not copied
+     */
+    private CueStore(int size, int[] numbers, long[] starts, long[] ends, TextArena texts){
+        this.size = size;
+        this.numbers = numbers;
+        this.starts = starts;
+        this.ends = ends;
+        this.texts = texts;
+
+        for (int i = 1; i < size; ++i){
+            contiguousNumbers &= numbers[i] == numbers[0] + i;
+            sortedNumbers &= numbers[i] > numbers[i - 1];
+        }
+    }
+
+    /**
+     * Creates a store over columns that are already filled. The arrays are taken, not copied, and must be
+     * at least one element long, as {@link #trimToSize()} leaves them
+     * @param size Amount of cues
+     * @param numbers The subtitle numbers
+     * @param starts The start times in milliseconds
+     * @param ends The end times in milliseconds
+     * @param texts The texts of all the cues
+     * @return The store
+     */
+    static CueStore ofColumns(int size, int[] numbers, long[] starts, long[] ends, TextArena texts){
+        return new CueStore(size, numbers, starts, ends, texts);
+    }
+
+    /**
+     * Creates a copy of this store whose times don't change when this store's times change. Only the pending
+     * time changes are copied, so it is cheap enough to be taken before handing the cues to a background task,
+     * or after every change. No cues must be added to the copy, whose numbers, times and texts can then be read
+     * by many threads at once
+     * @return The copy
+     */
+    public CueStore snapshot(){
+        return new CueStore(this);
+    }
+
+    /**
+     * Gets the amount of cues stored
+     * @return The amount of cues
+     */
+    public int size(){
+        return size;
+    }
+
+    /**
+     * Checks if there are no cues stored
+     * @return true if the store has no cues
+     */
+    public boolean isEmpty(){
+        return size == 0;
+    }
+
+    /**
+     * Removes all the cues, keeping the allocated capacity
+     */
+    public void clear(){
+        if (timesShared){ //new cues would be written over the ones of the snapshots
+            numbers = new int[INITIAL_CAPACITY];
+            starts = new long[INITIAL_CAPACITY];
+            ends = new long[INITIAL_CAPACITY];
+            timesShared = false;
+        }
+
+        transforms.reset();
+        transformed = false;
+        foldedStarts = null;
+        foldedEnds = null;
+        size = 0;
+        texts.clear();
+        ++modCount;
+        contiguousNumbers = true;
+        sortedNumbers = true;
+        numberKeys = null;
+        numberSlots = null;
+    }
+
+    /**
+     * Adds a new cue at the end of the store
+     * @param number The subtitle number
+     * @param start Start time in milliseconds
+     * @param end End time in milliseconds
+     * @param cueText The subtitle text, lines separated by '\n'
+     */
+    public void add(int number, long start, long end, CharSequence cueText){
+        addTimes(number, start, end);
+        texts.add(cueText);
+    }
+
+    /**
+     * Adds a new cue at the end of the store, taking its text from a char buffer
+     * @param number The subtitle number
+     * @param start Start time in milliseconds
+     * @param end End time in milliseconds
+     * @param src Buffer holding the subtitle text
+     * @param offset Position of the text in the buffer
+     * @param length Length of the text
+     */
+    public void add(int number, long start, long end, char[] src, int offset, int length){
+        addTimes(number, start, end);
+        texts.add(src, offset, length);
+    }
+
+    /**
+     * Adds a new cue at the end of the store, taking its text from the bytes of a file without decoding them
+     * @param number The subtitle number
+     * @param start Start time in milliseconds
+     * @param end End time in milliseconds
+     * @param text The encoded subtitle text, which isn't consumed
+     * @param utf8 true if the text is UTF-8, false if it is ISO-8859-1 or windows-1252
+     * @return false if the cue wasn't added because its text must be decoded by its charset first
+     */
+    boolean add(int number, long start, long end, ByteBuffer text, boolean utf8){
+        if (!texts.add(text, utf8)){
+            return false;
+        }
+
+        addTimes(number, start, end);
+        return true;
+    }
+
+    /**
+     * Stores the number and timings of a new cue, whose text is added to the texts apart
+     */
+    private void addTimes(int number, long start, long end){
+        if (transformed || foldedStarts != null){ //the changes are open ended and would also change the new cue
+            applyTransforms();
+        }
+
+        if (size == numbers.length){
+            int newCapacity = numbers.length * 2;
+            numbers = Arrays.copyOf(numbers, newCapacity);
+            starts = Arrays.copyOf(starts, newCapacity);
+            ends = Arrays.copyOf(ends, newCapacity);
+        }
+
+        if (size > 0){
+            contiguousNumbers &= number == numbers[0] + size;
+            sortedNumbers &= number > numbers[size - 1];
+        }
+
+        ++modCount;
+        numbers[size] = number;
+        starts[size] = start;
+        ends[size] = end;
+        ++size;
+
+        if (numberKeys != null){
+            indexNumber(size - 1);
+        }
+    }
+
+    /**
+     * Replaces a range of cues by the cues of another store, like the ones parsed again from the changed part
+     * of a file. Pending time changes are written first, as the cues after the range change their indexes.
+     * New arrays are allocated, so snapshots are not affected
+     * @param fromIndex First cue index to replace (inclusive)
+     * @param toIndex Last cue index to replace (exclusive)
+     * @param replacement The new cues, which may be more or less than the replaced ones
+     */
+    public void replace(int fromIndex, int toIndex, CueStore replacement){
+        applyTransforms();
+        int added = replacement.size;
+        int suffix = size - toIndex;
+        int newSize = fromIndex + added + suffix;
+        int[] newNumbers = new int[Math.max(newSize, 1)];
+        long[] newStarts = new long[Math.max(newSize, 1)];
+        long[] newEnds = new long[Math.max(newSize, 1)];
+
+        System.arraycopy(numbers, 0, newNumbers, 0, fromIndex);
+        System.arraycopy(starts, 0, newStarts, 0, fromIndex);
+        System.arraycopy(ends, 0, newEnds, 0, fromIndex);
+        System.arraycopy(replacement.numbers, 0, newNumbers, fromIndex, added);
+
+        for (int i = 0; i < added; ++i){
+            newStarts[fromIndex + i] = replacement.getStart(i);
+            newEnds[fromIndex + i] = replacement.getEnd(i);
+        }
+
+        System.arraycopy(numbers, toIndex, newNumbers, fromIndex + added, suffix);
+        System.arraycopy(starts, toIndex, newStarts, fromIndex + added, suffix);
+        System.arraycopy(ends, toIndex, newEnds, fromIndex + added, suffix);
+        texts.replace(fromIndex, toIndex, replacement.texts);
+
+        numbers = newNumbers;
+        starts = newStarts;
+        ends = newEnds;
+        size = newSize;
+        timesShared = false;
+        ++modCount;
+        contiguousNumbers = true;
+        sortedNumbers = true;
+        numberKeys = null;
+        numberSlots = null;
+
+        for (int i = 1; i < size; ++i){
+            contiguousNumbers &= numbers[i] == numbers[0] + i;
+            sortedNumbers &= numbers[i] > numbers[i - 1];
+        }
+    }
+
+    /**
+     * Gets the modification count, which changes every time cues are added or removed or their times change.
+     * Allows derived structures to know when they are out of date
+     * @return The current modification count
+     */
+    public int getModCount(){
+        return modCount;
+    }
+
+    /**
+     * Gets the index of a subtitle number
+     * @param number The subtitle number
+     * @return The index of the first cue with that number or -1 if there is none
+     */
+    public int indexOf(int number){
+        if (contiguousNumbers){
+            long index = (long)number - (size == 0 ? 0 : numbers[0]);
+            return index >= 0 && index < size ? (int)index : -1;
+        }
+
+        if (numberKeys == null){
+            buildNumberIndex();
+        }
+
+        int mask = numberKeys.length - 1;
+
+        for (int slot = hash(number) & mask; numberSlots[slot] != 0; slot = (slot + 1) & mask){
+            if (numberKeys[slot] == number){
+                return numberSlots[slot] - 1;
+            }
+        }
+
+        return -1;
+    }
+
+    private static int hash(int number){
+        int h = number * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private void buildNumberIndex(){
+        int capacity = Integer.highestOneBit(Math.max(size, 8) * 2 - 1) << 1; //load factor under 0.5
+        numberKeys = new int[capacity];
+        numberSlots = new int[capacity];
+
+        for (int i = 0; i < size; ++i){
+            indexNumber(i);
+        }
+    }
+
+    /**
+     * Adds a cue to the number index, keeping the first index when numbers are repeated
+     */
+    private void indexNumber(int index){
+        if (size * 2 > numberKeys.length){
+            buildNumberIndex();
+            return;
+        }
+
+        int number = numbers[index];
+        int mask = numberKeys.length - 1;
+        int slot = hash(number) & mask;
+
+        while (numberSlots[slot] != 0){
+            if (numberKeys[slot] == number){
+                return;
+            }
+
+            slot = (slot + 1) & mask;
+        }
+
+        numberKeys[slot] = number;
+        numberSlots[slot] = index + 1;
+    }
+
+    /**
+     * Releases all the capacity that isn't being used. Meant to be called after a full load
+     */
+    public void trimToSize(){
+        numbers = Arrays.copyOf(numbers, Math.max(size, 1));
+        starts = Arrays.copyOf(starts, Math.max(size, 1));
+        ends = Arrays.copyOf(ends, Math.max(size, 1));
+
+        if (foldedStarts != null){
+            foldedStarts = Arrays.copyOf(foldedStarts, Math.max(size, 1));
+            foldedEnds = Arrays.copyOf(foldedEnds, Math.max(size, 1));
+        }
+
+        texts.trimToSize();
+        timesShared = false;
+    }
+
+    public int getNumber(int index){
+        return numbers[index];
+    }
+
+    public long getStart(int index){
+        double[] folded = foldedStarts;
+
+        if (folded != null){
+            return transforms.apply(index, folded[index]);
+        }
+
+        return transformed ? transforms.apply(index, starts[index]) : starts[index];
+    }
+
+    public long getEnd(int index){
+        double[] folded = foldedEnds;
+
+        if (folded != null){
+            return transforms.apply(index, folded[index]);
+        }
+
+        return transformed ? transforms.apply(index, ends[index]) : ends[index];
+    }
+
+    /**
+     * Gets the start time a cue had before any change still pending or folded
+     * @param index The cue index
+     * @return The original start time in milliseconds
+     */
+    public long getOriginalStart(int index){
+        return starts[index];
+    }
+
+    /**
+     * Gets the end time a cue had before any change still pending or folded
+     * @param index The cue index
+     * @return The original end time in milliseconds
+     */
+    public long getOriginalEnd(int index){
+        return ends[index];
+    }
+
+    /**
+     * Copies the times of all the cues, with their pending changes applied, in a single pass
+     * @param dstStarts Receives the start times by cue index, at least {@link #size()} long
+     * @param dstEnds Receives the end times by cue index, at least {@link #size()} long
+     */
+    public void copyTimes(long[] dstStarts, long[] dstEnds){
+        if (foldedStarts != null){
+            transforms.apply(foldedStarts, 0, size, dstStarts);
+            transforms.apply(foldedEnds, 0, size, dstEnds);
+            return;
+        }
+
+        if (!transformed){
+            System.arraycopy(starts, 0, dstStarts, 0, size);
+            System.arraycopy(ends, 0, dstEnds, 0, size);
+            return;
+        }
+
+        transforms.apply(starts, 0, size, dstStarts);
+        transforms.apply(ends, 0, size, dstEnds);
+    }
+
+    /**
+     * Writes the pending time changes to the cues, which then become their original times
+     */
+    public void applyTransforms(){
+        if (!transformed && foldedStarts == null){
+            return;
+        }
+
+        if (timesShared){ //copy on write, the snapshot keeps the arrays
+            starts = Arrays.copyOf(starts, starts.length);
+            ends = Arrays.copyOf(ends, ends.length);
+            timesShared = false;
+        }
+
+        if (foldedStarts != null){
+            transforms.apply(foldedStarts, 0, size, starts);
+            transforms.apply(foldedEnds, 0, size, ends);
+            foldedStarts = null;
+            foldedEnds = null;
+        }
+        else {
+            transforms.apply(starts, 0, size, starts);
+            transforms.apply(ends, 0, size, ends);
+        }
+
+        transforms.reset();
+        transformed = false;
+    }
+
+    /**
+     * Folds the pending changes into the times kept apart, leaving the original times as they are.
+     * New arrays are allocated, so snapshots are not affected
+     */
+    private void foldTransforms(){
+        double[] newStarts = new double[starts.length];
+        double[] newEnds = new double[ends.length];
+
+        transforms.fold(starts, foldedStarts, 0, size, newStarts);
+        transforms.fold(ends, foldedEnds, 0, size, newEnds);
+        foldedStarts = newStarts;
+        foldedEnds = newEnds;
+        transforms.reset();
+        transformed = false;
+    }
+
+    /**
+     * Gets the text of a cue. A new String is created on each call
+     * @param index The cue index
+     * @return The cue text
+     */
+    public String getText(int index){
+        return texts.getText(index);
+    }
+
+    /**
+     * Decodes the text of a cue into a reusable buffer, without any intermediate String
+     * @param index The cue index
+     * @param out The buffer to decode to, or null. A new one is returned if the text doesn't fit
+     * @return The buffer holding the cue text between its position and limit
+     */
+    public CharBuffer getText(int index, CharBuffer out){
+        return texts.getText(index, out);
+    }
+
+    /**
+     * Gets the text of a cue encoded in UTF-8, ISO-8859-1 or windows-1252 without decoding it, when possible
+     * @param index The cue index
+     * @param utf8 true to encode it in UTF-8, false in ISO-8859-1 or windows-1252
+     * @param out The buffer to encode to, or null. A new one is returned if the text doesn't fit
+     * @return The buffer holding the encoded text between its position and limit, or null if the text
+     *         must be encoded by the charset encoder
+     */
+    ByteBuffer getEncodedText(int index, boolean utf8, ByteBuffer out){
+        return texts.getEncodedText(index, utf8, out);
+    }
+
+    /**
+     * Gets the length of a cue text without creating it
+     * @param index The cue index
+     * @return The amount of chars in the cue text
+     */
+    public int getTextLength(int index){
+        return texts.getTextLength(index);
+    }
+
+    /**
+     * Appends the text of a cue to a StringBuilder without any intermediate String
+     * @param index The cue index
+     * @param sb The StringBuilder to append to
+     */
+    public void appendText(int index, StringBuilder sb){
+        texts.append(index, sb);
+    }
+
+    /**
+     * Gets the texts of all the cues, meant for bulk storage
+     * @return The shared text arena
+     */
+    TextArena getTexts(){
+        return texts;
+    }
+
+    /**
+     * Gets a buffer over the numbers of all the cues, meant for bulk storage.
+     * It is only valid until the next cue is added
+     * @return A new buffer sharing the numbers
+     */
+    IntBuffer numberBuffer(){
+        return IntBuffer.wrap(numbers, 0, size);
+    }
+
+    /**
+     * Gets the total amount of text chars held by all the cues
+     * @return The amount of chars
+     */
+    public int getTotalTextLength(){
+        return texts.getTotalChars();
+    }
+
+    /**
+     * Sets both times of a cue
+     * @param index The cue index
+     * @param start New start time in milliseconds
+     * @param end New end time in milliseconds
+     */
+    public void setTimes(int index, long start, long end){
+        applyTransforms();
+
+        if (timesShared){
+            starts = Arrays.copyOf(starts, starts.length);
+            ends = Arrays.copyOf(ends, ends.length);
+            timesShared = false;
+        }
+
+        ++modCount;
+        starts[index] = start;
+        ends[index] = end;
+    }
+
+    /**
+     * Moves a cue forward(later) if the millis are positive or backward(earlier) if they are negative.
+     * Same semantics as {@link Subtitle#updateTimes(long)}
+     * @param index The cue index
+     * @param milliseconds Milliseconds to advance/delay
+     */
+    public void shift(int index, long milliseconds){
+        transformRange(index, index, 1, milliseconds, 0);
+    }
+
+    /**
+     * Moves a range of cues forward(later) if the millis are positive or backward(earlier) if they are negative.
+     * @param fromIndex First cue index to move (inclusive)
+     * @param toIndex Last cue index to move (inclusive)
+     * @param milliseconds Milliseconds to advance/delay
+     */
+    public void shiftRange(int fromIndex, int toIndex, long milliseconds){
+        transformRange(fromIndex, toIndex, 1, milliseconds, 0);
+    }
+
+    /**
+     * Changes the times of a range of cues, on top of any previous change. A time t of the cue at index i
+     * becomes {@code scale * t + offset + step * i}, rounded to the millisecond when read.
+     * Takes constant time per range of cues with different pending changes, whatever the amount of cues
+     * @param fromIndex First cue index to change (inclusive)
+     * @param toIndex Last cue index to change (inclusive)
+     * @param scale Factor of the times
+     * @param offset Milliseconds added to the times
+     * @param step Milliseconds added per cue index
+     */
+    public void transformRange(int fromIndex, int toIndex, double scale, double offset, double step){
+        ++modCount;
+
+        if (fromIndex > toIndex){
+            return;
+        }
+
+        transforms.compose(fromIndex, toIndex == size - 1 ? Integer.MAX_VALUE : toIndex, scale, offset, step);
+        transformed = !transforms.isIdentity();
+
+        if (transforms.getRangeCount() > MAX_TRANSFORM_RANGES){ //keep the reads fast
+            foldTransforms();
+        }
+    }
+
+    /**
+     * Moves all the cues with a number in a range forward(later) if the millis are positive or 
+     * backward(earlier) if they are negative. When the numbers are in order, which is the normal case,
+     * only the cues in the range are visited.
+     * @param minNumber First subtitle number to move (inclusive)
+     * @param maxNumber Last subtitle number to move (inclusive)
+     * @param milliseconds Milliseconds to advance/delay
+     * @return The first and last indexes of the moved cues or null if no cue was in the range
+     */
+    public int[] shiftNumberRange(int minNumber, int maxNumber, long milliseconds){
+        int first = -1;
+        int last = -1;
+
+        if (!sortedNumbers){
+            int runStart = -1;
+
+            for (int i = 0; i <= size; ++i){ //each run of consecutive cues in the range is moved at once
+                boolean inRange = i < size && numbers[i] >= minNumber && numbers[i] <= maxNumber;
+
+                if (inRange && runStart < 0){
+                    runStart = i;
+                }
+                else if (!inRange && runStart >= 0){
+                    shiftRange(runStart, i - 1, milliseconds);
+                    first = first < 0 ? runStart : first;
+                    last = i - 1;
+                    runStart = -1;
+                }
+            }
+        }
+        else {
+            first = firstIndexAtLeast(minNumber);
+            last = (maxNumber == Integer.MAX_VALUE ? size : firstIndexAtLeast(maxNumber + 1)) - 1;
+            shiftRange(first, last, milliseconds);
+        }
+
+        return first >= 0 && first <= last ? new int[]{first, last} : null;
+    }
+
+    /**
+     * Finds the index of the first cue with a number greater or equal to the given one, in sorted numbers
+     */
+    private int firstIndexAtLeast(int number){
+        int low = 0;
+        int high = size;
+
+        while (low < high){
+            int middle = (low + high) >>> 1;
+
+            if (numbers[middle] < number){
+                low = middle + 1;
+            }
+            else {
+                high = middle;
+            }
+        }
+
+        return low;
+    }
+
+    /**
+     * Creates a Subtitle object with a copy of the cue values. Changes to the returned object
+     * are not reflected in the store.
+     * @param index The cue index
+     * @return A new Subtitle for the cue
+     */
+    public Subtitle getSubtitle(int index){
+        Subtitle sub = new Subtitle();
+        sub.number = numbers[index];
+        sub.start = getStart(index);
+        sub.end = getEnd(index);
+        sub.text = getText(index);
+
+        return sub;
+    }
+
+    /**
+     * Gets an estimate of the heap retained by this store, arrays headers included.
+     * Allows comparing the columnar layout against one Subtitle object (plus its String) per cue.
+     * @return The estimated retained heap in bytes
+     */
+    public long retainedBytes(){
+        final int arrayHeader = 16;
+
+        return 3L * arrayHeader
+                + 4L * numbers.length
+                + 8L * starts.length
+                + 8L * ends.length
+                + texts.retainedBytes()
+                + (numberKeys == null ? 0 : 2L * arrayHeader + 8L * numberKeys.length)
+                + (foldedStarts == null ? 0 : 2L * arrayHeader + 16L * foldedStarts.length)
+                + transforms.retainedBytes();
+    }
+
+    /**
+     * Gets an estimate of the heap the same cues would retain as a List of Subtitle objects,
+     * each with its own String, on a 64 bit JVM with compressed references.
+     * @return The estimated retained heap in bytes of the object per cue layout
+     */
+    public long objectLayoutBytes(){
+        final long subtitleObject = 40; //header + int + 2 longs + reference, aligned
+        final long stringObject = 24 + 16; //String + its backing array header
+
+        return 16 + 16 + 4L * size * 3 / 2 //ArrayList and its array, with the default growth slack
+                + size * (subtitleObject + stringObject)
+                + 2L * getTotalTextLength();
+    }
+}
@@ -0,0 +1,76 @@
+package subitleseditor;
+
+import javax.swing.table.AbstractTableModel;
+
+/**
+ * Table model over the subtitles of a manager. Values are read from the manager only when a row is
+ * rendered, so a table using it only formats the rows that are visible, whatever the size of the file.
+ * @author isacv
+ */
+public class CueTableModel extends AbstractTableModel {
+    private static final long serialVersionUID = 1L;
+    
+    private static final String[] COLUMNS = {"#", "Start", "End", "Text"};
+    
+    public static final int NUMBER_COLUMN = 0;
+    public static final int START_COLUMN = 1;
+    public static final int END_COLUMN = 2;
+    public static final int TEXT_COLUMN = 3;
+    
+    private final SubtitlesManager subManager;
+    private int shownRows;
+    
+    public CueTableModel(SubtitlesManager subManager){
+        this.subManager = subManager;
+    }
+    
+    /**
+     * Updates the table after a change of the subtitles. Only the changed rows are repainted, unless 
+     * the amount of subtitles changed
+     * @param fromIndex First changed subtitle (inclusive)
+     * @param toIndex Last changed subtitle (inclusive)
+     */
+    public void subtitlesChanged(int fromIndex, int toIndex){
+        int rows = getRowCount();
+        
+        if (rows != shownRows){
+            shownRows = rows;
+            fireTableDataChanged();
+        }
+        else if (fromIndex <= toIndex){
+            fireTableRowsUpdated(fromIndex, toIndex);
+        }
+    }
+
+    @Override
+    public int getRowCount() {
+        return subManager.getSubtitlesCount();
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMNS.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return COLUMNS[column];
+    }
+
+    @Override
+    public Class<?> getColumnClass(int column) {
+        return column == NUMBER_COLUMN ? Integer.class : String.class;
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        switch (column){
+            case NUMBER_COLUMN: return subManager.getSubNumber(row);
+            case START_COLUMN: return TimeCodec.format(subManager.getSubStart(row));
+            case END_COLUMN: return TimeCodec.format(subManager.getSubEnd(row));
+            case TEXT_COLUMN: return subManager.getSubText(row).replace('\n', ' ');
+        }
+        
+        return null;
+    }
+}
@@ -0,0 +1,511 @@
+package subitleseditor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Base of the subtitle parsers, which scan the bytes of a file directly. The file is memory mapped (or read
+ * in one go when small) in windows, and each format only has to split the lines of the window into cues
+ * with the helpers of this class. The text of each cue is handed out as bytes, still undecoded, so that
+ * converting or shifting a file never decodes it.
+ * The scanning requires an ASCII compatible encoding, see {@link #supports(Charset)}.
+ * @author isacv
+ */
+public abstract class CueTokenizer {
+
+    /**
+     * Receives the cues as they get parsed
+     */
+    public interface CueHandler {
+        /**
+         * Called for each parsed cue, in file order.
+         * @param number The subtitle number
+         * @param start Start time in milliseconds
+         * @param end End time in milliseconds
+         * @param text The raw bytes of the cue text, between its position and limit. Lines may be separated
+         * by "\n" or "\r\n". The buffer is reused and only valid during the call
+         * @throws IOException If the cue can't be handled, which stops the parsing
+         */
+        void cue(int number, long start, long end, ByteBuffer text) throws IOException;
+    }
+
+    private static final int MAP_THRESHOLD = 256 * 1024; //smaller files are simply read
+    private static final int WINDOW_SIZE = 64 * 1024 * 1024;
+    private static final int PROGRESS_INTERVAL = 4096; //cues between progress reports
+    private static final byte[] UTF8_BOM = {(byte)0xEF, (byte)0xBB, (byte)0xBF};
+
+    private final CueHandler handler;
+    private ProgressListener progressListener;
+    private long totalBytes;
+    private ByteBuffer textView;
+    private ByteBuffer scratch; //text whose line breaks had to be replaced
+    private long bufferFileOffset;
+    private long cueEnd;
+    private int cuesParsed;
+    /**
+     * The window being parsed, read with absolute positions
+     */
+    protected ByteBuffer buffer;
+
+    protected CueTokenizer(CueHandler handler){
+        this.handler = handler;
+    }
+
+    /**
+     * Sets the listener that gets the amount of bytes parsed, every few thousand cues
+     * @param listener The progress listener, which may stop the parsing by throwing an IOException
+     */
+    public void setProgressListener(ProgressListener listener){
+        progressListener = listener;
+    }
+
+    /**
+     * Checks if the bytes of a charset can be scanned directly, which means that digits,
+     * separators and line breaks are encoded as single ASCII bytes
+     * @param charset The charset to check
+     * @return true if the charset can be parsed by this class
+     */
+    public static boolean supports(Charset charset){
+        if (!charset.canEncode()){
+            return false;
+        }
+
+        String probe = "0123456789:,.-> \r\n";
+        byte[] encoded = probe.getBytes(charset);
+
+        if (encoded.length != probe.length()){
+            return false;
+        }
+
+        for (int i = 0; i < encoded.length; ++i){
+            if (encoded[i] != probe.charAt(i)){
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Parses a whole file, sending every cue to the handler
+     * @param path The file to parse
+     * @return The amount of cues parsed
+     * @throws IOException If the file can't be read or isn't valid in the parsed format
+     */
+    public int parse(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)){
+            return parse(channel);
+        }
+    }
+
+    /**
+     * Parses the whole content of a channel, sending every cue to the handler.
+     * Big files are mapped in windows, so that files larger than 2GB can also be read.
+     * @param channel The channel to parse
+     * @return The amount of cues parsed
+     * @throws IOException If the channel can't be read or its content isn't valid in the parsed format
+     */
+    public int parse(FileChannel channel) throws IOException {
+        long fileSize = channel.size();
+        long position = 0;
+        int windowSize = WINDOW_SIZE;
+        cuesParsed = 0;
+        totalBytes = fileSize;
+        reset();
+
+        while (position < fileSize){
+            long remaining = fileSize - position;
+            boolean lastWindow = remaining <= windowSize;
+            int length = (int)Math.min(remaining, windowSize);
+
+            buffer = readWindow(channel, position, length, fileSize);
+            textView = buffer.duplicate();
+            bufferFileOffset = position;
+
+            int consumed = parseBuffer(position == 0 ? skipBom() : 0, lastWindow);
+
+            if (consumed == 0 && !lastWindow){ //a single cue bigger than the window
+                windowSize = (int)Math.min(Integer.MAX_VALUE - 8L, windowSize * 2L);
+            }
+
+            position += consumed;
+
+            if (lastWindow){
+                break;
+            }
+        }
+
+        buffer = null;
+        textView = null;
+        reportProgress(fileSize);
+
+        return cuesParsed;
+    }
+
+    /**
+     * Parses the content of a buffer between its position and limit, sending every cue to the handler
+     * @param content The subtitles content
+     * @return The amount of cues parsed
+     * @throws IOException If the content isn't valid in the parsed format
+     */
+    public int parse(ByteBuffer content) throws IOException {
+        cuesParsed = 0;
+        buffer = content.slice();
+        textView = buffer.duplicate();
+        bufferFileOffset = 0;
+        totalBytes = buffer.limit();
+        reset();
+        parseBuffer(skipBom(), true);
+        buffer = null;
+        textView = null;
+        reportProgress(totalBytes);
+
+        return cuesParsed;
+    }
+
+    /**
+     * Clears the state kept between windows, before a new file is parsed
+     */
+    protected void reset(){
+    }
+
+    /**
+     * Parses all the complete cues in the current {@link #buffer}
+     * @param from Position to start parsing
+     * @param endOfInput Whether the buffer holds the end of the input, which means the last cue ends with it
+     * @return The position right after the last complete cue parsed, where the next window starts
+     * @throws IOException If the content isn't valid in the parsed format
+     */
+    protected abstract int parseBuffer(int from, boolean endOfInput) throws IOException;
+
+    private static ByteBuffer readWindow(FileChannel channel, long position, int length, long fileSize)
+            throws IOException {
+        if (fileSize > MAP_THRESHOLD){
+            return channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+        }
+
+        ByteBuffer window = ByteBuffer.allocate(length);
+
+        while (window.hasRemaining()){
+            if (channel.read(window, position + window.position()) < 0){
+                break;
+            }
+        }
+
+        window.flip();
+        return window;
+    }
+
+    private int skipBom(){
+        if (buffer.limit() >= UTF8_BOM.length
+                && buffer.get(0) == UTF8_BOM[0] && buffer.get(1) == UTF8_BOM[1] && buffer.get(2) == UTF8_BOM[2]){
+            return UTF8_BOM.length;
+        }
+
+        return 0;
+    }
+
+    /**
+     * Sends a cue to the handler
+     * @param number The subtitle number
+     * @param start Start time in milliseconds
+     * @param end End time in milliseconds
+     * @param textStart Position where the text starts in the buffer
+     * @param textEnd Position where the text ends in the buffer
+     * @throws IOException If the handler fails or the parsing was canceled
+     */
+    protected void emit(int number, long start, long end, int textStart, int textEnd) throws IOException {
+        textView.limit(textEnd).position(textStart);
+        cueEnd = bufferFileOffset + textEnd;
+        handler.cue(number, start, end, textView);
+        cueEmitted(textEnd);
+    }
+
+    /**
+     * Sends a cue whose lines are joined by a marker instead of line breaks, like "\N" or "[br]",
+     * replacing the markers by "\n". The text is only copied if it has any marker
+     * @param lineBreak The ASCII marker of the format line breaks
+     */
+    protected void emit(int number, long start, long end, int textStart, int textEnd, String lineBreak)
+            throws IOException {
+        int marker = indexOf(textStart, textEnd, lineBreak);
+
+        if (marker < 0){
+            emit(number, start, end, textStart, textEnd);
+            return;
+        }
+
+        if (scratch == null || scratch.capacity() < textEnd - textStart){
+            scratch = ByteBuffer.allocate(Math.max(256, (textEnd - textStart) * 2));
+        }
+
+        scratch.clear();
+        int pos = textStart;
+
+        while (marker >= 0){
+            for (int i = pos; i < marker; ++i){
+                scratch.put(buffer.get(i));
+            }
+
+            scratch.put((byte)'\n');
+            pos = marker + lineBreak.length();
+            marker = indexOf(pos, textEnd, lineBreak);
+        }
+
+        for (int i = pos; i < textEnd; ++i){
+            scratch.put(buffer.get(i));
+        }
+
+        scratch.flip();
+        cueEnd = bufferFileOffset + textEnd;
+        handler.cue(number, start, end, scratch);
+        cueEmitted(textEnd);
+    }
+
+    private void cueEmitted(int pos) throws IOException {
+        ++cuesParsed;
+
+        if (cuesParsed % PROGRESS_INTERVAL == 0){
+            reportProgress(bufferFileOffset + pos);
+        }
+    }
+
+    /**
+     * Gets the position in the input right after the text of the cue being handled, which tells where each
+     * cue is in the file. Only valid during {@link CueHandler#cue}
+     * @return The byte offset of the end of the cue text, from the start of the input
+     */
+    public long getCueEnd(){
+        return cueEnd;
+    }
+
+    /**
+     * Gets the amount of cues parsed so far from the current file, which numbers the cues of the formats
+     * without subtitle numbers
+     * @return The amount of cues parsed
+     */
+    protected int getCuesParsed(){
+        return cuesParsed;
+    }
+
+    private void reportProgress(long bytesParsed) throws IOException {
+        if (progressListener != null){
+            progressListener.progress(bytesParsed, totalBytes);
+        }
+    }
+
+    protected int skipBlankLines(int pos, int limit){
+        while (pos < limit){
+            byte b = buffer.get(pos);
+
+            if (b != '\n' && b != '\r' && b != ' ' && b != '\t'){
+                break;
+            }
+
+            ++pos;
+        }
+
+        return pos;
+    }
+
+    protected int skipSpaces(int pos, int limit){
+        while (pos < limit && (buffer.get(pos) == ' ' || buffer.get(pos) == '\t')){
+            ++pos;
+        }
+
+        return pos;
+    }
+
+    /**
+     * Finds the position of the next '\n' or the limit if there is none
+     */
+    protected int findLineEnd(int pos, int limit){
+        while (pos < limit && buffer.get(pos) != '\n'){
+            ++pos;
+        }
+
+        return pos;
+    }
+
+    protected static int nextLine(int lineEnd, int limit){
+        return lineEnd < limit ? lineEnd + 1 : limit;
+    }
+
+    /**
+     * Gets the end of a line content, excluding the '\r' of a "\r\n" line break
+     */
+    protected int contentEnd(int pos, int lineEnd){
+        return lineEnd > pos && buffer.get(lineEnd - 1) == '\r' ? lineEnd - 1 : lineEnd;
+    }
+
+    protected boolean isBlank(int pos, int lineEnd){
+        return contentEnd(pos, lineEnd) == pos;
+    }
+
+    /**
+     * Checks if the bytes at a position are an ASCII text, ignoring the case
+     */
+    protected boolean startsWith(int pos, int limit, String prefix){
+        if (limit - pos < prefix.length()){
+            return false;
+        }
+
+        for (int i = 0; i < prefix.length(); ++i){
+            if (Character.toLowerCase((char)buffer.get(pos + i)) != Character.toLowerCase(prefix.charAt(i))){
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Finds an ASCII text between two positions, matching the case
+     * @return The position where the text starts or -1 if it isn't found
+     */
+    protected int indexOf(int from, int to, String text){
+        search:
+        for (int pos = from; pos <= to - text.length(); ++pos){
+            for (int i = 0; i < text.length(); ++i){
+                if (buffer.get(pos + i) != text.charAt(i)){
+                    continue search;
+                }
+            }
+
+            return pos;
+        }
+
+        return -1;
+    }
+
+    /**
+     * Finds a byte between two positions
+     * @return The position of the byte or -1 if it isn't found
+     */
+    protected int indexOf(int from, int to, byte b){
+        for (int pos = from; pos < to; ++pos){
+            if (buffer.get(pos) == b){
+                return pos;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Parses a clock time as the formats other than SRT write it: [[h:]m:]s with an optional fraction of
+     * second after a '.' or ',', of 1 to 3 digits (tenths, hundredths or milliseconds)
+     * @param from Position where the time starts (inclusive)
+     * @param to Position where the time ends (exclusive)
+     * @return The time in milliseconds
+     * @throws IOException If the range isn't a valid time
+     */
+    protected long parseClock(int from, int to) throws IOException {
+        int pos = from;
+        boolean negative = pos < to && buffer.get(pos) == '-';
+
+        if (negative){
+            ++pos;
+        }
+
+        long seconds = 0;
+
+        for (int field = 0; field < 3; ++field){
+            long value = 0;
+            int digitsStart = pos;
+
+            while (pos < to && buffer.get(pos) >= '0' && buffer.get(pos) <= '9'){
+                value = value * 10 + buffer.get(pos++) - '0';
+            }
+
+            if (pos == digitsStart){
+                throw formatError("Invalid subtitle time", from);
+            }
+
+            seconds = seconds * 60 + value;
+
+            if (pos >= to || buffer.get(pos) != ':'){
+                break;
+            }
+
+            ++pos;
+        }
+
+        long millis = 0;
+
+        if (pos < to && (buffer.get(pos) == '.' || buffer.get(pos) == ',')){
+            ++pos;
+            int scale = 100;
+
+            while (pos < to && buffer.get(pos) >= '0' && buffer.get(pos) <= '9'){
+                millis += (buffer.get(pos++) - '0') * scale;
+                scale /= 10;
+            }
+        }
+
+        if (pos != to){
+            throw formatError("Invalid subtitle time", from);
+        }
+
+        long time = seconds * 1000 + millis;
+        return negative ? -time : time;
+    }
+
+    protected IOException formatError(String message, int pos){
+        return new IOException(message + " at byte " + (bufferFileOffset + pos));
+    }
+
+    /**
+     * Decodes the raw text of a cue, as given to {@link CueHandler#cue}, converting "\r\n" line breaks to "\n".
+     * The text buffer is consumed.
+     * @param text The raw cue text
+     * @param decoder Decoder for the file charset
+     * @param out Buffer to decode to, cleared before use. A bigger one is allocated if it doesn't fit
+     * @return The buffer with the decoded text between 0 and its position
+     * @throws CharacterCodingException If the text can't be decoded
+     */
+    public static CharBuffer decodeText(ByteBuffer text, CharsetDecoder decoder, CharBuffer out)
+            throws CharacterCodingException {
+        int maxChars = (int)(text.remaining() * (double)decoder.maxCharsPerByte()) + 1;
+
+        if (out == null || out.capacity() < maxChars){
+            out = CharBuffer.allocate(Math.max(maxChars, out == null ? 0 : out.capacity() * 2));
+        }
+
+        out.clear();
+        decoder.reset();
+        CoderResult result = decoder.decode(text, out, true);
+
+        if (result.isError()){
+            result.throwException();
+        }
+
+        decoder.flush(out);
+
+        //drop the '\r' of the "\r\n" line breaks, in place
+        char[] chars = out.array();
+        int length = out.position();
+        int write = 0;
+
+        for (int read = 0; read < length; ++read){
+            char c = chars[read];
+
+            if (c == '\r' && read + 1 < length && chars[read + 1] == '\n'){
+                continue;
+            }
+
+            chars[write++] = c;
+        }
+
+        out.position(write);
+        return out;
+    }
+}
@@ -0,0 +1,489 @@
+package subitleseditor;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Base of the subtitle writers, which write cues straight to a byte channel. Numbers and times are written
+ * as bytes and texts are encoded directly into a pooled ByteBuffer, so no String is created per cue.
+ * Each format only writes its header, the framing of each cue and its line breaks.
+ * @author isacv
+ */
+public abstract class CueWriter implements Closeable {
+    /**
+     * Writes the content of a file through a writer
+     */
+    public interface Body {
+        void write(CueWriter writer) throws IOException;
+    }
+
+    private static final int BUFFER_SIZE = 256 * 1024;
+    private static final int PROGRESS_INTERVAL = 4096; //cues between progress reports
+    private static final ThreadLocal<ByteBuffer> BUFFER_POOL = new ThreadLocal<>();
+
+    private final WritableByteChannel channel;
+    private final CharsetEncoder encoder;
+    private final boolean asciiCompatible;
+    private final boolean encodedCharset; //stored texts can be written without decoding them
+    private final boolean utf8;
+    private final byte[] bytes = new byte[256];
+    private ByteBuffer buffer;
+    private boolean started;
+    /**
+     * Scratch space for the formats to build their cue headers
+     */
+    protected final char[] chars = new char[bytes.length];
+
+    /**
+     * Creates a writer to a channel. The channel isn't closed by this writer
+     * @param channel The channel to write to
+     * @param charset The charset used to encode the subtitles
+     */
+    protected CueWriter(WritableByteChannel channel, Charset charset){
+        this.channel = channel;
+        this.encoder = charset.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.asciiCompatible = CueTokenizer.supports(charset);
+        this.encodedCharset = TextArena.isEncodedCharset(charset);
+        this.utf8 = charset.equals(StandardCharsets.UTF_8);
+        this.buffer = acquireBuffer();
+    }
+
+    /**
+     * Writes a cue with its text given as chars
+     * @param number The subtitle number
+     * @param start Start time in milliseconds
+     * @param end End time in milliseconds
+     * @param text The subtitle text, between its position and limit. The buffer is consumed
+     * @throws IOException If the channel can't be written
+     */
+    public void writeCue(int number, long start, long end, CharBuffer text) throws IOException {
+        start();
+        writeHeader(number, start, end);
+        writeText(text);
+        writeFooter();
+    }
+
+    /**
+     * Writes a cue with its text given as bytes already encoded in the writer charset
+     * @param number The subtitle number
+     * @param start Start time in milliseconds
+     * @param end End time in milliseconds
+     * @param text The encoded subtitle text, between its position and limit. The buffer is consumed
+     * @throws IOException If the channel can't be written
+     */
+    public void writeCue(int number, long start, long end, ByteBuffer text) throws IOException {
+        start();
+        writeHeader(number, start, end);
+        writeText(text);
+        writeFooter();
+    }
+
+    /**
+     * Writes all the cues of a store
+     * @param cues The cues to write
+     * @throws IOException If the channel can't be written
+     */
+    public void writeAll(CueStore cues) throws IOException {
+        writeAll(cues, null);
+    }
+
+    /**
+     * Writes all the cues of a store, reporting the amount of cues written every few thousand cues
+     * @param cues The cues to write
+     * @param listener The progress listener, which may stop the writing by throwing an IOException. May be null
+     * @throws IOException If the channel can't be written
+     */
+    public void writeAll(CueStore cues, ProgressListener listener) throws IOException {
+        CharBuffer text = null; //reused by all the cues
+        ByteBuffer encodedText = null;
+
+        for (int i = 0; i < cues.size(); ++i){
+            ByteBuffer encoded = encodedCharset ? cues.getEncodedText(i, utf8, encodedText) : null;
+
+            if (encoded != null){
+                encodedText = encoded;
+                writeCue(cues.getNumber(i), cues.getStart(i), cues.getEnd(i), encoded);
+            }
+            else {
+                text = cues.getText(i, text);
+                writeCue(cues.getNumber(i), cues.getStart(i), cues.getEnd(i), text);
+            }
+
+            if (listener != null && (i + 1) % PROGRESS_INTERVAL == 0){
+                listener.progress(i + 1, cues.size());
+            }
+        }
+
+        if (listener != null){
+            listener.progress(cues.size(), cues.size());
+        }
+    }
+
+    /**
+     * Writes the file header before the first cue, or on close if there are none
+     */
+    private void start() throws IOException {
+        if (!started){
+            started = true;
+            writeFileHeader();
+        }
+    }
+
+    /**
+     * Writes what the format needs before the cues. Nothing by default
+     * @throws IOException If the channel can't be written
+     */
+    protected void writeFileHeader() throws IOException {
+    }
+
+    /**
+     * Writes what goes before the text of a cue
+     * @param number The subtitle number
+     * @param start Start time in milliseconds
+     * @param end End time in milliseconds
+     * @throws IOException If the channel can't be written
+     */
+    protected abstract void writeHeader(int number, long start, long end) throws IOException;
+
+    /**
+     * Writes the text of a cue, whose lines are separated by "\n". Written as is by default
+     * @param text The text, which is consumed
+     * @throws IOException If the channel can't be written
+     */
+    protected void writeText(CharBuffer text) throws IOException {
+        encode(text);
+    }
+
+    /**
+     * Writes the encoded text of a cue, whose lines are separated by "\n" or "\r\n". Written as is by default
+     * @param text The text, which is consumed
+     * @throws IOException If the channel can't be written
+     */
+    protected void writeText(ByteBuffer text) throws IOException {
+        writeBytes(text);
+    }
+
+    /**
+     * Writes what goes after the text of a cue, a blank line by default
+     * @throws IOException If the channel can't be written
+     */
+    protected void writeFooter() throws IOException {
+        writeAscii("\n\n");
+    }
+
+    /**
+     * Writes a text replacing its line breaks by the marker of a format, like "\N" or "[br]"
+     * @param text The text, which is consumed
+     * @param lineBreak The ASCII marker
+     * @throws IOException If the channel can't be written
+     */
+    protected void writeText(CharBuffer text, String lineBreak) throws IOException {
+        int limit = text.limit();
+
+        for (int pos = text.position(); pos < limit; ++pos){
+            if (text.get(pos) == '\n'){
+                text.limit(pos > text.position() && text.get(pos - 1) == '\r' ? pos - 1 : pos);
+                encode(text);
+                writeAscii(lineBreak);
+                text.limit(limit).position(pos + 1);
+            }
+        }
+
+        encode(text);
+    }
+
+    /**
+     * Writes an encoded text replacing its line breaks by the marker of a format, like "\N" or "[br]"
+     * @param text The text, which is consumed
+     * @param lineBreak The ASCII marker
+     * @throws IOException If the channel can't be written
+     */
+    protected void writeText(ByteBuffer text, String lineBreak) throws IOException {
+        int limit = text.limit();
+
+        for (int pos = text.position(); pos < limit; ++pos){
+            if (text.get(pos) == '\n'){
+                text.limit(pos > text.position() && text.get(pos - 1) == '\r' ? pos - 1 : pos);
+                writeBytes(text);
+                writeAscii(lineBreak);
+                text.limit(limit).position(pos + 1);
+            }
+        }
+
+        writeBytes(text);
+    }
+
+    /**
+     * Writes a number to a char sink
+     * @return The position after the number
+     */
+    protected static int formatNumber(int number, char[] dst, int offset){
+        //the digits are written backwards
+        int digitsEnd = offset + numberLength(number);
+
+        for (int i = digitsEnd - 1, n = number; i >= offset; --i, n /= 10){
+            dst[i] = (char)('0' + Math.abs(n % 10));
+        }
+
+        if (number < 0){
+            dst[offset] = '-';
+        }
+
+        return digitsEnd;
+    }
+
+    private static int numberLength(int number){
+        int length = number < 0 ? 2 : 1;
+
+        for (int n = number / 10; n != 0; n /= 10){
+            ++length;
+        }
+
+        return length;
+    }
+
+    protected void writeAscii(String text) throws IOException {
+        int length = Math.min(text.length(), chars.length);
+        text.getChars(0, length, chars, 0);
+        writeAscii(chars, length);
+
+        if (length < text.length()){
+            writeAscii(text.substring(length));
+        }
+    }
+
+    /**
+     * Writes ASCII chars, directly as bytes when the charset allows it
+     */
+    protected void writeAscii(char[] src, int length) throws IOException {
+        if (!asciiCompatible){
+            encode(CharBuffer.wrap(src, 0, length));
+            return;
+        }
+
+        if (buffer.remaining() < length){
+            drain();
+        }
+
+        for (int i = 0; i < length; ++i){
+            bytes[i] = (byte)src[i];
+        }
+
+        buffer.put(bytes, 0, length);
+    }
+
+    /**
+     * Writes bytes already encoded in the writer charset
+     */
+    protected void writeBytes(ByteBuffer text) throws IOException {
+        while (text.hasRemaining()){
+            if (!buffer.hasRemaining()){
+                drain();
+            }
+
+            int limit = text.limit();
+            text.limit(text.position() + Math.min(text.remaining(), buffer.remaining()));
+            buffer.put(text);
+            text.limit(limit);
+        }
+    }
+
+    /**
+     * Encodes chars to the buffer. The encoder is only ended on close, so that stateful charsets
+     * like UTF-16 only write their byte order mark once
+     */
+    protected void encode(CharBuffer text) throws IOException {
+        while (true){
+            CoderResult result = encoder.encode(text, buffer, false);
+
+            if (result.isOverflow()){
+                drain();
+            }
+            else if (result.isUnderflow()){
+                break;
+            }
+            else {
+                result.throwException();
+            }
+        }
+    }
+
+    /**
+     * Ends the encoding, writing any final bytes the charset requires
+     */
+    private void endEncoding() throws IOException {
+        CharBuffer empty = CharBuffer.allocate(0);
+
+        while (encoder.encode(empty, buffer, true).isOverflow()){
+            drain();
+        }
+
+        while (encoder.flush(buffer).isOverflow()){
+            drain();
+        }
+    }
+
+    /**
+     * Writes the buffer content to the channel, leaving the buffer empty
+     */
+    private void drain() throws IOException {
+        buffer.flip();
+
+        while (buffer.hasRemaining()){
+            channel.write(buffer);
+        }
+
+        buffer.clear();
+    }
+
+    /**
+     * Writes everything that is still buffered to the channel
+     * @throws IOException If the channel can't be written
+     */
+    public void flush() throws IOException {
+        drain();
+    }
+
+    /**
+     * Ends the encoding, flushes the writer and returns its buffer to the pool. The channel is not closed
+     * @throws IOException If the channel can't be written
+     */
+    @Override
+    public void close() throws IOException {
+        if (buffer != null){
+            try {
+                start();
+                endEncoding();
+                drain();
+            } finally {
+                releaseBuffer(buffer);
+                buffer = null;
+            }
+        }
+    }
+
+    /**
+     * Drops everything that is still buffered and returns the buffer to the pool, for a content that couldn't
+     * be completed. Nothing more is written to the channel
+     */
+    public void discard(){
+        if (buffer != null){
+            releaseBuffer(buffer);
+            buffer = null;
+        }
+    }
+
+    private static ByteBuffer acquireBuffer(){
+        ByteBuffer pooled = BUFFER_POOL.get();
+
+        if (pooled == null){
+            return ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+
+        BUFFER_POOL.remove();
+        pooled.clear();
+        return pooled;
+    }
+
+    private static void releaseBuffer(ByteBuffer released){
+        BUFFER_POOL.set(released);
+    }
+
+    /**
+     * Writes a file without ever leaving it half written. The content is written to a temporary file in the
+     * same directory, synced to disk and then moved over the target in a single rename.
+     * @param target The file to write
+     * @param format The format of the file
+     * @param charset The charset used to encode the subtitles
+     * @param body Writes the content of the file
+     * @throws IOException If the file can't be written, in which case the target is left untouched
+     */
+    public static void writeAtomically(Path target, SubtitleFormat format, Charset charset, Body body)
+            throws IOException {
+        Path directory = target.toAbsolutePath().getParent();
+        Path temp = createSibling(directory, target.getFileName());
+        boolean moved = false;
+
+        try {
+            copyPermissions(target, temp);
+
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)){
+                try (CueWriter writer = format.newWriter(channel, charset)){
+                    body.write(writer);
+                }
+
+                channel.force(true); //once the writer has flushed everything
+            }
+
+            try {
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+
+            moved = true;
+            syncDirectory(directory);
+        } finally {
+            if (!moved){
+                Files.deleteIfExists(temp);
+            }
+        }
+    }
+
+    /**
+     * Creates an empty file with a unique name in a directory. Unlike {@link Files#createTempFile}, which makes 
+     * it only readable by its owner, the file gets the default permissions, the same a new target would get
+     */
+    private static Path createSibling(Path directory, Path name) throws IOException {
+        while (true){
+            Path temp = directory.resolve("." + name + "." + Long.toHexString(ThreadLocalRandom.current().nextLong()) 
+                    + ".tmp");
+
+            try {
+                return Files.createFile(temp);
+            } catch (FileAlreadyExistsException ex) { //taken, tries another name
+            }
+        }
+    }
+
+    /**
+     * Gives the temporary file the same permissions of the file it is going to replace, if there is one
+     */
+    private static void copyPermissions(Path from, Path to){
+        try {
+            if (Files.exists(from)){
+                Files.setPosixFilePermissions(to, Files.getPosixFilePermissions(from));
+            }
+        } catch (UnsupportedOperationException | IOException ex) { //not a posix file system, nothing to copy
+        }
+    }
+
+    /**
+     * Makes the rename durable. Only possible on some platforms, so failing is not an error
+     */
+    private static void syncDirectory(Path directory){
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)){
+            channel.force(true);
+        } catch (IOException ex) {
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package subitleseditor;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Undo/redo history of the timing edits. Instead of copies of the cues, each step records the edit
+ * itself, which is a handful of numbers, so hundreds of steps take a few kilobytes on files of any size.
+ * Undoing an edit applies it backwards, touching only the cues the edit moved.
+ * @author isacv
+ */
+public class EditHistory {
+    /**
+     * Default amount of steps that can be undone
+     */
+    public static final int DEFAULT_LIMIT = 500;
+
+    /**
+     * A timing edit that can be applied forwards and backwards
+     */
+    public interface TimeEdit {
+        /**
+         * Applies the edit
+         * @param cues The cues to edit
+         * @param direction 1 to do the edit, -1 to undo it
+         */
+        void apply(CueStore cues, int direction);
+
+        /**
+         * Gets the first cue the edit moves
+         * @return The index of the first moved cue
+         */
+        int getFromIndex();
+
+        /**
+         * Gets the last cue the edit moves
+         * @return The index of the last moved cue (inclusive)
+         */
+        int getToIndex();
+    }
+
+    private final Deque<TimeEdit> undoSteps = new ArrayDeque<>();
+    private final Deque<TimeEdit> redoSteps = new ArrayDeque<>();
+    private final int limit;
+
+    public EditHistory(){
+        this(DEFAULT_LIMIT);
+    }
+
+    /**
+     * Creates a history
+     * @param limit Amount of steps kept, the oldest steps are forgotten after that
+     */
+    public EditHistory(int limit){
+        this.limit = limit;
+    }
+
+    /**
+     * Records an edit that was just applied. Anything that could be redone is forgotten
+     * @param edit The applied edit
+     */
+    public void record(TimeEdit edit){
+        redoSteps.clear();
+        undoSteps.push(edit);
+
+        if (undoSteps.size() > limit){
+            undoSteps.removeLast();
+        }
+    }
+
+    /**
+     * Undoes the last applied edit
+     * @param cues The cues the edit was applied to
+     * @return The undone edit or null if there is nothing to undo
+     */
+    public TimeEdit undo(CueStore cues){
+        TimeEdit edit = undoSteps.poll();
+
+        if (edit != null){
+            edit.apply(cues, -1);
+            redoSteps.push(edit);
+        }
+
+        return edit;
+    }
+
+    /**
+     * Applies again the last undone edit
+     * @param cues The cues the edit was undone from
+     * @return The redone edit or null if there is nothing to redo
+     */
+    public TimeEdit redo(CueStore cues){
+        TimeEdit edit = redoSteps.poll();
+
+        if (edit != null){
+            edit.apply(cues, 1);
+            undoSteps.push(edit);
+        }
+
+        return edit;
+    }
+
+    public boolean canUndo(){
+        return !undoSteps.isEmpty();
+    }
+
+    public boolean canRedo(){
+        return !redoSteps.isEmpty();
+    }
+
+    /**
+     * Forgets all the steps, as needed when other cues are loaded
+     */
+    public void clear(){
+        undoSteps.clear();
+        redoSteps.clear();
+    }
+
+    /**
+     * Moves the cues with a number in a range by the same amount of time
+     */
+    public static class RangeShift implements TimeEdit {
+        private final int minNumber;
+        private final int maxNumber;
+        private final int fromIndex;
+        private final int toIndex;
+        private final long milliseconds;
+
+        /**
+         * Creates the shift of a range of cues
+         * @param minNumber First subtitle number to move (inclusive)
+         * @param maxNumber Last subtitle number to move (inclusive)
+         * @param fromIndex Index of the first moved cue
+         * @param toIndex Index of the last moved cue (inclusive)
+         * @param milliseconds Milliseconds to advance/delay
+         */
+        public RangeShift(int minNumber, int maxNumber, int fromIndex, int toIndex, long milliseconds){
+            this.minNumber = minNumber;
+            this.maxNumber = maxNumber;
+            this.fromIndex = fromIndex;
+            this.toIndex = toIndex;
+            this.milliseconds = milliseconds;
+        }
+
+        @Override
+        public void apply(CueStore cues, int direction){
+            cues.shiftNumberRange(minNumber, maxNumber, direction * milliseconds);
+        }
+
+        @Override
+        public int getFromIndex(){
+            return fromIndex;
+        }
+
+        @Override
+        public int getToIndex(){
+            return toIndex;
+        }
+    }
+
+    /**
+     * Changes the times of some ranges of cues, each with its own scale and offset
+     */
+    public static class RangesTransform implements TimeEdit {
+        private final int[] froms;
+        private final int[] tos;
+        private final double[] scales;
+        private final double[] offsets;
+
+        /**
+         * Creates the change of some ranges of cues. A time t of a cue in range r becomes
+         * {@code scales[r] * t + offsets[r]}
+         * @param froms First cue index of each range
+         * @param tos Last cue index of each range (inclusive)
+         * @param scales Factor of the times of each range, which can't be 0
+         * @param offsets Milliseconds added to the times of each range
+         */
+        public RangesTransform(int[] froms, int[] tos, double[] scales, double[] offsets){
+            this.froms = froms;
+            this.tos = tos;
+            this.scales = scales;
+            this.offsets = offsets;
+        }
+
+        @Override
+        public void apply(CueStore cues, int direction){
+            for (int r = 0; r < froms.length; ++r){
+                if (direction > 0){
+                    cues.transformRange(froms[r], tos[r], scales[r], offsets[r], 0);
+                }
+                else {
+                    cues.transformRange(froms[r], tos[r], 1 / scales[r], -offsets[r] / scales[r], 0);
+                }
+            }
+        }
+
+        @Override
+        public int getFromIndex(){
+            return froms.length == 0 ? 0 : froms[0];
+        }
+
+        @Override
+        public int getToIndex(){
+            return tos.length == 0 ? -1 : tos[tos.length - 1];
+        }
+    }
+}
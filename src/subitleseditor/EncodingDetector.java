@@ -0,0 +1,186 @@
+package subitleseditor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Guesses the encoding of subtitle bytes. A byte order mark decides it right away. Otherwise the bytes are checked
+ * to be valid UTF-8, only until enough non ASCII characters were seen to be sure, ASCII being skipped 8 bytes at a
+ * time. Text that isn't UTF-8 is taken as UTF-16 when half its bytes are zeros, and as Windows-1252 otherwise,
+ * which is what most western subtitles that aren't UTF-8 are written in, and a superset of ISO-8859-1 printable chars.
+ * @author isacv
+ */
+public final class EncodingDetector {
+    /**
+     * Charset of the text that isn't UTF-8 nor UTF-16
+     */
+    public static final Charset FALLBACK = Charset.forName("windows-1252");
+
+    private static final int CONFIDENT_SEQUENCES = 64; //valid multi byte UTF-8 chars after which the rest is not checked
+    private static final int UTF16_SAMPLE = 4096; //bytes checked for UTF-16 without byte order mark
+    private static final long NON_ASCII_MASK = 0x8080808080808080L;
+
+    private EncodingDetector(){
+    }
+
+    /**
+     * Detects the encoding of a file. Only the needed prefix of the file is read
+     * @param path The file
+     * @return The detected charset
+     * @throws IOException If the file can't be read
+     */
+    public static Charset detect(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)){
+            return detect(channel);
+        }
+    }
+
+    /**
+     * Detects the encoding of the content of a channel. The content is mapped, so only the pages of the prefix
+     * the scan needs are read, and they stay cached for whoever reads the channel next
+     * @param channel The channel, which is left at its current position
+     * @return The detected charset
+     * @throws IOException If the channel can't be read
+     */
+    public static Charset detect(FileChannel channel) throws IOException {
+        long size = channel.size();
+
+        if (size == 0){
+            return StandardCharsets.UTF_8;
+        }
+
+        return detect(channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(size, Integer.MAX_VALUE)));
+    }
+
+    /**
+     * Detects the encoding of some bytes
+     * @param content The bytes between its position and limit, read with absolute positions
+     * @return The detected charset
+     */
+    public static Charset detect(ByteBuffer content){
+        int from = content.position();
+        int to = content.limit();
+        int length = to - from;
+
+        if (length >= 3 && (content.get(from) & 0xFF) == 0xEF && (content.get(from + 1) & 0xFF) == 0xBB
+                && (content.get(from + 2) & 0xFF) == 0xBF){
+            return StandardCharsets.UTF_8;
+        }
+
+        if (length >= 2 && (content.get(from) & 0xFF) == 0xFF && (content.get(from + 1) & 0xFF) == 0xFE){
+            return StandardCharsets.UTF_16LE;
+        }
+
+        if (length >= 2 && (content.get(from) & 0xFF) == 0xFE && (content.get(from + 1) & 0xFF) == 0xFF){
+            return StandardCharsets.UTF_16BE;
+        }
+
+        Charset utf16 = detectUtf16(content, from, Math.min(to, from + UTF16_SAMPLE));
+
+        if (utf16 != null){
+            return utf16;
+        }
+
+        return isUtf8(content, from, to) ? StandardCharsets.UTF_8 : FALLBACK;
+    }
+
+    /**
+     * Detects UTF-16 without byte order mark, where the ASCII chars of the subtitles have a zero high byte
+     * @return The UTF-16 charset or null if it doesn't look like UTF-16
+     */
+    private static Charset detectUtf16(ByteBuffer content, int from, int to){
+        int pairs = (to - from) / 2;
+        int evenZeros = 0;
+        int oddZeros = 0;
+
+        if (pairs < 2){
+            return null;
+        }
+
+        for (int i = from; i + 1 < to; i += 2){
+            evenZeros += content.get(i) == 0 ? 1 : 0;
+            oddZeros += content.get(i + 1) == 0 ? 1 : 0;
+        }
+
+        if (oddZeros > pairs * 2 / 5 && evenZeros < pairs / 20){
+            return StandardCharsets.UTF_16LE;
+        }
+
+        if (evenZeros > pairs * 2 / 5 && oddZeros < pairs / 20){
+            return StandardCharsets.UTF_16BE;
+        }
+
+        return null;
+    }
+
+    /**
+     * Checks that the bytes are valid UTF-8, until enough non ASCII chars prove it
+     */
+    private static boolean isUtf8(ByteBuffer content, int from, int to){
+        int pos = from;
+        int sequences = 0;
+
+        while (pos < to && sequences < CONFIDENT_SEQUENCES){
+            //skips ASCII a word at a time
+            while (pos + 8 <= to && (content.getLong(pos) & NON_ASCII_MASK) == 0){
+                pos += 8;
+            }
+
+            if (pos >= to){
+                break;
+            }
+
+            int lead = content.get(pos) & 0xFF;
+
+            if (lead < 0x80){
+                ++pos;
+                continue;
+            }
+
+            int continuations;
+            int min; //lowest valid value of the first continuation byte, to reject overlong forms
+            int max; //highest valid value of the first continuation byte, to reject surrogates and too big values
+
+            if (lead >= 0xC2 && lead <= 0xDF){
+                continuations = 1;
+                min = 0x80;
+                max = 0xBF;
+            }
+            else if (lead >= 0xE0 && lead <= 0xEF){
+                continuations = 2;
+                min = lead == 0xE0 ? 0xA0 : 0x80;
+                max = lead == 0xED ? 0x9F : 0xBF;
+            }
+            else if (lead >= 0xF0 && lead <= 0xF4){
+                continuations = 3;
+                min = lead == 0xF0 ? 0x90 : 0x80;
+                max = lead == 0xF4 ? 0x8F : 0xBF;
+            }
+            else {
+                return false;
+            }
+
+            if (pos + continuations >= to){ //cut at the end, nothing more to check
+                return true;
+            }
+
+            for (int i = 1; i <= continuations; ++i){
+                int next = content.get(pos + i) & 0xFF;
+
+                if (next < (i == 1 ? min : 0x80) || next > (i == 1 ? max : 0xBF)){
+                    return false;
+                }
+            }
+
+            pos += continuations + 1;
+            ++sequences;
+        }
+
+        return true;
+    }
+}
@@ -0,0 +1,123 @@
+package subitleseditor;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Watches a file for the changes made by other programs, with a WatchService on its directory. Editors often
+ * write a file in several steps, so a change is only reported once the file was left alone for a moment.
+ * Changes are reported on the thread of the monitor, one at a time.
+ * @author isacv
+ */
+public class FileMonitor implements Closeable {
+    private static final long QUIET_MILLIS = 200; //time without events before a change is reported
+
+    private final Path file;
+    private final Runnable onChange;
+    private final WatchService watcher;
+    private volatile boolean recheck;
+
+    /**
+     * Starts watching a file
+     * @param file The file to watch
+     * @param onChange Called on the monitor thread after the file changed, or was created again
+     * @throws IOException If the directory of the file can't be watched
+     */
+    public FileMonitor(Path file, Runnable onChange) throws IOException {
+        this.file = file.toAbsolutePath();
+        this.onChange = onChange;
+        this.watcher = FileSystems.getDefault().newWatchService();
+
+        try {
+            this.file.getParent().register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException | RuntimeException ex) {
+            watcher.close();
+            throw ex;
+        }
+
+        Thread thread = new Thread(this::run, "File monitor " + this.file.getFileName());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public Path getFile(){
+        return file;
+    }
+
+    /**
+     * Reports a change again soon, even if the file didn't change. Used when a change couldn't be handled
+     * because the subtitles changed meanwhile
+     */
+    public void recheck(){
+        recheck = true;
+    }
+
+    private void run(){
+        try {
+            while (true){
+                WatchKey key = watcher.poll(QUIET_MILLIS, TimeUnit.MILLISECONDS);
+                boolean changed = false;
+
+                //the change is reported once the events stop
+                while (key != null){
+                    changed |= isFileEvent(key);
+
+                    if (!key.reset()){ //the directory is gone
+                        return;
+                    }
+
+                    key = watcher.poll(QUIET_MILLIS, TimeUnit.MILLISECONDS);
+                }
+
+                if (recheck){
+                    recheck = false;
+                    changed = true;
+                }
+
+                if (changed){
+                    report();
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException ex) { //closed
+        }
+    }
+
+    private boolean isFileEvent(WatchKey key){
+        boolean found = false;
+
+        for (WatchEvent<?> event : key.pollEvents()){
+            Object context = event.context();
+            found |= event.kind() == StandardWatchEventKinds.OVERFLOW
+                    || (context instanceof Path && file.getFileName().equals(context));
+        }
+
+        return found;
+    }
+
+    private void report(){
+        try {
+            onChange.run();
+        } catch (RuntimeException ex) { //keeps watching
+            Logger.getLogger(FileMonitor.class.getName()).log(Level.WARNING, null, ex);
+        }
+    }
+
+    /**
+     * Stops watching the file
+     */
+    @Override
+    public void close() throws IOException {
+        watcher.close();
+    }
+}
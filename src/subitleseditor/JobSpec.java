@@ -0,0 +1,153 @@
+package subitleseditor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The options of a shift, synchronization or conversion job, shared by {@link BatchMain} and {@link ServerMain}
+ * so that both parse and check them the same way. Each entry point only handles its own options.
+ * @author isacv
+ */
+class JobSpec {
+    private final String prefix; //of the option names in the messages, like "--"
+    private Long shift;
+    private int rangeMin = Integer.MIN_VALUE;
+    private int rangeMax = Integer.MAX_VALUE;
+    private Integer syncSub;
+    private int syncMillis;
+    private final List<Integer> anchorSubs = new ArrayList<>();
+    private final List<Long> anchorTimes = new ArrayList<>();
+    private String encoding = SubtitlesManager.AUTO_DETECT;
+    private SubtitleFormat targetFormat;
+
+    /**
+     * Creates the options of a job, all unset
+     * @param prefix Written before the option names in the messages, like "--" for command line options
+     */
+    JobSpec(String prefix){
+        this.prefix = prefix;
+    }
+
+    /**
+     * Sets an option of the job
+     * @param name The option name, without prefix
+     * @param value The option value
+     * @return false if the option isn't a job option, to be handled by the caller
+     * @throws IllegalArgumentException If the value is invalid
+     */
+    boolean set(String name, String value){
+        try {
+            switch (name){
+                case "shift":
+                    shift = Long.parseLong(value);
+                    return true;
+                case "range":
+                    String[] range = value.split(":");
+                    rangeMin = Integer.parseInt(range[0]);
+                    rangeMax = Integer.parseInt(range[1]);
+                    return true;
+                case "sync":
+                    String[] sync = value.split(":");
+                    syncSub = Integer.parseInt(sync[0]);
+                    syncMillis = Integer.parseInt(sync[1]);
+                    return true;
+                case "anchor":
+                    int separator = value.indexOf('@');
+                    anchorSubs.add(Integer.parseInt(value.substring(0, separator)));
+                    anchorTimes.add(TimeCodec.parse(value, separator + 1, value.length()));
+                    return true;
+                case "encoding":
+                    encoding = value;
+                    return true;
+                case "to":
+                    targetFormat = SubtitleFormats.forName(value);
+                    return true;
+                default:
+                    return false;
+            }
+        } catch (NumberFormatException | IndexOutOfBoundsException ex) {
+            throw new IllegalArgumentException("Invalid value for " + prefix + name + ": " + value);
+        }
+    }
+
+    /**
+     * Checks that the options make a single valid job, once all of them are set. A job that only converts
+     * becomes a shift of nothing
+     * @throws IllegalArgumentException If they don't
+     */
+    void validate(){
+        int modes = (shift == null ? 0 : 1) + (syncSub == null ? 0 : 1) + (anchorSubs.isEmpty() ? 0 : 1);
+
+        if (modes == 0 && targetFormat != null){ //only converting
+            shift = 0L;
+        }
+        else if (modes != 1){
+            throw new IllegalArgumentException("Either " + prefix + "shift, " + prefix + "sync, " + prefix
+                    + "anchor or " + prefix + "to must be given");
+        }
+
+        if (shift != null && (shift > Integer.MAX_VALUE || shift < Integer.MIN_VALUE)){
+            throw new IllegalArgumentException("The shift is too big");
+        }
+
+        if (rangeMin > rangeMax){
+            throw new IllegalArgumentException("The range must not end before it starts");
+        }
+    }
+
+    boolean isShift(){
+        return shift != null;
+    }
+
+    /**
+     * Gets the milliseconds of a shift job
+     * @return The milliseconds to move the subtitles
+     */
+    int getShift(){
+        return (int)(long)shift;
+    }
+
+    int getRangeMin(){
+        return rangeMin;
+    }
+
+    int getRangeMax(){
+        return rangeMax;
+    }
+
+    boolean isSync(){
+        return syncSub != null;
+    }
+
+    int getSyncSub(){
+        return syncSub;
+    }
+
+    int getSyncMillis(){
+        return syncMillis;
+    }
+
+    int[] getAnchorSubs(){
+        return anchorSubs.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    long[] getAnchorTimes(){
+        return anchorTimes.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    String getEncoding(){
+        return encoding;
+    }
+
+    boolean isAutoDetect(){
+        return SubtitlesManager.AUTO_DETECT.equalsIgnoreCase(encoding) || "auto".equalsIgnoreCase(encoding);
+    }
+
+    /**
+     * Gets the format to convert to
+     * @return The format, or null to keep the one of the subtitles
+     */
+    SubtitleFormat getTargetFormat(){
+        return targetFormat;
+    }
+}
@@ -9,11 +9,16 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import javax.swing.JFileChooser;
 import javax.swing.JFrame;
 import javax.swing.JMenuItem;
 import javax.swing.JOptionPane;
 import javax.swing.JTextField;
+import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
 /**
  *
  * @author isacv
@@ -21,7 +26,10 @@ import javax.swing.JTextField;
 public class MainUI extends javax.swing.JFrame implements Notifier{
 
     private SubtitlesManager subManager;
-    private int selectedEncodingIndex = 1;
+    private CueTableModel subtitlesModel;
+    private SwingWorker<CueStore, Void> loadTask;
+    private SwingWorker<Boolean, Void> saveTask;
+    private int selectedEncodingIndex = 0;
     
     private List<javax.swing.JCheckBoxMenuItem> encodingItems;
     
@@ -34,9 +42,17 @@ public class MainUI extends javax.swing.JFrame implements Notifier{
         setExtendedState(JFrame.MAXIMIZED_BOTH);
         
         subManager = new SubtitlesManager();
-        subManager.addNotifier(this);
+        subManager.addNotifier(this, SwingUtilities::invokeLater); //notified on the EDT
+        subManager.setCache(new CueCache(CueCache.defaultDirectory()));
+        
+        subtitlesModel = new CueTableModel(subManager);
+        tableSubtitles.setModel(subtitlesModel);
+        tableSubtitles.getColumnModel().getColumn(CueTableModel.NUMBER_COLUMN).setMaxWidth(80);
+        tableSubtitles.getColumnModel().getColumn(CueTableModel.START_COLUMN).setMaxWidth(120);
+        tableSubtitles.getColumnModel().getColumn(CueTableModel.END_COLUMN).setMaxWidth(120);
 
         encodingItems = new ArrayList<>();
+        encodingItems.add(menuItemAutoDetect);
         encodingItems.add(menuItemUTF8);
         encodingItems.add(menuItemWindows1252);
         encodingItems.add(menuItemISO88591);
@@ -81,7 +97,7 @@ public class MainUI extends javax.swing.JFrame implements Notifier{
         bLoadFile = new javax.swing.JButton();
         labelLoadedFile = new javax.swing.JLabel();
         jScrollPane1 = new javax.swing.JScrollPane();
-        textCurrentSubtitles = new javax.swing.JTextArea();
+        tableSubtitles = new javax.swing.JTable();
         jLabel2 = new javax.swing.JLabel();
         bDelay = new javax.swing.JButton();
         textSeconds = new javax.swing.JTextField();
@@ -115,8 +131,13 @@ public class MainUI extends javax.swing.JFrame implements Notifier{
         menuFile = new javax.swing.JMenu();
         menuItemOpen = new javax.swing.JMenuItem();
         menuItemSave = new javax.swing.JMenuItem();
+        menuItemCancel = new javax.swing.JMenuItem();
         menuItemExit = new javax.swing.JMenuItem();
+        menuEdit = new javax.swing.JMenu();
+        menuItemUndo = new javax.swing.JMenuItem();
+        menuItemRedo = new javax.swing.JMenuItem();
         menuEncoding = new javax.swing.JMenu();
+        menuItemAutoDetect = new javax.swing.JCheckBoxMenuItem();
         menuItemUTF8 = new javax.swing.JCheckBoxMenuItem();
         menuItemWindows1252 = new javax.swing.JCheckBoxMenuItem();
         menuItemISO88591 = new javax.swing.JCheckBoxMenuItem();
@@ -134,9 +155,8 @@ public class MainUI extends javax.swing.JFrame implements Notifier{
 
         labelLoadedFile.setText("No File");
 
-        textCurrentSubtitles.setColumns(20);
-        textCurrentSubtitles.setRows(5);
-        jScrollPane1.setViewportView(textCurrentSubtitles);
+        tableSubtitles.setFillsViewportHeight(true);
+        jScrollPane1.setViewportView(tableSubtitles);
 
         jLabel2.setText("Current Subtitles");
 
@@ -230,6 +250,15 @@ public class MainUI extends javax.swing.JFrame implements Notifier{
         });
         menuFile.add(menuItemSave);
 
+        menuItemCancel.setAccelerator(javax.swing.KeyStroke.getKeyStroke(java.awt.event.KeyEvent.VK_ESCAPE, 0));
+        menuItemCancel.setText("Cancel Load/Save");
+        menuItemCancel.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                menuItemCancelActionPerformed(evt);
+            }
+        });
+        menuFile.add(menuItemCancel);
+
         menuItemExit.setAccelerator(javax.swing.KeyStroke.getKeyStroke(java.awt.event.KeyEvent.VK_F4, java.awt.event.InputEvent.ALT_DOWN_MASK));
         menuItemExit.setText("Exit");
         menuItemExit.addActionListener(new java.awt.event.ActionListener() {
@@ -241,8 +270,33 @@ public class MainUI extends javax.swing.JFrame implements Notifier{
 
         jMenuBar1.add(menuFile);
 
+        menuEdit.setText("Edit");
+
+        menuItemUndo.setAccelerator(javax.swing.KeyStroke.getKeyStroke(java.awt.event.KeyEvent.VK_Z, java.awt.event.InputEvent.CTRL_DOWN_MASK));
+        menuItemUndo.setText("Undo");
+        menuItemUndo.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                menuItemUndoActionPerformed(evt);
+            }
+        });
+        menuEdit.add(menuItemUndo);
+
+        menuItemRedo.setAccelerator(javax.swing.KeyStroke.getKeyStroke(java.awt.event.KeyEvent.VK_Y, java.awt.event.InputEvent.CTRL_DOWN_MASK));
+        menuItemRedo.setText("Redo");
+        menuItemRedo.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                menuItemRedoActionPerformed(evt);
+            }
+        });
+        menuEdit.add(menuItemRedo);
+
+        jMenuBar1.add(menuEdit);
+
         menuEncoding.setText("Encoding");
 
+        menuItemAutoDetect.setText("Auto-detect");
+        menuEncoding.add(menuItemAutoDetect);
+
         menuItemUTF8.setText("UTF-8");
         menuEncoding.add(menuItemUTF8);
 
@@ -410,29 +464,120 @@ public class MainUI extends javax.swing.JFrame implements Notifier{
         JOptionPane.showMessageDialog(this, message);
     }
     
+    @Override
+    public void notifyProgress(String message, long done, long total){
+        int percent = total > 0 ? (int)(done * 100 / total) : 0;
+        statusLabel.setText(message + " (" + percent + "%)");
+    }
+    
+    @Override
+    public void notifySubtitlesChanged(int fromIndex, int toIndex){
+        subtitlesModel.subtitlesChanged(fromIndex, toIndex);
+    }
+    
     private void loadFile(){
         JFileChooser input = new javax.swing.JFileChooser();
         int result = input.showOpenDialog(this);
         
         if (result == JFileChooser.APPROVE_OPTION) {
+            String path = input.getSelectedFile().toString();
             
-            subManager.setFilePath(input.getSelectedFile().toString());
-            subManager.readFromFile();
-            
-            labelLoadedFile.setText(subManager.getFilePath());
-            setTitle("Subtitle Editor - " + subManager.getFilePath());
-            textCurrentSubtitles.setText(subManager.subsToText());
-                
-            textFromSub.setText("" + subManager.getFirstSubNumber());
-            textToSub.setText("" + subManager.getLastSubNumber());
+            if (loadTask != null){ //the new load supersedes the one in progress
+                loadTask.cancel(true);
+            }
             
-            textTargetDynamicSub.setText("" + subManager.getLastSubNumber());
-               
+            loadTask = new SwingWorker<CueStore, Void>() {
+                @Override
+                protected CueStore doInBackground() {
+                    return subManager.loadFromFile(path);
+                }
+
+                @Override
+                protected void done() {
+                    if (loadTask == this){
+                        loadTask = null;
+                    }
+                    
+                    CueStore loaded = isCancelled() ? null : getResult(this);
+                    
+                    if (loaded != null){
+                        showLoadedFile(path, loaded);
+                    }
+                }
+            };
+            loadTask.execute();
         } else if (result == JFileChooser.CANCEL_OPTION) {
             notifyAction("File loading canceled");
         }
     }
     
+    private void showLoadedFile(String path, CueStore loaded){
+        subManager.setSubtitles(loaded);
+        subManager.setFilePath(path);
+        subManager.watchFile(SwingUtilities::invokeLater); //merges the changes made by other programs
+        
+        labelLoadedFile.setText(subManager.getFilePath());
+        setTitle("Subtitle Editor - " + subManager.getFilePath());
+
+        textFromSub.setText("" + subManager.getFirstSubNumber());
+        textToSub.setText("" + subManager.getLastSubNumber());
+
+        textTargetDynamicSub.setText("" + subManager.getLastSubNumber());
+    }
+    
+    private void saveFile(){
+        if (subManager.getFilePath() == null){
+            subManager.writeToFile(); //notifies that there is nothing to save
+            return;
+        }
+        
+        if (saveTask != null){ //the newest subtitles supersede the ones being saved
+            saveTask.cancel(true);
+        }
+        
+        CueStore snapshot = subManager.snapshot();
+        String path = subManager.getFilePath();
+        
+        saveTask = new SwingWorker<Boolean, Void>() {
+            @Override
+            protected Boolean doInBackground() {
+                return subManager.writeToFile(snapshot, path);
+            }
+
+            @Override
+            protected void done() {
+                if (saveTask == this){
+                    saveTask = null;
+                }
+            }
+        };
+        saveTask.execute();
+    }
+    
+    private void cancelTasks(){
+        if (loadTask != null){
+            loadTask.cancel(true);
+            loadTask = null;
+        }
+        
+        if (saveTask != null){
+            saveTask.cancel(true);
+            saveTask = null;
+        }
+    }
+    
+    /**
+     * Gets the result of a finished task, which already notified any failure itself
+     */
+    private static <T> T getResult(SwingWorker<T, ?> task){
+        try {
+            return task.get();
+        } catch (InterruptedException | ExecutionException ex) {
+            Logger.getLogger(MainUI.class.getName()).log(Level.SEVERE, null, ex);
+            return null;
+        }
+    }
+    
     private void bLoadFileActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_bLoadFileActionPerformed
 
         loadFile();
@@ -512,7 +657,6 @@ public class MainUI extends javax.swing.JFrame implements Notifier{
         }
         
         subManager.updateRangedSubs(tuv.getMinutes(), tuv.getSeconds(), tuv.getMilliseconds(), min , max);
-        textCurrentSubtitles.setText(subManager.subsToText());
     }
     
     private void updateSubsDynamic(boolean positiveValues){
@@ -533,7 +677,6 @@ public class MainUI extends javax.swing.JFrame implements Notifier{
             int targetSub = Integer.parseInt(textTargetDynamicSub.getText());
             
             subManager.updateSubsProprortionally(tuv.getMinutes(), tuv.getSeconds(), tuv.getMilliseconds(), targetSub);
-            textCurrentSubtitles.setText(subManager.subsToText());
         }
         catch(NumberFormatException e){
             JOptionPane.showMessageDialog(this, "The target subtitle must the number of the subtitle to update");
@@ -545,7 +688,7 @@ public class MainUI extends javax.swing.JFrame implements Notifier{
     }//GEN-LAST:event_bDelayActionPerformed
 
     private void bSaveActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_bSaveActionPerformed
-        subManager.writeToFile();
+        saveFile();
     }//GEN-LAST:event_bSaveActionPerformed
 
     private void bAdvanceActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_bAdvanceActionPerformed
@@ -570,9 +713,21 @@ public class MainUI extends javax.swing.JFrame implements Notifier{
     }//GEN-LAST:event_menuItemOpenActionPerformed
 
     private void menuItemSaveActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_menuItemSaveActionPerformed
-        subManager.writeToFile();
+        saveFile();
     }//GEN-LAST:event_menuItemSaveActionPerformed
 
+    private void menuItemCancelActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_menuItemCancelActionPerformed
+        cancelTasks();
+    }//GEN-LAST:event_menuItemCancelActionPerformed
+
+    private void menuItemUndoActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_menuItemUndoActionPerformed
+        subManager.undo();
+    }//GEN-LAST:event_menuItemUndoActionPerformed
+
+    private void menuItemRedoActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_menuItemRedoActionPerformed
+        subManager.redo();
+    }//GEN-LAST:event_menuItemRedoActionPerformed
+
   
 
     // Variables declaration - do not modify//GEN-BEGIN:variables
@@ -600,16 +755,21 @@ public class MainUI extends javax.swing.JFrame implements Notifier{
     private javax.swing.JScrollPane jScrollPane1;
     private javax.swing.JSeparator jSeparator1;
     private javax.swing.JLabel labelLoadedFile;
+    private javax.swing.JMenu menuEdit;
     private javax.swing.JMenu menuEncoding;
     private javax.swing.JMenu menuFile;
+    private javax.swing.JCheckBoxMenuItem menuItemAutoDetect;
+    private javax.swing.JMenuItem menuItemCancel;
     private javax.swing.JMenuItem menuItemExit;
     private javax.swing.JCheckBoxMenuItem menuItemISO88591;
     private javax.swing.JMenuItem menuItemOpen;
+    private javax.swing.JMenuItem menuItemRedo;
     private javax.swing.JMenuItem menuItemSave;
+    private javax.swing.JMenuItem menuItemUndo;
     private javax.swing.JCheckBoxMenuItem menuItemUTF8;
     private javax.swing.JCheckBoxMenuItem menuItemWindows1252;
     private javax.swing.JLabel statusLabel;
-    private javax.swing.JTextArea textCurrentSubtitles;
+    private javax.swing.JTable tableSubtitles;
     private javax.swing.JTextField textDynamicMilliSeconds;
     private javax.swing.JTextField textDynamicMinutes;
     private javax.swing.JTextField textDynamicSeconds;
@@ -13,6 +13,6 @@ public class Misc {
      * @return The plural version if the count is greater than 1 or the singular form otherwise
      */
     public static String plurify(int count, String singularForm){
-        return "" + count + " " + (Math.abs(count) == 1 ? "" : "s");
+        return "" + count + " " + singularForm + (Math.abs(count) == 1 ? "" : "s");
     }
 }
@@ -0,0 +1,309 @@
+package subitleseditor;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Delivers the notifications of a {@link SubtitlesManager} to its notifiers, each one on the executor it chose,
+ * so that a background task never waits for a UI listener. Messages are only formatted when they get delivered,
+ * once for all the notifiers, and not at all when nobody listens.
+ * <p>
+ * For the notifiers with an executor, bursts of progress and subtitle change notifications are coalesced: while one
+ * is waiting to be delivered the next ones are merged into it, and a notifier gets at most one of each kind per
+ * frame. Any other notification delivers the coalesced ones before it, so every notifier sees them in the order
+ * they were posted. The notifiers without an executor get every notification on the notifying thread.
+ * @author isacv
+ */
+public class NotificationBus {
+    private static final long FRAME_NANOS = TimeUnit.SECONDS.toNanos(1) / 60;
+    private static final ScheduledExecutorService FRAME_TIMER = newFrameTimer();
+
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+
+    /**
+     * A notification, delivered by calling the matching method of each notifier
+     */
+    abstract static class Event {
+        abstract void deliverTo(Notifier notifier);
+
+        /**
+         * Checks if the events of this kind are coalesced with the ones of the same kind waiting to be delivered
+         */
+        boolean isCoalesced(){
+            return false;
+        }
+
+        /**
+         * Merges this event with one of the same kind still waiting to be delivered
+         * @param pending The waiting event
+         * @return The event to deliver instead of both
+         */
+        Event coalesce(Event pending){
+            return this;
+        }
+    }
+
+    /**
+     * A text that is formatted the first time it is needed
+     */
+    private static final class LazyText {
+        private Supplier<String> supplier;
+        private String text;
+
+        LazyText(Supplier<String> supplier){
+            this.supplier = supplier;
+        }
+
+        synchronized String get(){
+            if (supplier != null){
+                text = supplier.get();
+                supplier = null;
+            }
+
+            return text;
+        }
+    }
+
+    /**
+     * An action notification, soft or severe
+     */
+    static final class Action extends Event {
+        private final LazyText message;
+        private final boolean severe;
+
+        Action(Supplier<String> message, boolean severe){
+            this.message = new LazyText(message);
+            this.severe = severe;
+        }
+
+        @Override
+        void deliverTo(Notifier notifier){
+            if (severe){
+                notifier.severeNotifyAction(message.get());
+            }
+            else {
+                notifier.notifyAction(message.get());
+            }
+        }
+    }
+
+    /**
+     * The progress of a long operation. Only the latest one of a burst is delivered
+     */
+    static final class Progress extends Event {
+        private final LazyText message;
+        private final long done;
+        private final long total;
+
+        Progress(Supplier<String> message, long done, long total){
+            this.message = new LazyText(message);
+            this.done = done;
+            this.total = total;
+        }
+
+        @Override
+        void deliverTo(Notifier notifier){
+            notifier.notifyProgress(message.get(), done, total);
+        }
+
+        @Override
+        boolean isCoalesced(){
+            return true;
+        }
+    }
+
+    /**
+     * A change of a range of subtitles. A burst is delivered as a single change of all their ranges
+     */
+    static final class SubtitlesChanged extends Event {
+        private final int fromIndex;
+        private final int toIndex;
+
+        SubtitlesChanged(int fromIndex, int toIndex){
+            this.fromIndex = fromIndex;
+            this.toIndex = toIndex;
+        }
+
+        @Override
+        void deliverTo(Notifier notifier){
+            notifier.notifySubtitlesChanged(fromIndex, toIndex);
+        }
+
+        @Override
+        boolean isCoalesced(){
+            return true;
+        }
+
+        @Override
+        Event coalesce(Event pending){
+            SubtitlesChanged other = (SubtitlesChanged)pending;
+            return new SubtitlesChanged(Math.min(fromIndex, other.fromIndex), Math.max(toIndex, other.toIndex));
+        }
+    }
+
+    /**
+     * A notifier with its executor and the coalesced events waiting to be delivered to it
+     */
+    private static final class Subscription {
+        private final Notifier notifier;
+        private final Executor executor; //null to be called on the notifying thread, without coalescing
+        private final Map<Class<?>, Event> pending = new LinkedHashMap<>(); //in posting order
+        private long lastDelivery = System.nanoTime() - FRAME_NANOS;
+
+        Subscription(Notifier notifier, Executor executor){
+            this.notifier = notifier;
+            this.executor = executor;
+        }
+
+        void post(Event event){
+            if (executor == null){
+                deliver(event);
+                return;
+            }
+
+            if (!event.isCoalesced()){ //delivered now, after the waiting ones
+                List<Event> events;
+
+                synchronized (this){
+                    events = new ArrayList<>(pending.values());
+                    pending.clear();
+                }
+
+                events.add(event);
+                executor.execute(() -> deliver(events));
+                return;
+            }
+
+            Class<?> kind = event.getClass();
+            long delay;
+
+            synchronized (this){
+                Event waiting = pending.get(kind);
+
+                if (waiting != null){ //goes out with the delivery already scheduled
+                    pending.put(kind, event.coalesce(waiting));
+                    return;
+                }
+
+                pending.put(kind, event);
+                delay = lastDelivery + FRAME_NANOS - System.nanoTime();
+            }
+
+            if (delay <= 0){
+                executor.execute(() -> deliverPending(kind));
+            }
+            else {
+                FRAME_TIMER.schedule(() -> executor.execute(() -> deliverPending(kind)), delay, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        private void deliverPending(Class<?> kind){
+            Event event;
+
+            synchronized (this){
+                event = pending.remove(kind);
+
+                if (event == null){ //already delivered before a later notification
+                    return;
+                }
+
+                lastDelivery = System.nanoTime();
+            }
+
+            deliver(event);
+        }
+
+        private void deliver(List<Event> events){
+            for (Event event : events){
+                deliver(event);
+            }
+        }
+
+        private void deliver(Event event){
+            try {
+                event.deliverTo(notifier);
+            } catch (RuntimeException ex) { //doesn't stop the other notifiers nor the notifying task
+                Logger.getLogger(NotificationBus.class.getName()).log(Level.WARNING, null, ex);
+            }
+        }
+    }
+
+    private static ScheduledExecutorService newFrameTimer(){
+        ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, task -> {
+            Thread thread = new Thread(task, "Notification frame timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.setRemoveOnCancelPolicy(true);
+
+        return timer;
+    }
+
+    /**
+     * Adds a notifier that is called on the notifying thread with every notification, as soon as it is posted,
+     * unless it was already added
+     * @param notifier The notifier
+     */
+    public void subscribe(Notifier notifier){
+        add(notifier, null);
+    }
+
+    /**
+     * Adds a notifier that gets the coalesced notifications on an executor, unless it was already added
+     * @param notifier The notifier
+     * @param executor Runs the notifier calls, like SwingUtilities::invokeLater for a UI. Must run the calls in
+     *        the order they are given
+     */
+    public void subscribe(Notifier notifier, Executor executor){
+        add(notifier, Objects.requireNonNull(executor));
+    }
+
+    private void add(Notifier notifier, Executor executor){
+        synchronized (subscriptions){
+            for (Subscription subscription : subscriptions){
+                if (subscription.notifier.equals(notifier)){
+                    return;
+                }
+            }
+
+            subscriptions.add(new Subscription(notifier, executor));
+        }
+    }
+
+    /**
+     * Removes a notifier. Notifications already posted may still be delivered to it
+     * @param notifier The notifier
+     */
+    public void unsubscribe(Notifier notifier){
+        subscriptions.removeIf(subscription -> subscription.notifier.equals(notifier));
+    }
+
+    /**
+     * Checks if there is any notifier, so that an event that would go nowhere isn't even created
+     * @return true if there are notifiers
+     */
+    public boolean hasSubscribers(){
+        return !subscriptions.isEmpty();
+    }
+
+    /**
+     * Sends an event to all the notifiers
+     * @param event The event
+     */
+    void post(Event event){
+        for (Subscription subscription : subscriptions){
+            subscription.post(event);
+        }
+    }
+}
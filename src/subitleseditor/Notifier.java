@@ -18,4 +18,23 @@ public interface Notifier {
      * @param message Severe notification message
      */
     public void severeNotifyAction(String message);
+    
+    /**
+     * Notifies the progress of a long operation, like loading or saving a file. 
+     * May be called from a background thread.
+     * @param message Description of the operation and its current state
+     * @param done Amount of work done
+     * @param total Total amount of work, in the same unit
+     */
+    public default void notifyProgress(String message, long done, long total){
+    }
+    
+    /**
+     * Notifies that the loaded subtitles changed, so that only the changed ones need to be shown again.
+     * A new file being loaded is notified as a change of all its subtitles.
+     * @param fromIndex Index of the first changed subtitle (inclusive)
+     * @param toIndex Index of the last changed subtitle (inclusive)
+     */
+    public default void notifySubtitlesChanged(int fromIndex, int toIndex){
+    }
 }
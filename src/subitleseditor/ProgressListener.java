@@ -0,0 +1,18 @@
+package subitleseditor;
+
+import java.io.IOException;
+
+/**
+ * Receives the progress of long file operations, like loading or saving
+ * @author isacv
+ */
+public interface ProgressListener {
+    
+    /**
+     * Called periodically while an operation runs
+     * @param done Amount of work done, like bytes read or subtitles written
+     * @param total Total amount of work, in the same unit
+     * @throws IOException To stop the operation, normally an InterruptedIOException when it was canceled
+     */
+    void progress(long done, long total) throws IOException;
+}
@@ -0,0 +1,269 @@
+package subitleseditor;
+
+import java.util.Arrays;
+
+/**
+ * Pending time changes of the cues, kept by ranges of cue indexes instead of being written to every cue.
+ * Each range maps the time t of its cue i to {@code scale * t + offset + step * i}, which covers shifts,
+ * scalings and proportional adjustments. A new change on a range is composed with the existing ones in
+ * constant time per range, so moving a million cues costs the same as moving one.
+ * The ranges cover all the indexes, the last one being open ended.
+ * While all the scales are 1 the offsets and steps are whole milliseconds and every result is exact.
+ * @author isacv
+ */
+class RangeTransforms {
+    private int count;
+    private int[] froms; //first index of each range, in order
+    private double[] scales;
+    private double[] offsets;
+    private double[] steps;
+    private int lastRange; //range of the last lookup, as cues are mostly read in order. A hint safe to race on
+
+    RangeTransforms(){
+        froms = new int[8];
+        scales = new double[8];
+        offsets = new double[8];
+        steps = new double[8];
+        reset();
+    }
+
+    private RangeTransforms(RangeTransforms source){
+        count = source.count;
+        froms = source.froms.clone();
+        scales = source.scales.clone();
+        offsets = source.offsets.clone();
+        steps = source.steps.clone();
+    }
+
+    RangeTransforms copy(){
+        return new RangeTransforms(this);
+    }
+
+    /**
+     * Drops all the changes
+     */
+    final void reset(){
+        count = 1;
+        froms[0] = 0;
+        scales[0] = 1;
+        offsets[0] = 0;
+        steps[0] = 0;
+        lastRange = 0;
+    }
+
+    /**
+     * Checks if no time is changed
+     * @return true if every time maps to itself
+     */
+    boolean isIdentity(){
+        return count == 1 && scales[0] == 1 && offsets[0] == 0 && steps[0] == 0;
+    }
+
+    /**
+     * Gets the amount of ranges with different changes
+     * @return The amount of ranges
+     */
+    int getRangeCount(){
+        return count;
+    }
+
+    /**
+     * Gets the changed time of a cue
+     * @param index The cue index
+     * @param time The original time in milliseconds
+     * @return The changed time in milliseconds
+     */
+    long apply(int index, long time){
+        int range = rangeOf(index);
+        return Math.round(scales[range] * time + offsets[range] + steps[range] * index);
+    }
+
+    /**
+     * Changes the times of consecutive cues
+     * @param times The original times, by cue index
+     * @param from First cue index (inclusive)
+     * @param to Last cue index (exclusive)
+     * @param dst Where the changed times are written, by cue index. May be the original times
+     */
+    void apply(long[] times, int from, int to, long[] dst){
+        for (int range = from < to ? rangeOf(from) : count; range < count && froms[range] < to; ++range){
+            int rangeEnd = range + 1 < count ? Math.min(froms[range + 1], to) : to;
+            TimeKernels.transform(times, dst, Math.max(froms[range], from), rangeEnd,
+                    scales[range], offsets[range], steps[range]);
+        }
+    }
+
+    /**
+     * Gets the changed time of a cue whose time was already changed by folded ranges
+     * @param index The cue index
+     * @param time The time with the folded changes, not rounded
+     * @return The changed time in milliseconds
+     */
+    long apply(int index, double time){
+        int range = rangeOf(index);
+        return Math.round(scales[range] * time + offsets[range] + steps[range] * index);
+    }
+
+    /**
+     * Changes the times of consecutive cues already changed by folded ranges
+     * @param times The times with the folded changes, not rounded, by cue index
+     * @param from First cue index (inclusive)
+     * @param to Last cue index (exclusive)
+     * @param dst Where the changed times are written, by cue index
+     */
+    void apply(double[] times, int from, int to, long[] dst){
+        for (int range = from < to ? rangeOf(from) : count; range < count && froms[range] < to; ++range){
+            int rangeEnd = range + 1 < count ? Math.min(froms[range + 1], to) : to;
+
+            for (int i = Math.max(froms[range], from); i < rangeEnd; ++i){
+                dst[i] = Math.round(scales[range] * times[i] + offsets[range] + steps[range] * i);
+            }
+        }
+    }
+
+    /**
+     * Changes the times of consecutive cues without rounding them, so that the ranges can be dropped and
+     * their inverses still give the original times back
+     * @param originals The original times, by cue index
+     * @param folded The times with the changes folded before, or null if there are none
+     * @param from First cue index (inclusive)
+     * @param to Last cue index (exclusive)
+     * @param dst Where the changed times are written, by cue index. May be the folded times
+     */
+    void fold(long[] originals, double[] folded, int from, int to, double[] dst){
+        for (int range = from < to ? rangeOf(from) : count; range < count && froms[range] < to; ++range){
+            int rangeEnd = range + 1 < count ? Math.min(froms[range + 1], to) : to;
+
+            for (int i = Math.max(froms[range], from); i < rangeEnd; ++i){
+                double time = folded != null ? folded[i] : originals[i];
+                dst[i] = scales[range] * time + offsets[range] + steps[range] * i;
+            }
+        }
+    }
+
+    /**
+     * Adds a change to a range of cues, on top of the current ones. A time t of cue i becomes
+     * {@code scale * t + offset + step * i}
+     * @param from First cue index (inclusive)
+     * @param to Last cue index (inclusive)
+     * @param scale Factor of the times
+     * @param offset Milliseconds added to the times
+     * @param step Milliseconds added per cue index
+     */
+    void compose(int from, int to, double scale, double offset, double step){
+        int first = split(from);
+        int last = to == Integer.MAX_VALUE ? count : split(to + 1);
+
+        for (int range = first; range < last; ++range){
+            scales[range] = snap(scales[range] * scale);
+            offsets[range] = snap(scale * offsets[range] + offset);
+            steps[range] = snap(scale * steps[range] + step);
+        }
+
+        //neighbours that ended up with the same change become one range again
+        mergeWithNext(last - 1);
+        mergeWithNext(first - 1);
+    }
+
+    /**
+     * Rounds values that only differ from a whole number by floating point error, so that a change and
+     * its inverse leave the times exactly as they were
+     */
+    private static double snap(double value){
+        double whole = Math.rint(value);
+        return Math.abs(value - whole) < 1e-9 * Math.max(1, Math.abs(whole)) ? whole : value;
+    }
+
+    /**
+     * Makes a range start at an index
+     * @return The range starting at the index
+     */
+    private int split(int index){
+        int range = rangeOf(index);
+
+        if (froms[range] == index){
+            return range;
+        }
+
+        if (count == froms.length){
+            int capacity = count * 2;
+            froms = Arrays.copyOf(froms, capacity);
+            scales = Arrays.copyOf(scales, capacity);
+            offsets = Arrays.copyOf(offsets, capacity);
+            steps = Arrays.copyOf(steps, capacity);
+        }
+
+        int moved = count - range - 1;
+        System.arraycopy(froms, range + 1, froms, range + 2, moved);
+        System.arraycopy(scales, range + 1, scales, range + 2, moved);
+        System.arraycopy(offsets, range + 1, offsets, range + 2, moved);
+        System.arraycopy(steps, range + 1, steps, range + 2, moved);
+        froms[range + 1] = index;
+        scales[range + 1] = scales[range];
+        offsets[range + 1] = offsets[range];
+        steps[range + 1] = steps[range];
+        ++count;
+
+        return range + 1;
+    }
+
+    private void mergeWithNext(int range){
+        if (range < 0 || range + 1 >= count || scales[range] != scales[range + 1]
+                || offsets[range] != offsets[range + 1] || steps[range] != steps[range + 1]){
+            return;
+        }
+
+        int moved = count - range - 2;
+        System.arraycopy(froms, range + 2, froms, range + 1, moved);
+        System.arraycopy(scales, range + 2, scales, range + 1, moved);
+        System.arraycopy(offsets, range + 2, offsets, range + 1, moved);
+        System.arraycopy(steps, range + 2, steps, range + 1, moved);
+        --count;
+        lastRange = 0;
+    }
+
+    /**
+     * Finds the range holding an index, starting from the range of the previous lookup
+     */
+    private int rangeOf(int index){
+        int range = lastRange;
+
+        if (range >= count || froms[range] > index){
+            range = 0;
+        }
+
+        if (range + 1 < count && froms[range + 1] <= index){
+            if (range + 2 < count && froms[range + 2] <= index){ //not the next one either, search
+                int low = range + 2;
+                int high = count - 1;
+
+                while (low < high){
+                    int middle = (low + high + 1) >>> 1;
+
+                    if (froms[middle] <= index){
+                        low = middle;
+                    }
+                    else {
+                        high = middle - 1;
+                    }
+                }
+
+                range = low;
+            }
+            else {
+                ++range;
+            }
+        }
+
+        lastRange = range;
+        return range;
+    }
+
+    /**
+     * Gets an estimate of the heap retained by the ranges
+     * @return The estimated retained heap in bytes
+     */
+    long retainedBytes(){
+        return 4 * 16 + 4L * froms.length + 8L * 3 * froms.length;
+    }
+}
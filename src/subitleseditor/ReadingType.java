@@ -1,12 +0,0 @@
-package subitleseditor;
-
-/**
- *
- * @author isacv
- */
-public enum ReadingType {
-    number,
-    time,
-    text,
-    emptyline
-}
@@ -0,0 +1,564 @@
+package subitleseditor;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Headless entry point that serves the shifting, synchronization and conversion of subtitles over HTTP, so that
+ * other tools can use them without the UI. Each job is a POST to /transform with the subtitles as its body, or
+ * the path of a file under the served root, and the options of {@link BatchMain} as query parameters.
+ * The result is streamed back as its cues are written. GET /stats gives the request and latency counters.
+ * Usage:
+ * <pre>
+ * java -cp SubitlesEditor.jar subitleseditor.ServerMain [options]
+ *   --port &lt;port&gt;          port to listen on, 8787 by default
+ *   --bind &lt;address&gt;       address to listen on, only the loopback by default
+ *   --threads &lt;count&gt;      amount of jobs run at the same time, twice the cores by default
+ *   --root &lt;directory&gt;     directory whose files can be given by path, none by default
+ *   --max-upload &lt;bytes&gt;   largest subtitles accepted as a request body, 64 MB by default
+ * </pre>
+ * Job parameters:
+ * <pre>
+ *   shift=&lt;millis&gt;         moves the subtitles, negative values make them show earlier
+ *   range=&lt;from&gt;:&lt;to&gt;      subtitle numbers to shift (inclusive), all by default
+ *   sync=&lt;sub&gt;:&lt;millis&gt;    moves a subtitle and adjusts the previous ones proportionally
+ *   anchor=&lt;sub&gt;@&lt;time&gt;    subtitle that must start at a time (hh:mm:ss,mmm), repeated for each anchor
+ *   encoding=&lt;name&gt;        encoding of the subtitles, detected by default (auto)
+ *   format=&lt;format&gt;        format of the subtitles of the body, srt by default
+ *   to=&lt;format&gt;            converts the result to a format (srt, vtt, ass or sub)
+ *   path=&lt;file&gt;            file under the root to transform instead of the body
+ * </pre>
+ * For example {@code curl --data-binary @movie.srt "http://localhost:8787/transform?shift=-1500&to=vtt"}
+ * @author isacv
+ */
+public class ServerMain {
+    private static final int BACKLOG = 1024; //connections waiting to be accepted
+    private static final int READ_CHUNK = 64 * 1024;
+
+    private int port = 8787;
+    private InetAddress bindAddress = InetAddress.getLoopbackAddress();
+    private int threads = Runtime.getRuntime().availableProcessors() * 2;
+    private Path root;
+    private long maxUpload = 64L * 1024 * 1024;
+    private final Counters counters = new Counters();
+
+    public static void main(String[] args){
+        ServerMain server = new ServerMain();
+
+        try {
+            server.parseArgs(args);
+        } catch (IllegalArgumentException ex) {
+            System.err.println(ex.getMessage());
+            printUsage();
+            System.exit(2);
+        }
+
+        try {
+            server.start();
+        } catch (IOException ex) {
+            System.err.println("Unable to start the server: " + ex.getMessage());
+            System.exit(1);
+        }
+    }
+
+    private static void printUsage(){
+        System.err.println("Usage: ServerMain [--port <port>] [--bind <address>] [--threads <count>] "
+                + "[--root <directory>] [--max-upload <bytes>]");
+    }
+
+    private void parseArgs(String[] args){
+        for (int i = 0; i < args.length; ++i){
+            String option = args[i];
+
+            if (i + 1 >= args.length){
+                throw new IllegalArgumentException("Missing value for " + option);
+            }
+
+            String value = args[++i];
+
+            try {
+                switch (option){
+                    case "--port":
+                        port = Integer.parseInt(value);
+                        break;
+                    case "--bind":
+                        bindAddress = InetAddress.getByName(value);
+                        break;
+                    case "--threads":
+                        threads = Integer.parseInt(value);
+                        break;
+                    case "--root":
+                        root = Paths.get(value).toRealPath();
+                        break;
+                    case "--max-upload":
+                        maxUpload = Long.parseLong(value);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option " + option);
+                }
+            } catch (NumberFormatException | IOException ex) {
+                throw new IllegalArgumentException("Invalid value for " + option + ": " + value);
+            }
+        }
+
+        if (threads < 1){
+            throw new IllegalArgumentException("The amount of threads must be at least 1");
+        }
+
+        if (maxUpload < 1 || maxUpload > Integer.MAX_VALUE){
+            throw new IllegalArgumentException("The largest upload must be between 1 byte and 2 GB");
+        }
+    }
+
+    /**
+     * Starts serving the jobs, until the process is stopped
+     */
+    private void start() throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(bindAddress, port), BACKLOG);
+        AtomicInteger threadCount = new AtomicInteger();
+        //a fixed pool, the jobs wait in the queue instead of all competing for the cores
+        ExecutorService executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), task -> new Thread(task, "Job " + threadCount.incrementAndGet()));
+
+        server.createContext("/transform", this::transform);
+        server.createContext("/stats", this::stats);
+        server.setExecutor(executor);
+        server.start();
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop(1);
+            executor.shutdown();
+        }));
+
+        InetSocketAddress address = server.getAddress();
+        System.out.println("Serving subtitle jobs on http://" + address.getHostString() + ":" + address.getPort()
+                + "/transform with " + Misc.plurify(threads, "thread"));
+    }
+
+    /**
+     * A request that can't be served, with the HTTP status that tells why
+     */
+    private static class JobException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        final int status;
+
+        JobException(int status, String message){
+            super(message);
+            this.status = status;
+        }
+    }
+
+    /**
+     * Runs a job and streams its result
+     */
+    private void transform(HttpExchange exchange) throws IOException {
+        long startTime = System.nanoTime();
+        ResponseChannel response = new ResponseChannel(exchange);
+        counters.active.incrementAndGet();
+        boolean served = false;
+        long read = 0;
+
+        try {
+            if (!"POST".equalsIgnoreCase(exchange.getRequestMethod())){
+                throw new JobException(405, "Jobs must be posted");
+            }
+
+            Job job = new Job(exchange.getRequestURI().getRawQuery());
+            ByteBuffer content = job.path != null ? mapFile(job.path) : readBody(exchange);
+            read = content.remaining();
+            int cues = job.run(content, response);
+            response.finish();
+            counters.cues.add(cues);
+            served = true;
+        } catch (JobException ex) {
+            response.fail(ex.status, ex.getMessage());
+        } catch (IllegalArgumentException ex) { //invalid parameters or unsupported encoding
+            response.fail(400, ex.getMessage());
+        } catch (NoSuchFileException ex) {
+            response.fail(404, "The file " + ex.getMessage() + " does not exist");
+        } catch (IOException ex) { //the subtitles can't be parsed, or the client left
+            response.fail(422, "Unable to transform the subtitles: " + ex.getMessage());
+        } catch (RuntimeException ex) {
+            Logger.getLogger(ServerMain.class.getName()).log(Level.SEVERE, null, ex);
+            response.fail(500, "Unexpected error: " + ex);
+        } finally {
+            counters.active.decrementAndGet();
+            counters.record(System.nanoTime() - startTime, served, read, response.written);
+        }
+    }
+
+    /**
+     * Reads the subtitles sent as the request body
+     */
+    private ByteBuffer readBody(HttpExchange exchange) throws IOException, JobException {
+        String length = exchange.getRequestHeaders().getFirst("Content-Length");
+        byte[] body = new byte[READ_CHUNK];
+
+        try {
+            if (length != null){
+                long declared = Long.parseLong(length.trim());
+
+                if (declared > maxUpload){
+                    throw new JobException(413, "The subtitles can't be bigger than " + maxUpload + " bytes");
+                }
+
+                body = new byte[(int)Math.max(declared, 0)];
+            }
+        } catch (NumberFormatException ex) {
+            throw new JobException(400, "Invalid Content-Length " + length);
+        }
+
+        int size = 0;
+
+        try (InputStream in = exchange.getRequestBody()){
+            while (true){
+                if (size == body.length){ //full, which is the end when the body had its declared length
+                    int next = in.read();
+
+                    if (next < 0){
+                        break;
+                    }
+
+                    if (size >= maxUpload){
+                        throw new JobException(413, "The subtitles can't be bigger than " + maxUpload + " bytes");
+                    }
+
+                    body = Arrays.copyOf(body, (int)Math.min(maxUpload, Math.max(size * 2L, READ_CHUNK)));
+                    body[size++] = (byte)next;
+                }
+
+                int read = in.read(body, size, body.length - size);
+
+                if (read < 0){
+                    break;
+                }
+
+                size += read;
+            }
+        }
+
+        return ByteBuffer.wrap(body, 0, size);
+    }
+
+    /**
+     * Maps a file of the served root, which can't be left through ".." or links
+     */
+    private ByteBuffer mapFile(String path) throws IOException, JobException {
+        if (root == null){
+            throw new JobException(403, "Files can only be given by path when the server has a root");
+        }
+
+        Path file = root.resolve(path).normalize();
+
+        if (!file.startsWith(root) || !file.toRealPath().startsWith(root)){
+            throw new JobException(403, "The file " + path + " is outside the served root");
+        }
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)){
+            if (channel.size() > Integer.MAX_VALUE){
+                throw new JobException(413, "The file " + path + " is too big");
+            }
+
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    /**
+     * Reports the counters, as one "name value" line each
+     */
+    private void stats(HttpExchange exchange) throws IOException {
+        byte[] body = counters.format().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+        exchange.sendResponseHeaders(200, body.length);
+
+        try (OutputStream out = exchange.getResponseBody()){
+            out.write(body);
+        }
+    }
+
+    /**
+     * The options of a job, taken from the query of its request
+     */
+    private static class Job {
+        private final JobSpec spec = new JobSpec("");
+        private SubtitleFormat sourceFormat; //by the extension of the path, or SRT
+        private SubtitleFormat targetFormat;
+        private String path;
+
+        Job(String query) throws UnsupportedEncodingException {
+            for (String parameter : query == null ? new String[0] : query.split("&")){
+                if (parameter.isEmpty()){
+                    continue;
+                }
+
+                int separator = parameter.indexOf('=');
+                String name = URLDecoder.decode(separator < 0 ? parameter : parameter.substring(0, separator),
+                        "UTF-8");
+                String value = separator < 0 ? "" : URLDecoder.decode(parameter.substring(separator + 1), "UTF-8");
+                set(name, value.trim());
+            }
+
+            spec.validate();
+
+            if (sourceFormat == null){
+                sourceFormat = path != null ? SubtitleFormats.forPath(Paths.get(path)) : SubtitleFormats.SRT;
+            }
+
+            targetFormat = spec.getTargetFormat() != null ? spec.getTargetFormat() : sourceFormat;
+        }
+
+        private void set(String name, String value){
+            if (spec.set(name, value)){
+                return;
+            }
+
+            switch (name){
+                case "format":
+                    sourceFormat = SubtitleFormats.forName(value);
+                    break;
+                case "path":
+                    path = value;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown parameter " + name);
+            }
+        }
+
+        /**
+         * Transforms the subtitles, streaming the result
+         * @return The amount of cues written
+         */
+        int run(ByteBuffer content, ResponseChannel response) throws IOException, JobException {
+            Charset charset = spec.isAutoDetect() ? EncodingDetector.detect(content)
+                    : Charset.forName(spec.getEncoding());
+            TimeTransform transform = spec.isShift()
+                    ? TimeTransform.shift(0, 0, spec.getShift(), spec.getRangeMin(), spec.getRangeMax())
+                    : TimeTransform.sync(syncMap(content));
+
+            response.setContentType("text/plain; charset=" + charset.name());
+            return StreamingShifter.convert(content, sourceFormat, response, targetFormat, charset, transform);
+        }
+
+        /**
+         * Builds the map of a sync job, finding the current start of its subtitles in a first pass
+         */
+        private SyncMap syncMap(ByteBuffer content) throws IOException, JobException {
+            int[] subs = spec.isSync() ? new int[]{spec.getSyncSub()} : spec.getAnchorSubs();
+            long[] starts = new long[subs.length];
+            boolean[] found = new boolean[subs.length];
+
+            sourceFormat.newParser((number, start, end, text) -> {
+                for (int i = 0; i < subs.length; ++i){
+                    if (subs[i] == number && !found[i]){ //the first cue with the number, like the editor
+                        starts[i] = start;
+                        found[i] = true;
+                    }
+                }
+            }).parse(content.duplicate());
+
+            for (int i = 0; i < subs.length; ++i){
+                if (!found[i]){
+                    throw new JobException(422, spec.isSync() ? "The subtitle selected for the update doesn't exist"
+                            : "The anchor subtitle " + subs[i] + " doesn't exist");
+                }
+            }
+
+            try {
+                return spec.isSync() ? SyncMap.proportional(starts[0], spec.getSyncMillis())
+                        : new SyncMap(starts, spec.getAnchorTimes());
+            } catch (IllegalArgumentException ex) {
+                throw new JobException(422, ex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * The response body as a channel. The headers are only sent with the first bytes, so a job that fails
+     * before its result fills the writer buffer can still answer with an error status
+     */
+    private static class ResponseChannel implements WritableByteChannel {
+        private final HttpExchange exchange;
+        private OutputStream out;
+        private final byte[] chunk = new byte[READ_CHUNK];
+        private String contentType = "text/plain; charset=UTF-8";
+        long written;
+
+        ResponseChannel(HttpExchange exchange){
+            this.exchange = exchange;
+        }
+
+        void setContentType(String type){
+            contentType = type;
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            if (out == null){
+                exchange.getResponseHeaders().set("Content-Type", contentType);
+                exchange.sendResponseHeaders(200, 0); //chunked, the length isn't known yet
+                out = exchange.getResponseBody();
+            }
+
+            int length = src.remaining();
+
+            while (src.hasRemaining()){
+                int count = Math.min(src.remaining(), chunk.length);
+                src.get(chunk, 0, count);
+                out.write(chunk, 0, count);
+            }
+
+            written += length;
+            return length;
+        }
+
+        /**
+         * Ends a served job
+         */
+        void finish() throws IOException {
+            if (out == null){ //empty result
+                exchange.sendResponseHeaders(200, -1);
+            }
+
+            exchange.close();
+        }
+
+        /**
+         * Answers with an error, or drops the connection if the result was already being sent, so that the
+         * client never takes a partial result for a complete one
+         */
+        void fail(int status, String message) throws IOException {
+            if (out != null){
+                throw new IOException("Job failed after its result was started: " + message);
+            }
+
+            byte[] body = (message + "\n").getBytes(StandardCharsets.UTF_8);
+
+            try {
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+                exchange.sendResponseHeaders(status, body.length);
+                exchange.getResponseBody().write(body);
+            } finally {
+                exchange.close();
+            }
+        }
+
+        @Override
+        public boolean isOpen(){
+            return true;
+        }
+
+        @Override
+        public void close(){
+        }
+    }
+
+    /**
+     * Counters of the served requests, updated by all the job threads without contention
+     */
+    private static class Counters {
+        private static final int LATENCY_BUCKETS = 40; //bucket k counts latencies under 2^k microseconds
+
+        private final long startTime = System.nanoTime();
+        final AtomicInteger active = new AtomicInteger();
+        final LongAdder cues = new LongAdder();
+        private final LongAdder served = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+        private final LongAdder bytesRead = new LongAdder(); //subtitles received or read from the root
+        private final LongAdder bytesSent = new LongAdder();
+        private final LongAdder totalLatency = new LongAdder();
+        private final AtomicLong maxLatency = new AtomicLong();
+        private final AtomicLongArray latencies = new AtomicLongArray(LATENCY_BUCKETS);
+
+        void record(long nanos, boolean ok, long read, long sent){
+            (ok ? served : failed).increment();
+            bytesRead.add(read);
+            bytesSent.add(sent);
+            totalLatency.add(nanos);
+            maxLatency.accumulateAndGet(nanos, Math::max);
+            long micros = Math.max(nanos / 1000, 1);
+            latencies.incrementAndGet(Math.min(64 - Long.numberOfLeadingZeros(micros), LATENCY_BUCKETS - 1));
+        }
+
+        /**
+         * Gets the latency under which a fraction of the requests were served, interpolated within its
+         * bucket and never above the highest latency seen
+         * @return The latency in milliseconds
+         */
+        private double percentile(long requests, double fraction){
+            long target = (long)Math.ceil(requests * fraction);
+            double max = maxLatency.get() / 1e6;
+            long seen = 0;
+
+            for (int k = 0; k < LATENCY_BUCKETS; ++k){
+                long count = latencies.get(k);
+                seen += count;
+
+                if (count > 0 && seen >= target){ //bucket k holds the latencies from 2^(k-1) to 2^k microseconds
+                    double lower = k == 0 ? 0 : (1L << (k - 1)) / 1000.0;
+                    double upper = (1L << k) / 1000.0;
+                    double position = (double)(target - (seen - count)) / count;
+                    return Math.min(lower + (upper - lower) * position, max);
+                }
+            }
+
+            return max;
+        }
+
+        String format(){
+            double seconds = (System.nanoTime() - startTime) / 1e9;
+            long ok = served.sum();
+            long requests = ok + failed.sum();
+            StringBuilder sb = new StringBuilder();
+
+            line(sb, "uptime_seconds", "%.1f", seconds);
+            line(sb, "requests", "%d", requests);
+            line(sb, "requests_failed", "%d", failed.sum());
+            line(sb, "requests_active", "%d", active.get());
+            line(sb, "requests_per_second", "%.2f", ok / seconds);
+            line(sb, "cues", "%d", cues.sum());
+            line(sb, "cues_per_second", "%.0f", cues.sum() / seconds);
+            line(sb, "bytes_read", "%d", bytesRead.sum());
+            line(sb, "bytes_sent", "%d", bytesSent.sum());
+            line(sb, "latency_mean_ms", "%.3f", requests == 0 ? 0 : totalLatency.sum() / 1e6 / requests);
+            line(sb, "latency_p50_ms", "%.3f", requests == 0 ? 0 : percentile(requests, 0.5));
+            line(sb, "latency_p90_ms", "%.3f", requests == 0 ? 0 : percentile(requests, 0.9));
+            line(sb, "latency_p99_ms", "%.3f", requests == 0 ? 0 : percentile(requests, 0.99));
+            line(sb, "latency_max_ms", "%.3f", maxLatency.get() / 1e6);
+
+            return sb.toString();
+        }
+
+        private static void line(StringBuilder sb, String name, String format, Object value){
+            sb.append(name).append(' ').append(String.format(Locale.ROOT, format, value)).append('\n');
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package subitleseditor;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+/**
+ * Parses SRT files by scanning their bytes directly. The file is memory mapped (or read in one go when small)
+ * and the cue numbers, times and blank line boundaries are found without decoding the file to chars.
+ * Only the text of each cue is handed out, still as bytes, so that it only gets decoded if it is needed.
+ * The scanning requires an ASCII compatible encoding, see {@link #supports(Charset)}.
+ * @author isacv
+ */
+public class SrtParser extends CueTokenizer {
+    private long lastStart;
+    private long lastEnd;
+    private long parsedTime;
+
+    public SrtParser(CueHandler handler){
+        super(handler);
+    }
+
+    /**
+     * Parses all the complete cues in the current buffer
+     * @param from Position to start parsing
+     * @param endOfInput Whether the buffer holds the end of the input, which means the last cue ends with it
+     * @return The position right after the last complete cue parsed
+     */
+    @Override
+    protected int parseBuffer(int from, boolean endOfInput) throws IOException {
+        final int limit = buffer.limit();
+        int pos = from;
+
+        while (true){
+            pos = skipBlankLines(pos, limit);
+            int cueStart = pos;
+
+            if (pos >= limit){
+                return limit;
+            }
+
+            //number
+            int lineEnd = findLineEnd(pos, limit);
+
+            if (lineEnd == limit && !endOfInput){
+                return cueStart;
+            }
+
+            int number = parseNumber(pos, lineEnd);
+            pos = nextLine(lineEnd, limit);
+
+            //times
+            lineEnd = findLineEnd(pos, limit);
+
+            if (lineEnd == limit && !endOfInput){
+                return cueStart;
+            }
+
+            pos = parseTimeLine(pos, lineEnd);
+            long start = lastStart;
+            long end = lastEnd;
+            pos = nextLine(lineEnd, limit);
+
+            //text, up to an empty line
+            int textStart = pos;
+            int textEnd = pos;
+
+            while (pos < limit){
+                lineEnd = findLineEnd(pos, limit);
+
+                if (isBlank(pos, lineEnd)){
+                    break;
+                }
+
+                textEnd = contentEnd(pos, lineEnd);
+                pos = nextLine(lineEnd, limit);
+            }
+
+            if (pos >= limit && !endOfInput){
+                return cueStart;
+            }
+
+            emit(number, start, end, textStart, textEnd);
+        }
+    }
+
+    private int parseNumber(int pos, int lineEnd) throws IOException {
+        int end = contentEnd(pos, lineEnd);
+
+        while (end > pos && buffer.get(end - 1) == ' '){
+            --end;
+        }
+
+        if (pos == end){
+            throw formatError("Expected a subtitle number", pos);
+        }
+
+        int number = 0;
+
+        for (int i = pos; i < end; ++i){
+            int digit = buffer.get(i) - '0';
+
+            if (digit < 0 || digit > 9){
+                throw formatError("Invalid subtitle number", pos);
+            }
+
+            number = number * 10 + digit;
+        }
+
+        return number;
+    }
+
+    /**
+     * Parses a line in the format hh:mm:ss,uuu --> hh:mm:ss,uuu storing the times in lastStart and lastEnd.
+     * Anything after the end time, like positioning info, is ignored
+     */
+    private int parseTimeLine(int pos, int lineEnd) throws IOException {
+        pos = parseTime(pos, lineEnd);
+        lastStart = parsedTime;
+
+        while (pos < lineEnd && buffer.get(pos) == ' '){
+            ++pos;
+        }
+
+        if (pos + 3 > lineEnd || buffer.get(pos) != '-' || buffer.get(pos + 1) != '-' || buffer.get(pos + 2) != '>'){
+            throw formatError("Expected \" --> \" between subtitle times", pos);
+        }
+
+        pos += 3;
+
+        while (pos < lineEnd && buffer.get(pos) == ' '){
+            ++pos;
+        }
+
+        pos = parseTime(pos, lineEnd);
+        lastEnd = parsedTime;
+
+        return pos;
+    }
+
+    /**
+     * Parses a time in the format hh:mm:ss,uuu storing it in parsedTime
+     * @return The position after the time
+     */
+    private int parseTime(int pos, int lineEnd) throws IOException {
+        int timeEnd = TimeCodec.scanEnd(buffer, pos, lineEnd);
+
+        try {
+            parsedTime = TimeCodec.parse(buffer, pos, timeEnd);
+        } catch (NumberFormatException ex) {
+            throw formatError("Invalid subtitle time", pos);
+        }
+
+        return timeEnd;
+    }
+}
@@ -0,0 +1,66 @@
+package subitleseditor;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+
+/**
+ * Writes cues in the SRT format straight to a byte channel. Numbers and times are written as bytes
+ * and texts are encoded directly into a pooled ByteBuffer, so no String is created per cue.
+ * @author isacv
+ */
+public class SrtWriter extends CueWriter {
+
+    /**
+     * Creates a writer to a channel. The channel isn't closed by this writer
+     * @param channel The channel to write to
+     * @param charset The charset used to encode the subtitles
+     */
+    public SrtWriter(WritableByteChannel channel, Charset charset){
+        super(channel, charset);
+    }
+
+    /**
+     * Writes the number line and the times line of a cue
+     */
+    @Override
+    protected void writeHeader(int number, long start, long end) throws IOException {
+        int length = formatNumber(number, chars, 0);
+        chars[length++] = '\n';
+        length = TimeCodec.format(start, chars, length);
+        chars[length++] = ' ';
+        chars[length++] = '-';
+        chars[length++] = '-';
+        chars[length++] = '>';
+        chars[length++] = ' ';
+        length = TimeCodec.format(end, chars, length);
+        chars[length++] = '\n';
+
+        writeAscii(chars, length);
+    }
+
+    /**
+     * Writes all the cues to an SRT file without ever leaving it half written.
+     * See {@link CueWriter#writeAtomically(Path, SubtitleFormat, Charset, Body)}
+     * @param target The file to write
+     * @param charset The charset used to encode the subtitles
+     * @param cues The cues to write
+     * @throws IOException If the file can't be written, in which case the target is left untouched
+     */
+    public static void writeAtomically(Path target, Charset charset, CueStore cues) throws IOException {
+        writeAtomically(target, charset, writer -> writer.writeAll(cues));
+    }
+
+    /**
+     * Writes an SRT file without ever leaving it half written.
+     * See {@link CueWriter#writeAtomically(Path, SubtitleFormat, Charset, Body)}
+     * @param target The file to write
+     * @param charset The charset used to encode the subtitles
+     * @param body Writes the content of the file
+     * @throws IOException If the file can't be written, in which case the target is left untouched
+     */
+    public static void writeAtomically(Path target, Charset charset, Body body) throws IOException {
+        writeAtomically(target, SubtitleFormats.SRT, charset, body);
+    }
+}
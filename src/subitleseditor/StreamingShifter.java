@@ -0,0 +1,109 @@
+package subitleseditor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+
+/**
+ * Applies a time transform to a subtitle file in a single pass, writing each cue as soon as it is parsed.
+ * The cue texts are copied as raw bytes, never decoded, and nothing is kept from one cue to the next,
+ * so the memory used doesn't depend on the file size. The target may be written in another format than
+ * the source, which converts the file in the same pass.
+ * @author isacv
+ */
+public class StreamingShifter {
+
+    private StreamingShifter(){
+    }
+
+    /**
+     * Transforms the times of every cue of a file, writing the result to another (or the same) file.
+     * The formats of both files are given by their extensions, see {@link SubtitleFormats#forPath(Path)}
+     * @param source The file to read
+     * @param target The file to write, which can be the source itself
+     * @param charset The charset of the file, which must be supported by {@link CueTokenizer}
+     * @param transform The transform to apply to the cue times
+     * @return The amount of cues written
+     * @throws IOException If the source can't be read or parsed or the target can't be written
+     */
+    public static int shift(Path source, Path target, Charset charset, TimeTransform transform) throws IOException {
+        return convert(source, SubtitleFormats.forPath(source), target, SubtitleFormats.forPath(target),
+                charset, transform);
+    }
+
+    /**
+     * Transforms the times of every cue of a file while converting it to another format.
+     * The target is written atomically, see {@link CueWriter#writeAtomically(Path, SubtitleFormat, Charset,
+     * CueWriter.Body)}
+     * @param source The file to read
+     * @param sourceFormat The format of the source
+     * @param target The file to write, which can be the source itself
+     * @param targetFormat The format to write
+     * @param charset The charset of both files, which must be supported by {@link CueTokenizer}
+     * @param transform The transform to apply to the cue times
+     * @return The amount of cues written
+     * @throws IOException If the source can't be read or parsed or the target can't be written
+     */
+    public static int convert(Path source, SubtitleFormat sourceFormat, Path target, SubtitleFormat targetFormat,
+            Charset charset, TimeTransform transform) throws IOException {
+        checkSupported(charset);
+        int[] count = new int[1];
+
+        CueWriter.writeAtomically(target, targetFormat, charset, writer -> {
+            count[0] = newParser(sourceFormat, writer, transform).parse(source);
+        });
+
+        return count[0];
+    }
+
+    /**
+     * Transforms the times of every cue of some subtitles in memory while converting them to another format,
+     * writing each cue to a channel as soon as it is parsed. Nothing is written if the subtitles can't be parsed
+     * before the output is long enough to fill the writer buffer
+     * @param source The subtitles, between the position and limit of the buffer
+     * @param sourceFormat The format of the source
+     * @param target The channel to write to, which isn't closed
+     * @param targetFormat The format to write
+     * @param charset The charset of the source and the result, which must be supported by {@link CueTokenizer}
+     * @param transform The transform to apply to the cue times
+     * @return The amount of cues written
+     * @throws IOException If the source can't be parsed or the target can't be written
+     */
+    public static int convert(ByteBuffer source, SubtitleFormat sourceFormat, WritableByteChannel target,
+            SubtitleFormat targetFormat, Charset charset, TimeTransform transform) throws IOException {
+        checkSupported(charset);
+        CueWriter writer = targetFormat.newWriter(target, charset);
+        int count;
+
+        try {
+            count = newParser(sourceFormat, writer, transform).parse(source);
+        } catch (IOException | RuntimeException ex) { //the cues already buffered are not written
+            writer.discard();
+            throw ex;
+        }
+
+        writer.close();
+        return count;
+    }
+
+    private static void checkSupported(Charset charset){
+        if (!CueTokenizer.supports(charset)){
+            throw new IllegalArgumentException("Streaming is not supported for the encoding " + charset);
+        }
+    }
+
+    /**
+     * Creates a parser that writes each cue with its times transformed
+     */
+    private static CueTokenizer newParser(SubtitleFormat format, CueWriter writer, TimeTransform transform){
+        int[] count = new int[1];
+
+        return format.newParser((int number, long start, long end, ByteBuffer text) -> {
+            int index = count[0]++;
+            writer.writeCue(number, transform.apply(index, number, start),
+                    transform.applyToEnd(index, number, start, end), text);
+        });
+    }
+}
@@ -0,0 +1,78 @@
+package subitleseditor;
+
+import java.io.IOException;
+
+/**
+ * Parses SubViewer 2.0 files by scanning their bytes directly, like {@link SrtParser}.
+ * The [INFORMATION] header and any other tag lines between cues are skipped. Each cue is a times line in
+ * the format hh:mm:ss.cc,hh:mm:ss.cc followed by its text, whose "[br]" line breaks are handed out as "\n".
+ * The cues are numbered by their position in the file.
+ * @author isacv
+ */
+public class SubViewerParser extends CueTokenizer {
+    private static final String LINE_BREAK = "[br]";
+
+    public SubViewerParser(CueHandler handler){
+        super(handler);
+    }
+
+    @Override
+    protected int parseBuffer(int from, boolean endOfInput) throws IOException {
+        final int limit = buffer.limit();
+        int pos = from;
+
+        while (true){
+            pos = skipBlankLines(pos, limit);
+            int cueStart = pos;
+
+            if (pos >= limit){
+                return limit;
+            }
+
+            int lineEnd = findLineEnd(pos, limit);
+
+            if (lineEnd == limit && !endOfInput){
+                return cueStart;
+            }
+
+            if (buffer.get(pos) == '['){ //header or style tags
+                pos = nextLine(lineEnd, limit);
+                continue;
+            }
+
+            //times, the fractions use '.' so the ',' only separates both times
+            int timesEnd = contentEnd(pos, lineEnd);
+            int comma = indexOf(pos, timesEnd, (byte)',');
+
+            if (comma < 0){
+                throw formatError("Expected \",\" between subtitle times", pos);
+            }
+
+            int endStart = skipSpaces(comma + 1, timesEnd);
+            long start = parseClock(pos, comma);
+            long end = parseClock(endStart, TimeCodec.scanEnd(buffer, endStart, timesEnd));
+            pos = nextLine(lineEnd, limit);
+
+            //text, up to an empty line
+            int textStart = pos;
+            int textEnd = pos;
+
+            while (pos < limit){
+                lineEnd = findLineEnd(pos, limit);
+
+                if (isBlank(pos, lineEnd)){
+                    break;
+                }
+
+                textEnd = contentEnd(pos, lineEnd);
+                pos = nextLine(lineEnd, limit);
+            }
+
+            if (pos >= limit && !endOfInput){
+                return cueStart;
+            }
+
+            emit(getCuesParsed() + 1, start, end, textStart, textEnd, LINE_BREAK);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package subitleseditor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Writes cues in the SubViewer 2.0 format straight to a byte channel. The line breaks of the texts are
+ * written as "[br]", so each cue takes a times line and a text line.
+ * @author isacv
+ */
+public class SubViewerWriter extends CueWriter {
+    private static final String FILE_HEADER = "[INFORMATION]\n"
+            + "[TITLE]\n"
+            + "[AUTHOR]\n"
+            + "[SOURCE]\n"
+            + "[PRG]\n"
+            + "[FILEPATH]\n"
+            + "[DELAY]0\n"
+            + "[CD TRACK]0\n"
+            + "[COMMENT]\n"
+            + "[END INFORMATION]\n"
+            + "[SUBTITLE]\n"
+            + "[COLF]&HFFFFFF,[STYLE]bd,[SIZE]18,[FONT]Arial\n";
+    private static final String LINE_BREAK = "[br]";
+
+    /**
+     * Creates a writer to a channel. The channel isn't closed by this writer
+     * @param channel The channel to write to
+     * @param charset The charset used to encode the subtitles
+     */
+    public SubViewerWriter(WritableByteChannel channel, Charset charset){
+        super(channel, charset);
+    }
+
+    @Override
+    protected void writeFileHeader() throws IOException {
+        writeAscii(FILE_HEADER);
+    }
+
+    /**
+     * Writes the times line of a cue. The number isn't kept, as the format has no place for it
+     */
+    @Override
+    protected void writeHeader(int number, long start, long end) throws IOException {
+        int length = TimeCodec.format(Math.max(0, start), chars, 0, 2, '.', 2);
+        chars[length++] = ',';
+        length = TimeCodec.format(Math.max(0, end), chars, length, 2, '.', 2);
+        chars[length++] = '\n';
+
+        writeAscii(chars, length);
+    }
+
+    @Override
+    protected void writeText(CharBuffer text) throws IOException {
+        writeText(text, LINE_BREAK);
+    }
+
+    @Override
+    protected void writeText(ByteBuffer text) throws IOException {
+        writeText(text, LINE_BREAK);
+    }
+}
@@ -22,28 +22,11 @@ public class Subtitle {
     /**
      * Formats a time in long to a visual format
      * @param time The time to be formatted
-     * @return A time formatted as hh:mm:ss,SSS
+     * @return A time formatted as hh:mm:ss,SSS, with a leading '-' for negative times
+     * @see TimeCodec
      */
     public static String formatTime(long time){
-        int millis = (int)(time % 1000);
-        long seconds = time / 1000;
-        long minutes = seconds / 60;
-        int hours = (int)(minutes / 60);
-
-        if (seconds >= 60){
-            seconds = seconds % 60;
-        }
-  
-        if (minutes >= 60){
-            minutes = minutes % 60;
-        }
-   
-        String textMillis = padLeftZeros(Integer.toString(millis),3);
-        String textSeconds = padLeftZeros(Long.toString(seconds),2);
-        String textMinutes = padLeftZeros(Long.toString(minutes),2);
-        String textHours = padLeftZeros(Integer.toString(hours),2);
-        
-        return textHours + ":" + textMinutes + ":" + textSeconds + "," + textMillis;
+        return TimeCodec.format(time);
     }
     
     /**
@@ -116,24 +99,12 @@ public class Subtitle {
     }
     
     /**
-     * Parses the time received in string to this classes values
-     * @param inputTime
-     * @return 
+     * Parses a time in the format hh:mm:ss,uuu to milliseconds
+     * @param inputTime Formatted String that represents the time
+     * @return The time in milliseconds
      */
-    private long parseTime(String inputTime){
-        String[] blocks = inputTime.split(":");
-        
-        long time = 0;
-        
-        time += Integer.parseInt(blocks[0]) * 3600000; //hours
-        time += Integer.parseInt(blocks[1]) * 60000; //minutes
-        
-        String[] secondBlock = blocks[2].split(",");
-        
-        time += Integer.parseInt(secondBlock[0]) * 1000; //seconds
-        time += Integer.parseInt(secondBlock[1]);
-        
-        return time;
+    public static long parseTime(String inputTime){
+        return TimeCodec.parse(inputTime.trim());
     }
     
     /**
@@ -141,6 +112,6 @@ public class Subtitle {
      * @param newText The new line of text to be added to this subtitle
      */
     public void addText(String newText){
-        text = text == null ? newText : "\n" + newText;
+        text = text == null ? newText : text + "\n" + newText;
     }
 }
@@ -0,0 +1,41 @@
+package subitleseditor;
+
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.List;
+
+/**
+ * A subtitle file format, which creates the streaming parsers and writers of its files.
+ * Other formats than the ones of {@link SubtitleFormats} can be added as services of this interface.
+ * @author isacv
+ */
+public interface SubtitleFormat {
+
+    /**
+     * Gets the name shown to the user
+     * @return The format name
+     */
+    String getName();
+
+    /**
+     * Gets the extensions of the format files, in lower case and without the dot. The first one is used
+     * for the files converted to this format
+     * @return The file extensions
+     */
+    List<String> getExtensions();
+
+    /**
+     * Creates a parser of the format
+     * @param handler Receives the parsed cues
+     * @return The parser
+     */
+    CueTokenizer newParser(CueTokenizer.CueHandler handler);
+
+    /**
+     * Creates a writer of the format. The channel isn't closed by the writer
+     * @param channel The channel to write to
+     * @param charset The charset used to encode the subtitles
+     * @return The writer
+     */
+    CueWriter newWriter(WritableByteChannel channel, Charset charset);
+}
@@ -0,0 +1,154 @@
+package subitleseditor;
+
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.ServiceLoader;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * The known subtitle formats: the built in SRT, WebVTT, ASS/SSA and SubViewer ones, plus any
+ * {@link SubtitleFormat} registered as a service in META-INF/services.
+ * @author isacv
+ */
+public final class SubtitleFormats {
+    public static final SubtitleFormat SRT = new BuiltInFormat("SubRip", SrtParser::new, SrtWriter::new, "srt");
+    public static final SubtitleFormat WEBVTT = new BuiltInFormat("WebVTT", VttParser::new, VttWriter::new, "vtt");
+    public static final SubtitleFormat ASS = new BuiltInFormat("ASS/SSA", AssParser::new, AssWriter::new,
+            "ass", "ssa");
+    public static final SubtitleFormat SUBVIEWER = new BuiltInFormat("SubViewer", SubViewerParser::new,
+            SubViewerWriter::new, "sub");
+
+    private static final List<SubtitleFormat> FORMATS = loadFormats();
+
+    private SubtitleFormats(){
+    }
+
+    private static List<SubtitleFormat> loadFormats(){
+        List<SubtitleFormat> formats = new ArrayList<>(Arrays.asList(SRT, WEBVTT, ASS, SUBVIEWER));
+
+        for (SubtitleFormat format : ServiceLoader.load(SubtitleFormat.class)){
+            formats.add(format);
+        }
+
+        return Collections.unmodifiableList(formats);
+    }
+
+    /**
+     * Gets all the known formats, the built in ones first
+     * @return The formats
+     */
+    public static List<SubtitleFormat> all(){
+        return FORMATS;
+    }
+
+    /**
+     * Finds a format by its name or one of its extensions, ignoring the case
+     * @param name The name or extension, like "srt" or "WebVTT"
+     * @return The format
+     * @throws IllegalArgumentException If there is no such format
+     */
+    public static SubtitleFormat forName(String name){
+        String lowerCase = name.toLowerCase(Locale.ROOT);
+
+        for (SubtitleFormat format : FORMATS){
+            if (format.getName().equalsIgnoreCase(name) || format.getExtensions().contains(lowerCase)){
+                return format;
+            }
+        }
+
+        throw new IllegalArgumentException("Unknown subtitle format " + name);
+    }
+
+    /**
+     * Finds the format of a file by its extension
+     * @param file The file
+     * @return The format of the file, SRT if the extension is unknown
+     */
+    public static SubtitleFormat forPath(Path file){
+        String name = file.getFileName().toString();
+        String extension = name.substring(name.lastIndexOf('.') + 1).toLowerCase(Locale.ROOT);
+
+        for (SubtitleFormat format : FORMATS){
+            if (format.getExtensions().contains(extension)){
+                return format;
+            }
+        }
+
+        return SRT;
+    }
+
+    /**
+     * Gets the extensions of all the known formats
+     * @return The file extensions, in lower case and without the dot
+     */
+    public static List<String> extensions(){
+        List<String> extensions = new ArrayList<>();
+
+        for (SubtitleFormat format : FORMATS){
+            extensions.addAll(format.getExtensions());
+        }
+
+        return extensions;
+    }
+
+    /**
+     * Changes the extension of a file name to the one of a format
+     * @param file The file
+     * @param format The format
+     * @return The file with the extension of the format
+     */
+    public static Path withExtension(Path file, SubtitleFormat format){
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        String base = dot > 0 ? name.substring(0, dot) : name;
+
+        return file.resolveSibling(base + "." + format.getExtensions().get(0));
+    }
+
+    private static class BuiltInFormat implements SubtitleFormat {
+        private final String name;
+        private final List<String> extensions;
+        private final Function<CueTokenizer.CueHandler, CueTokenizer> parsers;
+        private final BiFunction<WritableByteChannel, Charset, CueWriter> writers;
+
+        BuiltInFormat(String name, Function<CueTokenizer.CueHandler, CueTokenizer> parsers,
+                BiFunction<WritableByteChannel, Charset, CueWriter> writers, String... extensions){
+            this.name = name;
+            this.parsers = parsers;
+            this.writers = writers;
+            this.extensions = Collections.unmodifiableList(Arrays.asList(extensions));
+        }
+
+        @Override
+        public String getName(){
+            return name;
+        }
+
+        @Override
+        public List<String> getExtensions(){
+            return extensions;
+        }
+
+        @Override
+        public CueTokenizer newParser(CueTokenizer.CueHandler handler){
+            return parsers.apply(handler);
+        }
+
+        @Override
+        public CueWriter newWriter(WritableByteChannel channel, Charset charset){
+            return writers.apply(channel, charset);
+        }
+
+        @Override
+        public String toString(){
+            return name;
+        }
+    }
+}
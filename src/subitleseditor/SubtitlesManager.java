@@ -1,45 +1,115 @@
 package subitleseditor;
 
-import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
-import java.io.UnsupportedEncodingException;
-import java.util.ArrayList;
-import java.util.List;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
- *
+ * Holds the loaded subtitles and every action on them. Can be used by many threads at once: the changes are
+ * made one at a time on a working copy, and each change publishes an immutable version of the subtitles, which
+ * is all the readers ever see. Reading never waits for a change, however big, and never sees one half done.
+ * Readers that need several values of the same version, like a count and the subtitles up to it, should read
+ * them from a {@link #snapshot()}.
  * @author isacv
  */
 public class SubtitlesManager {
-    private final List<Subtitle> subtitles;
-    private final List<Notifier> notifiers;    
-    private String filePath;
-    private String encoding;
+    /**
+     * Encoding that detects the encoding of each loaded file, and saves with the detected one
+     */
+    public static final String AUTO_DETECT = "Auto-detect";
+    
+    private final Object writeLock = new Object(); //held while changing the subtitles
+    private CueStore cues; //working copy, only used with the write lock held
+    private final EditHistory history; //only used with the write lock held
+    private volatile Version published; //what the readers see
+    private final SubtitlesTextCache textCache; //of the current version, used with its own lock
+    private final NotificationBus notifications;
+    private volatile String filePath;
+    private volatile String encoding;
+    private volatile Charset detectedCharset = StandardCharsets.UTF_8;
+    private volatile CueCache cache;
+    private volatile FileMonitor monitor;
+    private volatile Executor changeExecutor;
+    private volatile CueFileIndex fileIndex; //where the loaded cues are in the watched file, null when unknown
+    private volatile boolean reloadWatched; //the changes of the watched file couldn't be merged
+    private volatile long fileVersion; //version with the content of the file, the later ones have unsaved edits
+    private final Map<CueStore, CueFileIndex> loadedIndexes = Collections.synchronizedMap(new WeakHashMap<>());
+    private final Map<CueStore, Long> snapshotVersions = Collections.synchronizedMap(new WeakHashMap<>());
     
     public SubtitlesManager(){
-        subtitles = new ArrayList<>();
-        notifiers = new ArrayList<>();
+        cues = new CueStore();
+        textCache = new SubtitlesTextCache();
+        history = new EditHistory();
+        notifications = new NotificationBus();
+        published = new Version(0, cues.snapshot(), null, false, false);
+    }
+    
+    /**
+     * An immutable state of the loaded subtitles, replaced as a whole on every change
+     */
+    private static final class Version {
+        final long number;
+        final CueStore cues; //a snapshot, never changed
+        final CueIntervalIndex timeIndex; //built on the first query
+        final boolean canUndo;
+        final boolean canRedo;
+        
+        Version(long number, CueStore cues, CueIntervalIndex previousIndex, boolean canUndo, boolean canRedo){
+            this.number = number;
+            this.cues = cues;
+            this.timeIndex = new CueIntervalIndex(cues, previousIndex);
+            this.canUndo = canUndo;
+            this.canRedo = canRedo;
+        }
     }
     
     /**
      * Adds a new notifier to this class's notifiers list. All the notifiers get notified for each 
      * generated action. There are 2 types of notifications: Soft and Hard, that allow the
      * notified ones to give different implementations for both if they deem necessary.
+     * The notifier is called on the notifying thread, as soon as each action happens, with every progress
+     * and subtitle change notification.
      * @param n The notifier to be added to the list
      */
     public void addNotifier(Notifier n){
-        if (!notifiers.contains(n)){
-            notifiers.add(n);
-        }
+        notifications.subscribe(n);
+    }
+    
+    /**
+     * Adds a new notifier that is called on its own executor, so that the notifying thread never waits for it.
+     * Progress and subtitle change notifications are coalesced for it, at most one of each per frame.
+     * @param n The notifier to be added to the list
+     * @param executor Runs the notifier calls in order, like SwingUtilities::invokeLater
+     */
+    public void addNotifier(Notifier n, Executor executor){
+        notifications.subscribe(n, executor);
+    }
+    
+    /**
+     * Removes a notifier from this class's notifiers list
+     * @param n The notifier to be removed
+     */
+    public void removeNotifier(Notifier n){
+        notifications.unsubscribe(n);
     }
     
     /**
@@ -69,37 +139,243 @@ public class SubtitlesManager {
         encoding = newEncoding;
     }
     
+    /**
+     * Sets the cache of parsed files, which makes reopening an unchanged file skip its parsing.
+     * @param newCache The cache, or null to always parse the files
+     */
+    public void setCache(CueCache newCache){
+        cache = newCache;
+    }
+    
+    /**
+     * Checks if the encoding of the files is detected when loading them
+     * @return true if the encoding is {@link #AUTO_DETECT}, or just "auto"
+     */
+    public boolean isAutoDetect(){
+        return AUTO_DETECT.equalsIgnoreCase(encoding) || "auto".equalsIgnoreCase(encoding);
+    }
+    
+    /**
+     * Gets the charset used to save files, which is the one detected on the last load when auto detecting
+     * @return The charset of the files
+     * @throws IllegalArgumentException If the encoding isn't supported
+     */
+    public Charset getCharset(){
+        return isAutoDetect() ? detectedCharset : Charset.forName(encoding);
+    }
+    
     /**
      * Writes the current subtitles to file if there is a file path selected
      */
     public void writeToFile(){
-        if (filePath != null){
-            try(PrintWriter pw = new PrintWriter(new OutputStreamWriter(new FileOutputStream(filePath), encoding))) {
-                for (Subtitle s : subtitles){
-                    pw.print(s);
-                }
-                
-                pw.flush();
-                pw.close();
-                
-                notifyAction("File saved sucessfuly");
-            } catch (FileNotFoundException ex) {
-                Logger.getLogger(MainUI.class.getName()).log(Level.SEVERE, null, ex);
-            } catch (UnsupportedEncodingException ex) {
-                Logger.getLogger(SubtitlesManager.class.getName()).log(Level.SEVERE, null, ex);
-            }
+        String path = filePath;
+        
+        if (path != null){
+            writeToFile(snapshot(), path);
         }else {
             notifyAction("No file selected, unable to save");
         }
     }
     
+    /**
+     * Writes subtitles to a file, notifying the progress. Can be called from a background thread with a 
+     * {@link #snapshot()}, and canceled by interrupting that thread. The file is only replaced once completely 
+     * written, so a canceled or failed save leaves it untouched. The format is chosen by the file extension.
+     * @param toWrite The subtitles to write
+     * @param path The file to write
+     * @return true if the file was saved
+     */
+    public boolean writeToFile(CueStore toWrite, String path){
+        try {
+            Path file = Paths.get(path);
+            CueWriter.writeAtomically(file, SubtitleFormats.forPath(file), getCharset(), writer -> 
+                writer.writeAll(toWrite, (done, total) -> {
+                    checkCanceled();
+                    notifyProgress(() -> "Saving file... " + Misc.plurify((int)done, "subtitle") + " written", 
+                            done, total);
+                }));
+
+            indexSavedFile(file, toWrite);
+            notifyAction("File saved sucessfuly");
+            return true;
+        } catch (InterruptedIOException | ClosedByInterruptException ex) {
+            notifyAction("Saving canceled, the file was left unchanged");
+        } catch (IllegalArgumentException ex) {
+            Logger.getLogger(SubtitlesManager.class.getName()).log(Level.SEVERE, null, ex);
+            severeNotifyAction("The encoding " + encoding + " is not supported");
+        } catch (IOException ex) {
+            Logger.getLogger(SubtitlesManager.class.getName()).log(Level.SEVERE, null, ex);
+            severeNotifyAction("Unable to save the file, it was left unchanged: " + ex.getMessage());
+        }
+        
+        return false;
+    }
+    
+    /**
+     * Stops a background operation if its thread was interrupted
+     */
+    private static void checkCanceled() throws InterruptedIOException {
+        if (Thread.currentThread().isInterrupted()){
+            throw new InterruptedIOException("Canceled");
+        }
+    }
+    
+    /**
+     * Gets a copy of the loaded subtitles that is not affected by later changes, to be written in background
+     * @return The copy of the subtitles
+     */
+    public CueStore snapshot(){
+        Version current = published;
+        CueStore copy = current.cues.snapshot();
+        snapshotVersions.put(copy, current.number);
+        return copy;
+    }
+    
+    /**
+     * Gets the version of the loaded subtitles, which changes every time they change
+     * @return The version number
+     */
+    public long getVersion(){
+        return published.number;
+    }
+    
+    /**
+     * Replaces the loaded subtitles, normally with the ones returned by {@link #loadFromFile(String)}
+     * @param loaded The new subtitles
+     */
+    public void setSubtitles(CueStore loaded){
+        synchronized (writeLock){
+            cues = loaded;
+            fileIndex = loadedIndexes.remove(loaded);
+            FileMonitor watching = monitor;
+            
+            if (fileIndex == null && watching != null){ //indexed by the monitor, as the file should still be the same
+                watching.recheck();
+            }
+            
+            history.clear();
+            publish(-1, -1);
+            fileVersion = published.number;
+            notifySubtitlesChanged(0, loaded.size() - 1);
+        }
+    }
+    
+    /**
+     * Undoes the last timing edit
+     * @return true if there was an edit to undo
+     */
+    public boolean undo(){
+        synchronized (writeLock){
+            EditHistory.TimeEdit edit = history.undo(cues);
+            
+            if (edit == null){
+                notifyAction("Nothing to undo");
+                return false;
+            }
+            
+            subtitlesChanged(edit.getFromIndex(), edit.getToIndex());
+            notifyAction("Last change undone");
+            return true;
+        }
+    }
+    
+    /**
+     * Applies again the last undone timing edit
+     * @return true if there was an edit to redo
+     */
+    public boolean redo(){
+        synchronized (writeLock){
+            EditHistory.TimeEdit edit = history.redo(cues);
+            
+            if (edit == null){
+                notifyAction("Nothing to redo");
+                return false;
+            }
+            
+            subtitlesChanged(edit.getFromIndex(), edit.getToIndex());
+            notifyAction("Last undone change applied again");
+            return true;
+        }
+    }
+    
+    public boolean canUndo(){
+        return published.canUndo;
+    }
+    
+    public boolean canRedo(){
+        return published.canRedo;
+    }
+    
+    /**
+     * Publishes the changed subtitles and notifies the change. Called with the write lock held
+     * @param fromIndex First changed subtitle index (inclusive)
+     * @param toIndex Last changed subtitle index (inclusive)
+     */
+    private void subtitlesChanged(int fromIndex, int toIndex){
+        publish(fromIndex, toIndex);
+        notifySubtitlesChanged(fromIndex, toIndex);
+    }
+    
+    /**
+     * Makes a new version of the working copy the one the readers see. Called with the write lock held
+     * @param fromIndex First changed subtitle index (inclusive), or -1 if cues were added or removed
+     * @param toIndex Last changed subtitle index (inclusive)
+     */
+    private void publish(int fromIndex, int toIndex){
+        Version previous = published;
+        Version next = new Version(previous.number + 1, cues.snapshot(), previous.timeIndex, history.canUndo(), 
+                history.canRedo());
+        
+        synchronized (textCache){ //the cache never sees the changes of a version it isn't given
+            if (fromIndex < 0){
+                textCache.invalidateAll();
+            }
+            else {
+                textCache.invalidate(fromIndex, toIndex);
+            }
+            
+            published = next;
+        }
+    }
+    
     /**
      * A soft notification to all registered notified parties
      * @param message the notification message
      */
     private void notifyAction(String message){
-        for (Notifier n: notifiers){
-            n.notifyAction(message);
+        notifyAction(() -> message);
+    }
+    
+    /**
+     * A soft notification to all registered notified parties, formatted only if it gets delivered
+     * @param message builds the notification message
+     */
+    private void notifyAction(Supplier<String> message){
+        if (notifications.hasSubscribers()){
+            notifications.post(new NotificationBus.Action(message, false));
+        }
+    }
+    
+    /**
+     * A progress notification to all registered notified parties, formatted only if it gets delivered
+     * @param message builds the notification message
+     * @param done amount of work done
+     * @param total total amount of work
+     */
+    private void notifyProgress(Supplier<String> message, long done, long total){
+        if (notifications.hasSubscribers()){
+            notifications.post(new NotificationBus.Progress(message, done, total));
+        }
+    }
+    
+    /**
+     * A subtitles change notification to all registered notified parties
+     * @param fromIndex first changed subtitle index (inclusive)
+     * @param toIndex last changed subtitle index (inclusive)
+     */
+    private void notifySubtitlesChanged(int fromIndex, int toIndex){
+        if (notifications.hasSubscribers()){
+            notifications.post(new NotificationBus.SubtitlesChanged(fromIndex, toIndex));
         }
     }
     
@@ -108,93 +384,414 @@ public class SubtitlesManager {
      * @param message the notification message
      */
     private void severeNotifyAction(String message){
-        for (Notifier n: notifiers){
-            n.severeNotifyAction(message);
+        if (notifications.hasSubscribers()){
+            notifications.post(new NotificationBus.Action(() -> message, true));
         }
     }
     
     /**
-     * Updates the current reading type according to a subtitle file structure
-     * @param readingType The reading type
-     * @return 
+     * Reads a subtitle from the currently selected file path
      */
-    private ReadingType updateCurrentRead(ReadingType readingType){
-        switch(readingType){
-            case number: return ReadingType.time;
-            case time: return ReadingType.text;
-            case text: return ReadingType.emptyline;
-            case emptyline: return ReadingType.number;
-        }
+    public void readFromFile(){
+        CueStore loaded = loadFromFile(filePath);
         
-        return null;
+        if (loaded != null){
+            setSubtitles(loaded);
+        }
     }
     
     /**
-     * Reads a subtitle from the currently selected file path
+     * Reads subtitles from a file without changing the loaded ones, notifying the progress.
+     * Can be called from a background thread, and canceled by interrupting that thread.
+     * The format is chosen by the file extension, see {@link SubtitleFormats#forPath(Path)}.
+     * @param path The file to read
+     * @return The subtitles read or null if the file couldn't be read or the load was canceled
      */
-    public void readFromFile(){
-        ReadingType currRead = ReadingType.number;
-        BufferedReader br = null;
+    public CueStore loadFromFile(String path){
+        Path file = Paths.get(path);
         
-        try {
-            FileInputStream fileStream = new FileInputStream(new File(filePath));
-            br = new BufferedReader(new InputStreamReader(fileStream,encoding));
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
             notifyAction("Loading file...");
-            String textLine = br.readLine();
-            subtitles.clear();
-            Subtitle currentSubtitle = null;
-
-            while (textLine != null){
-                switch(currRead){
-                    case number:
-                        if (currentSubtitle!= null){
-                            subtitles.add(currentSubtitle);
-                        }
-
-                        currentSubtitle = new Subtitle();
-                        currentSubtitle.number = Integer.parseInt(textLine);
-                        currRead = updateCurrentRead(currRead);
-                        break;
-                    case time:
-                        String[] blocks = textLine.split(" --> ");
-
-                        currentSubtitle.parseStartTime(blocks[0]);
-                        currentSubtitle.parseEndTime(blocks[1]);
-
-                        currRead = updateCurrentRead(currRead);                            
-                        break;
-                    case text:
-                        if (textLine.equals("")){
-                            currRead = ReadingType.number;
-                        }
-                        else {
-                            currentSubtitle.addText(textLine);
-                        }
-                        break;
+            boolean detect = isAutoDetect();
+            //detected on the same channel the parser reads, so the scanned prefix is only read from disk once
+            Charset charset = detect ? EncodingDetector.detect(channel) : Charset.forName(encoding);
+            SubtitleFormat format = SubtitleFormats.forPath(file);
+            CueStore cached = loadCached(file, charset, format);
+            
+            if (cached != null){
+                if (detect){
+                    detectedCharset = charset;
                 }
-
-                textLine = br.readLine(); 
+                
+                notifyAction("File loaded sucessfuly from the cache");
+                return cached;
             }
-            subtitles.add(currentSubtitle);
-
-            notifyAction("File loaded sucessfuly");
-        } catch (FileNotFoundException ex) {
+            
+            CueStore loaded = new CueStore();
+            CueLoader loader = new CueLoader(loaded, charset);
+            ProgressListener progress = (done, total) -> {
+                checkCanceled();
+                int read = loaded.size();
+                notifyProgress(() -> "Loading file... " + Misc.plurify(read, "subtitle") + " read", done, total);
+            };
+            
+            //a watched file is indexed in the same pass, to merge its later changes
+            CueFileIndex index = monitor != null && CueTokenizer.supports(charset) 
+                    ? CueFileIndex.build(channel, format, loader, progress) : null;
+            
+            if (index != null){
+                loadedIndexes.put(loaded, index);
+            }
+            else if (CueTokenizer.supports(charset)){
+                CueTokenizer parser = format.newParser(loader);
+                parser.setProgressListener(progress);
+                parser.parse(channel);
+            }
+            else { //the bytes can't be scanned directly, so they are converted to an encoding that can
+                CharBuffer content = charset.decode(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+                CueTokenizer parser = format.newParser(new CueLoader(loaded, StandardCharsets.UTF_8));
+                parser.setProgressListener(progress);
+                parser.parse(StandardCharsets.UTF_8.encode(content));
+            }
+            
+            loaded.trimToSize();
+            storeCached(file, charset, format, loaded);
+            
+            if (detect){
+                detectedCharset = charset;
+                notifyAction("File loaded sucessfuly, detected encoding " + charset.name());
+            }
+            else {
+                notifyAction("File loaded sucessfuly");
+            }
+            
+            return loaded;
+        } catch (InterruptedIOException | ClosedByInterruptException ex) {
+            notifyAction("File loading canceled");
+        } catch (NoSuchFileException ex) {
             Logger.getLogger(MainUI.class.getName()).log(Level.SEVERE, null, ex);
             severeNotifyAction("The selected file does not exist");
+        } catch (IllegalArgumentException ex) {
+            Logger.getLogger(SubtitlesManager.class.getName()).log(Level.SEVERE, null, ex);
+            severeNotifyAction("The encoding " + encoding + " is not supported");
         } catch (IOException ex) {
             Logger.getLogger(MainUI.class.getName()).log(Level.SEVERE, null, ex);
-            severeNotifyAction("Unexpected error while loading from the file");
-        } finally {
+            severeNotifyAction("Unexpected error while loading from the file: " + ex.getMessage());
+        }
+        
+        return null;
+    }
+    
+    /**
+     * Reads the cues of a file from the cache, if there is one and it has them
+     * @return The cached cues or null
+     */
+    private CueStore loadCached(Path file, Charset charset, SubtitleFormat format){
+        CueCache current = cache;
+        
+        if (current != null){
+            try {
+                return current.load(file, charset, format);
+            } catch (IOException | RuntimeException ex) { //the file is parsed instead
+                Logger.getLogger(SubtitlesManager.class.getName()).log(Level.WARNING, null, ex);
+            }
+        }
+        
+        return null;
+    }
+    
+    /**
+     * Writes the cues of a file to the cache, if there is one. Failing only means the next load parses the file
+     */
+    private void storeCached(Path file, Charset charset, SubtitleFormat format, CueStore loaded){
+        CueCache current = cache;
+        
+        if (current != null){
+            try {
+                current.store(file, charset, format, loaded);
+            } catch (IOException | RuntimeException ex) {
+                Logger.getLogger(SubtitlesManager.class.getName()).log(Level.WARNING, null, ex);
+            }
+        }
+    }
+    
+    /**
+     * Starts watching the file of the current file path, so that the changes other programs make to it are merged
+     * into the loaded subtitles. Only the cues in the changed part of an SRT file are parsed again, and files of
+     * other formats are loaded again completely. Either way the undo history is cleared. Changes are refused
+     * while the loaded subtitles have unsaved edits, which are kept, and the file is then loaded again completely
+     * on its next change, unless saving the edits replaces it first.
+     * Stops watching the previously watched file, if any
+     * @param executor Runs the changes of the loaded subtitles, normally on the thread that uses this manager
+     * @return true if the file is being watched
+     */
+    public boolean watchFile(Executor executor){
+        stopWatching();
+        
+        if (filePath == null){
+            return false;
+        }
+        
+        try {
+            changeExecutor = executor;
+            monitor = new FileMonitor(Paths.get(filePath), this::fileChanged);
+            
+            if (fileIndex == null){
+                monitor.recheck();
+            }
+            
+            return true;
+        } catch (IOException ex) {
+            Logger.getLogger(SubtitlesManager.class.getName()).log(Level.WARNING, null, ex);
+            notifyAction("Unable to watch the file for changes: " + ex.getMessage());
+            return false;
+        }
+    }
+    
+    /**
+     * Stops watching the file for changes
+     */
+    public void stopWatching(){
+        FileMonitor current = monitor;
+        monitor = null;
+        
+        if (current != null){
             try {
-                if (br != null){
-                    br.close();    
-                }                
+                current.close();
             } catch (IOException ex) {
-                Logger.getLogger(SubtitlesManager.class.getName()).log(Level.SEVERE, null, ex);
+                Logger.getLogger(SubtitlesManager.class.getName()).log(Level.WARNING, null, ex);
+            }
+        }
+    }
+    
+    public boolean isWatching(){
+        return monitor != null;
+    }
+    
+    /**
+     * Finds what changed in the watched file and parses it. Runs on the monitor thread, and only the change of the
+     * loaded subtitles runs on the change executor
+     */
+    private void fileChanged(){
+        FileMonitor current = monitor;
+        
+        if (current == null){
+            return;
+        }
+        
+        Path file = current.getFile();
+        SubtitleFormat format = SubtitleFormats.forPath(file);
+        CueFileIndex index = fileIndex;
+        
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            Charset charset = getCharset();
+            
+            if (reloadWatched || !CueTokenizer.supports(charset)){ //can't be indexed
+                reloadWatched = false;
+                reloadChangedFile(file);
+                return;
+            }
+            
+            if (index == null){ //the file is indexed as the loaded subtitles were read from it
+                CueFileIndex built = CueFileIndex.build(channel, format);
+                changeExecutor.execute(() -> indexLoadedFile(current, built));
+                return;
+            }
+            
+            ByteBuffer content = CueFileIndex.map(channel);
+            
+            if (content == null || format != SubtitleFormats.SRT){ //only SRT cues can be parsed by themselves
+                if (content == null || !index.isUnchanged(content)){
+                    reloadChangedFile(file);
+                }
+                
+                return;
+            }
+            
+            CueStore parsed = new CueStore();
+            CueFileIndex.Update update = index.update(content, format, new CueLoader(parsed, charset));
+            
+            if (update != null){
+                changeExecutor.execute(() -> applyFileChange(current, index, update, parsed));
+            }
+        } catch (NoSuchFileException ex) { //being replaced, its creation is notified next
+        } catch (IOException | IllegalArgumentException ex) {
+            Logger.getLogger(SubtitlesManager.class.getName()).log(Level.WARNING, null, ex);
+            notifyAction("The file changed outside the editor but it couldn't be read: " + ex.getMessage());
+        }
+    }
+    
+    /**
+     * Takes the index of the watched file, if it has as many cues as the loaded subtitles
+     */
+    private void indexLoadedFile(FileMonitor current, CueFileIndex built){
+        synchronized (writeLock){
+            if (monitor != current || fileIndex != null){
+                return;
+            }
+            
+            if (built != null && built.size() == cues.size()){
+                fileIndex = built;
+            }
+            else { //changed since it was loaded
+                reloadWatched = true;
+                current.recheck();
+            }
+        }
+    }
+    
+    /**
+     * Replaces the cues of the changed part of the watched file by the ones parsed again from it
+     */
+    private void applyFileChange(FileMonitor current, CueFileIndex index, CueFileIndex.Update update, 
+            CueStore parsed){
+        synchronized (writeLock){
+            if (monitor != current){
+                return;
+            }
+            
+            if (fileIndex != index || cues.size() != index.size()){ //loaded or saved meanwhile
+                current.recheck();
+                return;
+            }
+            
+            if (hasUnsavedEdits()){
+                refuseFileChange();
+                return;
+            }
+            
+            int oldSize = cues.size();
+            cues.replace(update.getFromIndex(), update.getToIndex(), parsed);
+            fileIndex = update.getIndex();
+            history.clear(); //undoing the recorded edits would change the times read from the file
+            publish(-1, -1);
+            fileVersion = published.number;
+            notifySubtitlesChanged(update.getFromIndex(), cues.size() != oldSize ? cues.size() - 1 
+                    : update.getFromIndex() + parsed.size() - 1);
+            notifyAction("File changed outside the editor, " + Misc.plurify(parsed.size(), "subtitle") 
+                    + " read again");
+        }
+    }
+    
+    /**
+     * Loads the watched file again completely, when its changes can't be merged
+     */
+    private void reloadChangedFile(Path file){
+        Executor executor = changeExecutor;
+        CueStore loaded = loadFromFile(file.toString());
+        
+        if (loaded != null){
+            executor.execute(() -> applyReload(loaded));
+        }
+    }
+    
+    /**
+     * Replaces the loaded subtitles by the ones read again from the watched file, unless they have unsaved edits
+     */
+    private void applyReload(CueStore loaded){
+        synchronized (writeLock){
+            if (hasUnsavedEdits()){
+                refuseFileChange();
+                return;
+            }
+            
+            setSubtitles(loaded);
+        }
+    }
+    
+    /**
+     * Tells if the loaded subtitles were edited since they were read from or saved to the watched file. 
+     * Called with the write lock held
+     */
+    private boolean hasUnsavedEdits(){
+        return published.number != fileVersion;
+    }
+    
+    /**
+     * Keeps the edited subtitles instead of the changes of the watched file, which is read again completely 
+     * on its next change. Called with the write lock held
+     */
+    private void refuseFileChange(){
+        reloadWatched = true;
+        severeNotifyAction("The file changed outside the editor but the subtitles have unsaved edits, "
+                + "they were kept. Save to overwrite the file or load it again to discard them");
+    }
+    
+    /**
+     * Indexes the watched file after saving to it, so that its change isn't taken as done outside the editor
+     */
+    private void indexSavedFile(Path file, CueStore saved){
+        FileMonitor current = monitor;
+        
+        if (current == null || !current.getFile().equals(file.toAbsolutePath())){
+            return;
+        }
+        
+        Long savedVersion = snapshotVersions.get(saved);
+        
+        if (savedVersion != null){ //the file has the edits up to the saved version
+            synchronized (writeLock){
+                fileVersion = savedVersion;
+            }
+        }
+        
+        if (saved.size() != published.cues.size() || !CueTokenizer.supports(getCharset())){
+            return;
+        }
+        
+        CueFileIndex built = null; //indexed again by the monitor if it fails
+        
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            built = CueFileIndex.build(channel, SubtitleFormats.forPath(file));
+        } catch (IOException ex) {
+            Logger.getLogger(SubtitlesManager.class.getName()).log(Level.WARNING, null, ex);
+        }
+        
+        synchronized (writeLock){
+            fileIndex = saved.size() == cues.size() ? built : null;
+            
+            if (fileIndex != null){ //the changes refused before are overwritten
+                reloadWatched = false;
             }
         }
     }
     
+    /**
+     * Decodes the text of the parsed cues and adds them to a cue store
+     */
+    private static class CueLoader implements CueTokenizer.CueHandler {
+        private final CueStore target;
+        private final CharsetDecoder decoder;
+        private final boolean encodedText; //the texts are stored as they are in the file when possible
+        private final boolean utf8;
+        private CharBuffer chars;
+        
+        CueLoader(CueStore target, Charset charset){
+            this.target = target;
+            this.decoder = charset.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            this.chars = CharBuffer.allocate(256);
+            this.utf8 = charset.equals(StandardCharsets.UTF_8);
+            this.encodedText = TextArena.isEncodedCharset(charset);
+        }
+
+        @Override
+        public void cue(int number, long start, long end, ByteBuffer text) {
+            if (encodedText && target.add(number, start, end, text, utf8)){
+                return;
+            }
+            
+            try {
+                chars = CueTokenizer.decodeText(text, decoder, chars);
+            } catch (CharacterCodingException ex) { //can't happen, errors are replaced
+                throw new IllegalStateException(ex);
+            }
+            
+            target.add(number, start, end, chars.array(), 0, chars.position());
+        }
+    }
+    
     /**
      * Updates all the subtitles according to the given parameters.
      * Positive values move all the subtitles forward(later) whereas negative values move them backwards(earlier)
@@ -203,7 +800,10 @@ public class SubtitlesManager {
      * @param milliseconds milliseconds to advance/delay
      */
     public void updateAllSubs(int minutes, int seconds, int milliseconds){
-        updateRangedSubs(minutes, seconds, milliseconds, 0, subtitles.size()-1);
+        synchronized (writeLock){
+            updateRangedSubs(minutes, seconds, milliseconds, cues.isEmpty() ? 0 : cues.getNumber(0), 
+                    cues.isEmpty() ? 0 : cues.getNumber(cues.size() - 1));
+        }
     }
     
     /**
@@ -216,40 +816,97 @@ public class SubtitlesManager {
      * @param max subtitle where the update ends (inclusive)
      */
     public void updateRangedSubs(int minutes, int seconds, int milliseconds, int min, int max){
-        for (Subtitle sub: subtitles){
-            if (sub.number >= min && sub.number <= max){
-                sub.updateTimes(minutes, seconds, milliseconds);    
-            }            
+        long change = (minutes * 60000L) + (seconds * 1000L) + milliseconds;
+        
+        synchronized (writeLock){
+            int[] changed = cues.shiftNumberRange(min, max, change);
+            
+            if (changed != null){
+                history.record(new EditHistory.RangeShift(min, max, changed[0], changed[1], change));
+                subtitlesChanged(changed[0], changed[1]);
+            }
         }
         
-        String notifyStr = "Subtitles ";
+        notifyAction(() -> describeShift("Subtitles ", minutes, seconds, milliseconds) 
+                + " from subtitle " + min + " to " + max);
+    }
+    
+    /**
+     * Describes how much some subtitles were moved, for the notifications
+     * @param subject The moved subtitles
+     * @param minutes minutes advanced/delayed
+     * @param seconds seconds advanced/delayed
+     * @param milliseconds milliseconds advanced/delayed
+     * @return The description
+     */
+    private static String describeShift(String subject, int minutes, int seconds, int milliseconds){
+        StringBuilder notifyStr = new StringBuilder(subject);
         
         if (minutes > 0 || seconds > 0 || milliseconds > 0){
-            notifyStr += " delayed for ";
+            notifyStr.append(" delayed for ");
         }
         else {
-            notifyStr += " advanced for ";
+            notifyStr.append(" advanced for ");
         }
         
         if (minutes != 0){
-            notifyStr += " " + Misc.plurify(Math.abs(minutes), "minute") + " ";
+            notifyStr.append(' ').append(Misc.plurify(Math.abs(minutes), "minute")).append(' ');
         }
         
         if (seconds != 0){
-            notifyStr += " " + Misc.plurify(Math.abs(seconds), "second") + " ";
+            notifyStr.append(' ').append(Misc.plurify(Math.abs(seconds), "second")).append(' ');
         }
         
         if (milliseconds != 0 ){
-            notifyStr += " " + Misc.plurify(Math.abs(milliseconds), "millisecond") + " ";
+            notifyStr.append(' ').append(Misc.plurify(Math.abs(milliseconds), "millisecond")).append(' ');
         }
         
-        notifyStr += " from subtitle " + min + " to " + max;
-        notifyAction(notifyStr);
+        return notifyStr.toString();
+    }
+    
+    /**
+     * Moves a range of subtitles of a file forward(later) or backwards(earlier) without loading it. 
+     * The cues are read, moved and written one by one, so files of any size can be processed 
+     * with the same memory. The currently loaded subtitles are not affected.
+     * Uses the current encoding, or the one detected in the source file, which must be ASCII compatible.
+     * The formats are chosen by the file extensions, so a target of another format converts the file in the same pass.
+     * @param sourcePath The file to read
+     * @param targetPath The file to write, which may be the same as the source
+     * @param minutes minutes to advance/delay
+     * @param seconds seconds to advance/delay
+     * @param milliseconds milliseconds to advance/delay
+     * @param min subtitle where the update starts (inclusive)
+     * @param max subtitle where the update ends (inclusive)
+     * @return The amount of subtitles written or -1 if the file couldn't be shifted
+     */
+    public int shiftFile(String sourcePath, String targetPath, int minutes, int seconds, int milliseconds, 
+            int min, int max){
+        try {
+            TimeTransform shift = TimeTransform.shift(minutes, seconds, milliseconds, min, max);
+            Charset charset = isAutoDetect() ? EncodingDetector.detect(Paths.get(sourcePath)) 
+                    : Charset.forName(encoding);
+            int count = StreamingShifter.shift(Paths.get(sourcePath), Paths.get(targetPath), charset, shift);
+            
+            notifyAction(Misc.plurify(count, "subtitle") + " written to " + targetPath);
+            return count;
+        } catch (IllegalArgumentException ex) {
+            Logger.getLogger(SubtitlesManager.class.getName()).log(Level.SEVERE, null, ex);
+            severeNotifyAction(ex.getMessage());
+        } catch (NoSuchFileException ex) {
+            Logger.getLogger(SubtitlesManager.class.getName()).log(Level.SEVERE, null, ex);
+            severeNotifyAction("The selected file does not exist");
+        } catch (IOException ex) {
+            Logger.getLogger(SubtitlesManager.class.getName()).log(Level.SEVERE, null, ex);
+            severeNotifyAction("Unable to shift the file, the target was left unchanged: " + ex.getMessage());
+        }
+        
+        return -1;
     }
     
     /**
      * Updates the subs based on the target subtitle. It rearranges the target subtitle to a specific time
-     * and readjusts all previous times proportionally.
+     * and readjusts all previous times proportionally to their distance to the start of the video.
+     * The following subtitles move as much as the target, keeping the same distance among themselves.
      * Positive values move the subtitle forward(later) whereas negative values move it backwards(earlier).
      * @param minutes minutes to advance/delay
      * @param seconds seconds to advance/delay
@@ -257,86 +914,104 @@ public class SubtitlesManager {
      * @param targetSub target subtitle to adjust from towards the first subtitle
      */
     public void updateSubsProprortionally(int minutes, int seconds, int milliseconds, int targetSub){
-        int totalChange = (minutes * 60000) + (seconds * 1000) + milliseconds;
-        
-        Integer subIndex = getSubtitleIndex(targetSub);
+        long totalChange = (minutes * 60000L) + (seconds * 1000L) + milliseconds;
         
-        if (subIndex == null){ //unexisting sub, unable to update
-            severeNotifyAction("The subtitle selected for the update doesn't exist");
-            return;
-        }
-        
-        //sub index is the amount of elements - 1, which is what is neccessary for distributed update
-        long perSubChangeBackward = totalChange / subIndex;
-        
-        int change = totalChange;
-        
-        //makes the proportional adjustment for all the subtitles up to the selected subtitle
-        for (int i = subIndex - 1; i >= 1; --i){ //update all subs backwards with the proportional change
-            subtitles.get(i).updateTimes(change);
-            change -= perSubChangeBackward;
-        }
-        
-        //updates all the remaining forward subtitles so that they keep the same distance 
-        //among themselves maintaining the same subtitle sync
-        for (int i = subIndex ; i < subtitles.size(); ++i){
-            subtitles.get(i).updateTimes(totalChange);
-        }
-        
-        String notifyStr = "Subtitle " + targetSub;
-        
-        if (minutes > 0 || seconds > 0 || milliseconds > 0){
-            notifyStr += " delayed for ";
-        }
-        else {
-            notifyStr += " advanced for ";
-        }
-        
-        if (minutes != 0){
-            notifyStr += " " + Misc.plurify(Math.abs(minutes), "minute") + " ";
+        synchronized (writeLock){
+            Integer subIndex = getSubtitleIndex(targetSub);
+            
+            if (subIndex == null){ //unexisting sub, unable to update
+                severeNotifyAction("The subtitle selected for the update doesn't exist");
+                return;
+            }
+            
+            SyncMap map;
+            
+            try {
+                map = SyncMap.proportional(cues.getStart(subIndex), totalChange);
+            } catch (IllegalArgumentException ex) { //moved to the start of the video or before it
+                severeNotifyAction(ex.getMessage());
+                return;
+            }
+            
+            applySync(map);
         }
         
-        if (seconds != 0){
-            notifyStr += " " + Misc.plurify(Math.abs(seconds), "second") + " ";
+        notifyAction(() -> describeShift("Subtitle " + targetSub, minutes, seconds, milliseconds) 
+                + " and remaining subtitles adjusted proportionally");
+    }
+    
+    /**
+     * Synchronizes the subtitles with many anchors, each one a subtitle and the time it should start at.
+     * Subtitles between two anchors are stretched linearly between them, and the ones before the first anchor
+     * or after the last one move as much as that anchor, which allows fixing a drift that changes along the
+     * file, like after each commercial break
+     * @param subNumbers The anchor subtitles, in order
+     * @param correctStarts The time each anchor subtitle should start at, in milliseconds and increasing
+     * @return true if the subtitles were synchronized
+     */
+    public boolean syncSubs(int[] subNumbers, long[] correctStarts){
+        if (subNumbers.length != correctStarts.length){
+            severeNotifyAction("Each anchor subtitle needs its correct time");
+            return false;
         }
         
-        if (milliseconds != 0 ){
-            notifyStr += " " + Misc.plurify(Math.abs(milliseconds), "millisecond") + " ";
+        synchronized (writeLock){
+            long[] sources = new long[subNumbers.length];
+            
+            for (int i = 0; i < subNumbers.length; ++i){
+                Integer subIndex = getSubtitleIndex(subNumbers[i]);
+            
+                if (subIndex == null){
+                    severeNotifyAction("The anchor subtitle " + subNumbers[i] + " doesn't exist");
+                    return false;
+                }
+            
+                sources[i] = cues.getStart(subIndex);
+            }
+            
+            try {
+                applySync(new SyncMap(sources, correctStarts));
+            } catch (IllegalArgumentException ex) {
+                Logger.getLogger(SubtitlesManager.class.getName()).log(Level.SEVERE, null, ex);
+                severeNotifyAction(ex.getMessage());
+                return false;
+            }
         }
         
-        notifyAction(notifyStr + " and remaining subtitles adjusted proportionally");
+        notifyAction("Subtitles synchronized with " + Misc.plurify(subNumbers.length, "anchor"));
+        return true;
+    }
+    
+    /**
+     * Applies a time map to all the subtitles as a single undoable edit. Called with the write lock held
+     */
+    private void applySync(SyncMap map){
+        EditHistory.TimeEdit edit = map.toEdit(cues);
+        edit.apply(cues, 1);
+        history.record(edit);
+        subtitlesChanged(edit.getFromIndex(), edit.getToIndex());
     }
     
     /**
-     * Gets the subtitle referring the passed number
+     * Gets a copy of the subtitle referring the passed number. Called with the write lock held
      * @param subNumber The subtitle number
      * @return The subtitle for the given number
      */
     private Subtitle getSubtitle(int subNumber){
-        for (Subtitle sub: subtitles){
-            if (sub.number == subNumber){
-                return sub;
-            }
-        }
+        Integer index = getSubtitleIndex(subNumber);
         
-        return null;
+        return index == null ? null : cues.getSubtitle(index);
     }
     
     /**
-     * Gets the subtitle index for a given subtitle number
+     * Gets the subtitle index for a given subtitle number. Called with the write lock held
      * @param subNumber The subtitle number to get the index
      * @return The index of the given subtitle
      */
     private Integer getSubtitleIndex(int subNumber){
-        for (int i = 0; i < subtitles.size(); ++i){
-            Subtitle sub = subtitles.get(i);
-            
-            if (sub.number == subNumber){
-                return i;
-            }
-        }
+        int index = cues.indexOf(subNumber);
         
-        return null;
+        return index < 0 ? null : index;
     }
     
     /**
@@ -344,13 +1019,9 @@ public class SubtitlesManager {
      * @return The String representation of all subs in order
      */
     public String subsToText(){
-        StringBuilder sb = new StringBuilder(5000);
-        
-        for (Subtitle sub : subtitles){
-            sb.append(sub.toString());
+        synchronized (textCache){
+            return textCache.toText(published.cues);
         }
-        
-        return sb.toString();
     }
     
     /**
@@ -358,8 +1029,10 @@ public class SubtitlesManager {
      * @return The first subtitle number
      */
     public int getFirstSubNumber(){
-        if (subtitles != null){
-            return subtitles.get(0).number;
+        CueStore view = published.cues;
+        
+        if (!view.isEmpty()){
+            return view.getNumber(0);
         }
         
         return 0;
@@ -370,10 +1043,83 @@ public class SubtitlesManager {
      * @return The last subtitle number
      */
     public int getLastSubNumber(){
-        if (subtitles != null || subtitles.size() >= 1){
-            return subtitles.get(subtitles.size() - 1).number;
+        CueStore view = published.cues;
+        
+        if (!view.isEmpty()){
+            return view.getNumber(view.size() - 1);
         }
         
         return 0;
     }
+    
+    /**
+     * Gets the number of a subtitle
+     * @param index The subtitle index, from 0 to {@link #getSubtitlesCount()} - 1
+     * @return The subtitle number
+     */
+    public int getSubNumber(int index){
+        return published.cues.getNumber(index);
+    }
+    
+    /**
+     * Gets the start time of a subtitle
+     * @param index The subtitle index, from 0 to {@link #getSubtitlesCount()} - 1
+     * @return The start time in milliseconds
+     */
+    public long getSubStart(int index){
+        return published.cues.getStart(index);
+    }
+    
+    /**
+     * Gets the end time of a subtitle
+     * @param index The subtitle index, from 0 to {@link #getSubtitlesCount()} - 1
+     * @return The end time in milliseconds
+     */
+    public long getSubEnd(int index){
+        return published.cues.getEnd(index);
+    }
+    
+    /**
+     * Gets the text of a subtitle
+     * @param index The subtitle index, from 0 to {@link #getSubtitlesCount()} - 1
+     * @return The subtitle text, with its lines separated by '\n'
+     */
+    public String getSubText(int index){
+        return published.cues.getText(index);
+    }
+    
+    /**
+     * Gets the subtitles shown at a given time
+     * @param time The time in milliseconds
+     * @return The indexes of the subtitles shown at that time, ordered by start time
+     */
+    public int[] getSubsAt(long time){
+        return published.timeIndex.at(time);
+    }
+    
+    /**
+     * Gets the subtitles shown at any moment of a time window
+     * @param from Start of the window in milliseconds (inclusive)
+     * @param to End of the window in milliseconds (exclusive)
+     * @return The indexes of the subtitles shown during the window, ordered by start time
+     */
+    public int[] getSubsBetween(long from, long to){
+        return published.timeIndex.between(from, to);
+    }
+    
+    /**
+     * Gets the amount of loaded subtitles
+     * @return The amount of subtitles
+     */
+    public int getSubtitlesCount(){
+        return published.cues.size();
+    }
+    
+    /**
+     * Gets the estimated heap retained by the loaded subtitles
+     * @return The estimated retained heap in bytes
+     */
+    public long getRetainedBytes(){
+        return published.cues.retainedBytes();
+    }
 }
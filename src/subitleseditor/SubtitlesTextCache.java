@@ -0,0 +1,120 @@
+package subitleseditor;
+
+/**
+ * Keeps the SRT text of the loaded subtitles so that, after a change, only the times of the changed cues
+ * are formatted again. Numbers and texts never change once loaded, so a changed cue only needs its times line
+ * rewritten, which is done in place whenever the line keeps its length.
+ * @author isacv
+ */
+class SubtitlesTextCache {
+    private final StringBuilder text = new StringBuilder();
+    private final char[] line = new char[2 * TimeCodec.MAX_LENGTH + 5];
+    private int[] timesOffsets = new int[0]; //position of the times line of each cue
+    private int[] timesLengths = new int[0];
+    private boolean valid;
+    private int dirtyFrom = Integer.MAX_VALUE;
+    private int dirtyTo = -1;
+
+    /**
+     * Marks a range of cues as changed
+     * @param fromIndex First changed cue (inclusive)
+     * @param toIndex Last changed cue (inclusive)
+     */
+    void invalidate(int fromIndex, int toIndex){
+        dirtyFrom = Math.min(dirtyFrom, fromIndex);
+        dirtyTo = Math.max(dirtyTo, toIndex);
+    }
+
+    /**
+     * Marks all the cues as changed, which is required when cues are added or removed
+     */
+    void invalidateAll(){
+        valid = false;
+    }
+
+    /**
+     * Gets the text of all the cues, formatting again only the ones changed since the last call
+     * @param cues The cues, which must be the store of the previous calls or a later snapshot of it, unless
+     *        invalidateAll was called
+     * @return The SRT text of all the cues
+     */
+    String toText(CueStore cues){
+        if (!valid){
+            rebuild(cues);
+        }
+        else if (dirtyFrom <= dirtyTo){
+            int last = Math.min(dirtyTo, cues.size() - 1);
+
+            for (int i = dirtyFrom; i <= last; ++i){
+                if (!rewriteTimes(cues, i)){ //the line length changed, the following text moves
+                    rebuild(cues);
+                    break;
+                }
+            }
+        }
+
+        dirtyFrom = Integer.MAX_VALUE;
+        dirtyTo = -1;
+
+        return text.toString();
+    }
+
+    private void rebuild(CueStore cues){
+        int size = cues.size();
+        text.setLength(0);
+        //number and both times take around 40 chars per cue
+        text.ensureCapacity(cues.getTotalTextLength() + size * 40);
+
+        if (timesOffsets.length < size){
+            timesOffsets = new int[size];
+            timesLengths = new int[size];
+        }
+
+        for (int i = 0; i < size; ++i){
+            text.append(cues.getNumber(i)).append('\n');
+            timesOffsets[i] = text.length();
+            timesLengths[i] = formatTimes(cues, i);
+            text.append(line, 0, timesLengths[i]);
+            text.append('\n');
+            cues.appendText(i, text);
+            text.append("\n\n");
+        }
+
+        valid = true;
+    }
+
+    /**
+     * Writes the times line of a cue over the existing one
+     * @return false if the line length changed and nothing was written
+     */
+    private boolean rewriteTimes(CueStore cues, int index){
+        int length = formatTimes(cues, index);
+
+        if (length != timesLengths[index]){
+            return false;
+        }
+
+        int offset = timesOffsets[index];
+
+        for (int i = 0; i < length; ++i){
+            text.setCharAt(offset + i, line[i]);
+        }
+
+        return true;
+    }
+
+    /**
+     * Formats the times line of a cue into the line buffer
+     * @return The length of the line
+     */
+    private int formatTimes(CueStore cues, int index){
+        int length = TimeCodec.format(cues.getStart(index), line, 0);
+        line[length++] = ' ';
+        line[length++] = '-';
+        line[length++] = '-';
+        line[length++] = '>';
+        line[length++] = ' ';
+
+        return TimeCodec.format(cues.getEnd(index), line, length);
+    }
+}
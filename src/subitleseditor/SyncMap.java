@@ -0,0 +1,192 @@
+package subitleseditor;
+
+import java.util.Arrays;
+
+/**
+ * Monotone piecewise linear map of subtitle times, built from anchors: pairs of a time as it is in the file
+ * and the time it should be. Times between two anchors are stretched linearly between them, and times before
+ * the first anchor or after the last one keep the offset of that anchor, so a single anchor is a plain shift.
+ * Allows fixing drift that changes along a file, like at each commercial break, with one anchor per break.
+ * @author isacv
+ */
+public class SyncMap {
+    private final long[] sources; //anchor times in the file, increasing
+    private final long[] targets; //correct anchor times, increasing
+    private final double[] scales; //scale of each segment, segment k being before anchor k
+    private final double[] offsets;
+
+    /**
+     * Creates a map from its anchors
+     * @param sources Times of the anchors in the file, in milliseconds and strictly increasing
+     * @param targets Correct times of the anchors, in milliseconds and strictly increasing
+     * @throws IllegalArgumentException If there are no anchors or the times aren't increasing
+     */
+    public SyncMap(long[] sources, long[] targets){
+        if (sources.length == 0 || sources.length != targets.length){
+            throw new IllegalArgumentException("Each anchor needs a time in the file and a correct time");
+        }
+
+        for (int i = 1; i < sources.length; ++i){
+            if (sources[i] <= sources[i - 1] || targets[i] <= targets[i - 1]){
+                throw new IllegalArgumentException("The anchors must be in order and can't be reversed or repeated");
+            }
+        }
+
+        this.sources = sources.clone();
+        this.targets = targets.clone();
+        int segments = sources.length + 1;
+        scales = new double[segments];
+        offsets = new double[segments];
+
+        scales[0] = 1;
+        offsets[0] = targets[0] - sources[0];
+
+        for (int k = 1; k < sources.length; ++k){
+            scales[k] = (double)(targets[k] - targets[k - 1]) / (sources[k] - sources[k - 1]);
+            offsets[k] = targets[k - 1] - scales[k] * sources[k - 1];
+        }
+
+        scales[segments - 1] = 1;
+        offsets[segments - 1] = targets[segments - 2] - sources[segments - 2];
+    }
+
+    /**
+     * Creates the map that moves a subtitle and readjusts the previous ones proportionally to their distance
+     * to the start of the video, while the following ones move as much as it. A subtitle that already starts
+     * at the start of the video or before it is simply moved, along with all the others
+     * @param targetStart The current start of the subtitle, in milliseconds
+     * @param change The milliseconds the subtitle is moved, negative to move it earlier
+     * @return The map
+     * @throws IllegalArgumentException If the subtitle would be moved to the start of the video or before it
+     */
+    public static SyncMap proportional(long targetStart, long change){
+        if (targetStart <= 0){
+            return new SyncMap(new long[]{targetStart}, new long[]{targetStart + change});
+        }
+
+        if (targetStart + change <= 0){
+            throw new IllegalArgumentException("The subtitle can't be moved to the start of the video or before it");
+        }
+
+        return new SyncMap(new long[]{0, targetStart}, new long[]{0, targetStart + change});
+    }
+
+    /**
+     * Gets the amount of linear segments, one more than the anchors
+     * @return The amount of segments
+     */
+    public int getSegmentCount(){
+        return scales.length;
+    }
+
+    /**
+     * Finds the segment of a time
+     * @param time A time in the file, in milliseconds
+     * @return The segment, 0 being before the first anchor
+     */
+    public int segmentOf(long time){
+        int low = 0;
+        int high = sources.length;
+
+        while (low < high){ //first anchor after the time
+            int middle = (low + high) >>> 1;
+
+            if (sources[middle] <= time){
+                low = middle + 1;
+            }
+            else {
+                high = middle;
+            }
+        }
+
+        return low;
+    }
+
+    public double getScale(int segment){
+        return scales[segment];
+    }
+
+    public double getOffset(int segment){
+        return offsets[segment];
+    }
+
+    /**
+     * Maps a time
+     * @param time A time in the file, in milliseconds
+     * @return The correct time, in milliseconds
+     */
+    public long apply(long time){
+        int segment = segmentOf(time);
+        return Math.round(scales[segment] * time + offsets[segment]);
+    }
+
+    /**
+     * Maps many times in a single pass. The segment is only searched again when a time leaves the current one,
+     * so times in order take linear time
+     * @param times Times in the file, in milliseconds, replaced by the correct ones
+     * @param from First position (inclusive)
+     * @param to Last position (exclusive)
+     */
+    public void apply(long[] times, int from, int to){
+        int segment = -1;
+        long segmentStart = 0;
+        long segmentEnd = -1;
+
+        for (int i = from; i < to; ++i){
+            long time = times[i];
+
+            if (time < segmentStart || time >= segmentEnd){
+                segment = segmentOf(time);
+                segmentStart = segment == 0 ? Long.MIN_VALUE : sources[segment - 1];
+                segmentEnd = segment == sources.length ? Long.MAX_VALUE : sources[segment];
+            }
+
+            times[i] = Math.round(scales[segment] * time + offsets[segment]);
+        }
+    }
+
+    /**
+     * Creates the edit that applies this map to the cues. Each cue is moved by the segment of its start, so both
+     * its times follow the same line and its duration scales with it. Cues in order fall in one run of consecutive
+     * cues per segment, and each run is a single range transform of the store
+     * @param cues The cues to map
+     * @return The edit, not yet applied
+     */
+    public EditHistory.TimeEdit toEdit(CueStore cues){
+        int size = cues.size();
+        //runs of consecutive cues in the same segment
+        int[] runStarts = new int[Math.min(size, 16)];
+        int[] runSegments = new int[runStarts.length];
+        int runs = 0;
+        int previous = -1;
+
+        for (int i = 0; i < size; ++i){
+            int segment = segmentOf(cues.getStart(i));
+
+            if (segment != previous){
+                if (runs == runStarts.length){
+                    runStarts = Arrays.copyOf(runStarts, runs * 2);
+                    runSegments = Arrays.copyOf(runSegments, runs * 2);
+                }
+
+                runStarts[runs] = i;
+                runSegments[runs++] = segment;
+                previous = segment;
+            }
+        }
+
+        int[] froms = new int[runs];
+        int[] tos = new int[runs];
+        double[] runScales = new double[runs];
+        double[] runOffsets = new double[runs];
+
+        for (int r = 0; r < runs; ++r){
+            froms[r] = runStarts[r];
+            tos[r] = r + 1 < runs ? runStarts[r + 1] - 1 : size - 1;
+            runScales[r] = scales[runSegments[r]];
+            runOffsets[r] = offsets[runSegments[r]];
+        }
+
+        return new EditHistory.RangesTransform(froms, tos, runScales, runOffsets);
+    }
+}
@@ -0,0 +1,889 @@
+package subitleseditor;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Compact storage of the cue texts of a {@link CueStore}. Texts are split in lines and stored in a shared byte
+ * arena, each line as Latin-1 when all its chars fit and as UTF-8 otherwise. Cues only keep the ids of their
+ * lines, and a line that was stored recently is reused instead of stored again, so the lines that repeat a lot,
+ * like "[MUSIC]" or "- What?", take 4 bytes per use. UTF-8 and Latin-1 files are stored from their bytes
+ * without being decoded, and texts are only decoded when they are read, to be shown or written.
+ * <p>
+ * Lines and cues are only ever appended, so a {@link #snapshot()} sharing the arrays never sees later additions.
+ * @author isacv
+ */
+final class TextArena {
+    private static final int INITIAL_BYTES = 8192;
+    private static final int INITIAL_LINES = 256;
+    private static final int HEADER_INTS = 6; //counts of the stored layout, padded to 8 bytes
+    private static final int LATIN1_SEED = 0x811C9DC5; //FNV-1a, seeded apart for each encoding
+    private static final int UTF8_SEED = 0x050C5D1F;
+    private static final int HASH_PRIME = 0x01000193;
+    private static final int RECENT_LINES = 4096; //a power of 2
+    private static final int HASHED_BYTES = 16; //bytes hashed from each end of a line
+    private static final int LATIN1_LINE = 0; //kinds of the lines of encoded texts
+    private static final int LATIN1_IN_UTF8 = 1;
+    private static final int UTF8_LINE = 2;
+    private static final ThreadLocal<char[]> DECODE_BUFFER = new ThreadLocal<>(); //snapshots are read concurrently
+
+    private byte[] bytes;
+    private int byteCount;
+    private int[] lineOffsets; //line l is in bytes[lineOffsets[l], lineOffsets[l + 1])
+    private long[] utf8Lines; //bit l is set when line l is UTF-8 instead of Latin-1
+    private int lineCount;
+    private int[] cueLines; //line ids of all the cues, in cue order
+    private int cueLineCount;
+    private int[] cueOffsets; //lines of cue i are cueLines[cueOffsets[i], cueOffsets[i + 1])
+    private int cueCount;
+    private int charCount; //chars of all the texts, line breaks included
+    private int[] recentLines; //direct mapped cache of the last lines by hash, pairs of line id + 1 and hash
+    private boolean shared; //the arrays are shared with a snapshot
+    private int[] lineBounds = new int[16]; //end and kind of each line found by scan(), relative to the text
+    private int scannedLines;
+
+    TextArena(){
+        bytes = new byte[INITIAL_BYTES];
+        lineOffsets = new int[INITIAL_LINES + 1];
+        utf8Lines = new long[INITIAL_LINES / 64];
+        cueLines = new int[INITIAL_LINES];
+        cueOffsets = new int[INITIAL_LINES + 1];
+    }
+
+    private TextArena(TextArena source){
+        bytes = source.bytes;
+        byteCount = source.byteCount;
+        lineOffsets = source.lineOffsets;
+        utf8Lines = source.utf8Lines;
+        lineCount = source.lineCount;
+        cueLines = source.cueLines;
+        cueLineCount = source.cueLineCount;
+        cueOffsets = source.cueOffsets;
+        cueCount = source.cueCount;
+        charCount = source.charCount;
+        shared = true;
+        source.shared = true;
+    }
+
+    /**
+     * Creates a copy that shares everything. No texts must be added to the copy
+     * @return The copy
+     */
+    TextArena snapshot(){
+        return new TextArena(this);
+    }
+
+    /**
+     * Removes all the texts. Shared arrays are left to the snapshots and new ones are allocated
+     */
+    void clear(){
+        if (shared){
+            bytes = new byte[INITIAL_BYTES];
+            lineOffsets = new int[INITIAL_LINES + 1];
+            utf8Lines = new long[INITIAL_LINES / 64];
+            cueLines = new int[INITIAL_LINES];
+            cueOffsets = new int[INITIAL_LINES + 1];
+            shared = false;
+        }
+
+        Arrays.fill(utf8Lines, 0);
+        byteCount = 0;
+        lineCount = 0;
+        cueLineCount = 0;
+        cueCount = 0;
+        charCount = 0;
+        recentLines = null;
+    }
+
+    /**
+     * Adds the text of the next cue
+     * @param text The text, lines separated by '\n'. May be null
+     */
+    void add(CharSequence text){
+        int length = text == null ? 0 : text.length();
+        char[] chars = decodeBuffer(length);
+
+        for (int i = 0; i < length; ++i){
+            chars[i] = text.charAt(i);
+        }
+
+        add(chars, 0, length);
+    }
+
+    /**
+     * Adds the text of the next cue
+     * @param src Buffer holding the text, lines separated by '\n'
+     * @param offset Position of the text in the buffer
+     * @param length Length of the text
+     */
+    void add(char[] src, int offset, int length){
+        if (length > 0){
+            int end = offset + length;
+            int lineStart = offset;
+
+            for (int i = offset; i <= end; ++i){
+                if (i == end || src[i] == '\n'){
+                    addLine(encode(src, lineStart, i));
+                    lineStart = i + 1;
+                }
+            }
+        }
+
+        endCue(length);
+    }
+
+    /**
+     * Adds the text of the next cue from its encoded bytes, which saves decoding it first.
+     * The "\r\n" line breaks become "\n", like in {@link CueTokenizer#decodeText}
+     * @param text The encoded text, lines separated by '\n'. Its position isn't changed
+     * @param utf8 true if the text is UTF-8, false if it is ISO-8859-1 or windows-1252
+     * @return false if nothing was added because the text must be decoded by its charset, as it is malformed
+     *         UTF-8 or has windows-1252 chars that aren't in ISO-8859-1
+     */
+    boolean add(ByteBuffer text, boolean utf8){
+        //copied after the last line, then each line is moved back over the ones that were already stored
+        int length = text.remaining();
+        ensureBytes(length, 1);
+        int position = text.position();
+        text.get(bytes, byteCount, length);
+        text.position(position);
+        int copyStart = byteCount;
+        int chars = scan(copyStart, copyStart + length, utf8);
+
+        if (chars < 0){
+            return false;
+        }
+
+        int lineStart = 0;
+
+        for (int l = 0; l < scannedLines; ++l){
+            int from = copyStart + lineStart;
+            int to = copyStart + lineBounds[2 * l];
+            int kind = lineBounds[2 * l + 1];
+
+            if (kind == LATIN1_IN_UTF8){
+                addLine(transcodeUtf8(from, to));
+            }
+            else {
+                System.arraycopy(bytes, from, bytes, byteCount, to - from);
+                addLine(kind == UTF8_LINE ? -(byteCount + to - from) : byteCount + to - from);
+            }
+
+            lineStart = lineBounds[2 * l] + 1;
+
+            if (lineStart < length && bytes[copyStart + lineStart - 1] == '\r'){ //the '\r' of a "\r\n"
+                ++lineStart;
+            }
+        }
+
+        endCue(chars);
+        return true;
+    }
+
+    private void endCue(int chars){
+        if (cueCount + 1 == cueOffsets.length){
+            cueOffsets = Arrays.copyOf(cueOffsets, cueOffsets.length * 2);
+        }
+
+        cueOffsets[++cueCount] = cueLineCount;
+        charCount += chars;
+    }
+
+    /**
+     * Encodes a line after the last stored one, as Latin-1 if all its chars fit and as UTF-8 otherwise
+     * @return The position after the encoded line, negated if it is UTF-8
+     */
+    private int encode(char[] src, int from, int to){
+        ensureBytes(to - from, 3);
+        int end = byteCount;
+
+        for (int i = from; i < to; ++i){
+            char c = src[i];
+
+            if (c > 0xFF){
+                return -encodeUtf8(src, from, to, byteCount);
+            }
+
+            bytes[end++] = (byte)c;
+        }
+
+        return end;
+    }
+
+    /**
+     * Converts a line of UTF-8 whose chars all fit in Latin-1 to Latin-1, storing it after the last stored line
+     * @return The position after the converted line
+     */
+    private int transcodeUtf8(int from, int to){
+        int end = byteCount;
+
+        for (int i = from; i < to; ++i){
+            int b = bytes[i] & 0xFF;
+            bytes[end++] = (byte)(b < 0x80 ? b : (b & 0x03) << 6 | bytes[++i] & 0x3F);
+        }
+
+        return end;
+    }
+
+    private void ensureBytes(int length, int bytesPerChar){
+        int needed = byteCount + length * bytesPerChar;
+
+        if (needed > bytes.length){
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, needed));
+        }
+    }
+
+    /**
+     * Adds the line encoded after the last stored one to the current cue, storing it unless it was stored recently
+     * @param encodedEnd Position after the encoded line, negated if it is UTF-8
+     */
+    private void addLine(int encodedEnd){
+        int line = storeLine(encodedEnd);
+
+        if (cueLineCount == cueLines.length){
+            cueLines = Arrays.copyOf(cueLines, cueLines.length * 2);
+        }
+
+        cueLines[cueLineCount++] = line;
+    }
+
+    /**
+     * Stores the line encoded after the last stored one, unless it was stored recently
+     * @param encodedEnd Position after the encoded line, negated if it is UTF-8
+     * @return The id of the line
+     */
+    private int storeLine(int encodedEnd){
+        boolean utf8 = encodedEnd < 0;
+        int end = utf8 ? -encodedEnd : encodedEnd;
+        int hash = hash(byteCount, end, utf8 ? UTF8_SEED : LATIN1_SEED);
+
+        if (recentLines == null){
+            recentLines = new int[2 * RECENT_LINES];
+        }
+
+        int slot = 2 * (hash & (RECENT_LINES - 1));
+        int line = recentLines[slot] - 1;
+
+        if (line < 0 || recentLines[slot + 1] != hash || isUtf8(line) != utf8 || !equalsLine(line, byteCount, end)){
+            if (lineCount + 1 == lineOffsets.length){
+                lineOffsets = Arrays.copyOf(lineOffsets, lineOffsets.length * 2);
+                utf8Lines = Arrays.copyOf(utf8Lines, (lineOffsets.length + 63) / 64);
+            }
+
+            if (utf8){
+                utf8Lines[lineCount >>> 6] |= 1L << lineCount;
+            }
+
+            line = lineCount++;
+            lineOffsets[lineCount] = end;
+            byteCount = end;
+            recentLines[slot] = line + 1;
+            recentLines[slot + 1] = hash;
+        }
+
+        return line;
+    }
+
+    /**
+     * Replaces the texts of a range of cues by all the texts of another arena. The new lines are stored after
+     * the existing ones, and the lines only used by the replaced cues are kept until the texts are loaded again.
+     * The cue arrays are always copied, so snapshots are not affected
+     * @param fromCue First cue to replace (inclusive)
+     * @param toCue Last cue to replace (exclusive)
+     * @param replacement The new texts
+     */
+    void replace(int fromCue, int toCue, TextArena replacement){
+        int[] lineIds = new int[replacement.lineCount];
+
+        for (int line = 0; line < replacement.lineCount; ++line){
+            int start = replacement.lineOffsets[line];
+            int length = replacement.lineOffsets[line + 1] - start;
+            ensureBytes(length, 1);
+            System.arraycopy(replacement.bytes, start, bytes, byteCount, length);
+            lineIds[line] = storeLine(replacement.isUtf8(line) ? -(byteCount + length) : byteCount + length);
+        }
+
+        int removedChars = 0;
+
+        for (int cue = fromCue; cue < toCue; ++cue){
+            removedChars += getTextLength(cue);
+        }
+
+        int prefixLines = cueOffsets[fromCue];
+        int suffixLines = cueLineCount - cueOffsets[toCue];
+        int[] newCueLines = new int[Math.max(prefixLines + replacement.cueLineCount + suffixLines, 1)];
+        System.arraycopy(cueLines, 0, newCueLines, 0, prefixLines);
+
+        for (int i = 0; i < replacement.cueLineCount; ++i){
+            newCueLines[prefixLines + i] = lineIds[replacement.cueLines[i]];
+        }
+
+        System.arraycopy(cueLines, cueOffsets[toCue], newCueLines, prefixLines + replacement.cueLineCount,
+                suffixLines);
+
+        int newCueCount = cueCount - (toCue - fromCue) + replacement.cueCount;
+        int[] newCueOffsets = new int[newCueCount + 1];
+        System.arraycopy(cueOffsets, 0, newCueOffsets, 0, fromCue + 1);
+
+        for (int cue = 1; cue <= replacement.cueCount; ++cue){
+            newCueOffsets[fromCue + cue] = prefixLines + replacement.cueOffsets[cue];
+        }
+
+        int movedLines = replacement.cueLineCount - (cueOffsets[toCue] - prefixLines);
+
+        for (int cue = toCue + 1; cue <= cueCount; ++cue){
+            newCueOffsets[cue - toCue + fromCue + replacement.cueCount] = cueOffsets[cue] + movedLines;
+        }
+
+        cueLines = newCueLines;
+        cueLineCount = prefixLines + replacement.cueLineCount + suffixLines;
+        cueOffsets = newCueOffsets;
+        cueCount = newCueCount;
+        charCount += replacement.charCount - removedChars;
+    }
+
+    /**
+     * Hashes the length and the first and last bytes of a line, which tell lines apart well enough
+     */
+    private int hash(int from, int to, int seed){
+        int hash = (seed ^ (to - from)) * HASH_PRIME;
+        int head = Math.min(to, from + HASHED_BYTES);
+
+        for (int i = from; i < head; ++i){
+            hash = (hash ^ bytes[i]) * HASH_PRIME;
+        }
+
+        for (int i = Math.max(head, to - HASHED_BYTES); i < to; ++i){
+            hash = (hash ^ bytes[i]) * HASH_PRIME;
+        }
+
+        return hash ^ (hash >>> 16);
+    }
+
+    private boolean equalsLine(int line, int from, int to){
+        int start = lineOffsets[line];
+
+        if (lineOffsets[line + 1] - start != to - from){
+            return false;
+        }
+
+        for (int i = 0; i < to - from; ++i){
+            if (bytes[start + i] != bytes[from + i]){
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private boolean isUtf8(int line){
+        return (utf8Lines[line >>> 6] & (1L << line)) != 0;
+    }
+
+    /**
+     * Finds the lines of an encoded text copied after the last stored line, leaving their ends and kinds
+     * in {@link #lineBounds}, and checks that the charset decoder would decode it as it is: well formed UTF-8,
+     * without overlong forms, surrogates nor code points past U+10FFFF, or bytes that decode the same
+     * in ISO-8859-1 and windows-1252
+     * @return The amount of chars of the text, without the '\r' of the "\r\n" line breaks,
+     *         or -1 if it must be decoded by its charset
+     */
+    private int scan(int from, int to, boolean utf8){
+        int chars = 0;
+        int kind = LATIN1_LINE;
+        scannedLines = 0;
+
+        for (int i = from; i < to; ){
+            int asciiStart = i;
+
+            while (i < to && bytes[i] >= 0 && bytes[i] != '\n'){ //ASCII without line breaks
+                ++i;
+            }
+
+            chars += i - asciiStart;
+
+            if (i == to){
+                break;
+            }
+
+            int b = bytes[i] & 0xFF;
+
+            if (b == '\n'){
+                boolean crlf = i > from && bytes[i - 1] == '\r';
+                chars += crlf ? 0 : 1; //the '\r' already counted stands for the '\n'
+                endLine(i - from - (crlf ? 1 : 0), kind);
+                kind = LATIN1_LINE;
+                ++i;
+                continue;
+            }
+
+            if (!utf8){
+                if (b >= 0x80 && b < 0xA0){ //windows-1252 differs from ISO-8859-1 there
+                    return -1;
+                }
+
+                ++chars;
+                ++i;
+                continue;
+            }
+
+            int continuations;
+            int min = 0x80; //range of the second byte
+            int max = 0xBF;
+
+            if (b >= 0xC2 && b <= 0xDF){
+                continuations = 1;
+            }
+            else if (b >= 0xE0 && b <= 0xEF){
+                continuations = 2;
+                min = b == 0xE0 ? 0xA0 : 0x80;
+                max = b == 0xED ? 0x9F : 0xBF;
+            }
+            else if (b >= 0xF0 && b <= 0xF4){
+                continuations = 3;
+                min = b == 0xF0 ? 0x90 : 0x80;
+                max = b == 0xF4 ? 0x8F : 0xBF;
+            }
+            else {
+                return -1;
+            }
+
+            if (i + continuations >= to){
+                return -1;
+            }
+
+            int second = bytes[i + 1] & 0xFF;
+
+            if (second < min || second > max){
+                return -1;
+            }
+
+            for (int c = 2; c <= continuations; ++c){
+                if ((bytes[i + c] & 0xC0) != 0x80){
+                    return -1;
+                }
+            }
+
+            kind = b <= 0xC3 && kind != UTF8_LINE ? LATIN1_IN_UTF8 : UTF8_LINE;
+            chars += continuations == 3 ? 2 : 1; //surrogate pair
+            i += continuations + 1;
+        }
+
+        if (to > from){
+            endLine(to - from, kind);
+        }
+
+        return chars;
+    }
+
+    /**
+     * Checks that bytes decode the same in ISO-8859-1 and windows-1252, which differ in 0x80 to 0x9F
+     */
+    private static boolean isSameInWindows1252(byte[] src, int from, int to){
+        for (int i = from; i < to; ++i){
+            if (src[i] >= (byte)0x80 && src[i] < (byte)0xA0){
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private void endLine(int end, int kind){
+        if (2 * scannedLines + 2 > lineBounds.length){
+            lineBounds = Arrays.copyOf(lineBounds, lineBounds.length * 2);
+        }
+
+        lineBounds[2 * scannedLines] = end;
+        lineBounds[2 * scannedLines + 1] = kind;
+        ++scannedLines;
+    }
+
+    /**
+     * Encodes chars as UTF-8, replacing unpaired surrogates by '?' like the charset encoders do
+     */
+    private int encodeUtf8(char[] src, int from, int to, int pos){
+        for (int i = from; i < to; ++i){
+            char c = src[i];
+
+            if (c < 0x80){
+                bytes[pos++] = (byte)c;
+            }
+            else if (c < 0x800){
+                bytes[pos++] = (byte)(0xC0 | c >> 6);
+                bytes[pos++] = (byte)(0x80 | c & 0x3F);
+            }
+            else if (Character.isHighSurrogate(c) && i + 1 < to && Character.isLowSurrogate(src[i + 1])){
+                int codePoint = Character.toCodePoint(c, src[++i]);
+                bytes[pos++] = (byte)(0xF0 | codePoint >> 18);
+                bytes[pos++] = (byte)(0x80 | codePoint >> 12 & 0x3F);
+                bytes[pos++] = (byte)(0x80 | codePoint >> 6 & 0x3F);
+                bytes[pos++] = (byte)(0x80 | codePoint & 0x3F);
+            }
+            else if (Character.isSurrogate(c)){
+                bytes[pos++] = '?';
+            }
+            else {
+                bytes[pos++] = (byte)(0xE0 | c >> 12);
+                bytes[pos++] = (byte)(0x80 | c >> 6 & 0x3F);
+                bytes[pos++] = (byte)(0x80 | c & 0x3F);
+            }
+        }
+
+        return pos;
+    }
+
+    /**
+     * Decodes a line into a char sink, which must have room for as many chars as the line has bytes
+     * @return The position after the line
+     */
+    private int decodeLine(int line, char[] dst, int pos){
+        int from = lineOffsets[line];
+        int to = lineOffsets[line + 1];
+
+        if (!isUtf8(line)){
+            for (int i = from; i < to; ++i){
+                dst[pos++] = (char)(bytes[i] & 0xFF);
+            }
+
+            return pos;
+        }
+
+        for (int i = from; i < to; ){
+            int b = bytes[i] & 0xFF;
+
+            if (b < 0x80){
+                dst[pos++] = (char)b;
+                i += 1;
+            }
+            else if (b < 0xE0){
+                dst[pos++] = (char)((b & 0x1F) << 6 | bytes[i + 1] & 0x3F);
+                i += 2;
+            }
+            else if (b < 0xF0){
+                dst[pos++] = (char)((b & 0x0F) << 12 | (bytes[i + 1] & 0x3F) << 6 | bytes[i + 2] & 0x3F);
+                i += 3;
+            }
+            else {
+                int codePoint = (b & 0x07) << 18 | (bytes[i + 1] & 0x3F) << 12 | (bytes[i + 2] & 0x3F) << 6
+                        | bytes[i + 3] & 0x3F;
+                dst[pos++] = Character.highSurrogate(codePoint);
+                dst[pos++] = Character.lowSurrogate(codePoint);
+                i += 4;
+            }
+        }
+
+        return pos;
+    }
+
+    /**
+     * Gets the most chars the text of a cue may decode to, which are its bytes plus its line breaks
+     */
+    private int maxChars(int cue){
+        int max = 0;
+
+        for (int i = cueOffsets[cue]; i < cueOffsets[cue + 1]; ++i){
+            max += lineOffsets[cueLines[i] + 1] - lineOffsets[cueLines[i]] + 1;
+        }
+
+        return max;
+    }
+
+    /**
+     * Decodes the text of a cue into a char sink
+     * @return The position after the text
+     */
+    private int decode(int cue, char[] dst, int pos){
+        for (int i = cueOffsets[cue]; i < cueOffsets[cue + 1]; ++i){
+            if (i > cueOffsets[cue]){
+                dst[pos++] = '\n';
+            }
+
+            pos = decodeLine(cueLines[i], dst, pos);
+        }
+
+        return pos;
+    }
+
+    /**
+     * Gets the decode buffer of the current thread, with room for some amount of chars
+     */
+    private static char[] decodeBuffer(int length){
+        char[] buffer = DECODE_BUFFER.get();
+
+        if (buffer == null || buffer.length < length){
+            buffer = new char[Math.max(length, buffer == null ? 256 : buffer.length * 2)];
+            DECODE_BUFFER.set(buffer);
+        }
+
+        return buffer;
+    }
+
+    /**
+     * Gets the text of a cue. A new String is created on each call
+     */
+    String getText(int cue){
+        char[] buffer = decodeBuffer(maxChars(cue));
+        return new String(buffer, 0, decode(cue, buffer, 0));
+    }
+
+    /**
+     * Decodes the text of a cue into a reusable buffer
+     * @param out Buffer to decode to, or null. A bigger one is allocated if it doesn't fit
+     * @return The buffer with the text between its position and limit
+     */
+    CharBuffer getText(int cue, CharBuffer out){
+        int max = maxChars(cue);
+
+        if (out == null || !out.hasArray() || out.capacity() < max){
+            out = CharBuffer.allocate(Math.max(max, out == null ? 64 : out.capacity() * 2));
+        }
+
+        out.clear();
+        out.limit(decode(cue, out.array(), 0));
+        return out;
+    }
+
+    /**
+     * Gets the text of a cue encoded in a charset without decoding it, which is possible for most texts
+     * in the charsets of {@link #isEncodedCharset(Charset)}
+     * @param utf8 true to encode it in UTF-8, false in ISO-8859-1 or windows-1252
+     * @param out Buffer to encode to, or null. A bigger one is allocated if it doesn't fit
+     * @return The buffer with the text between its position and limit, or null if it must be encoded by the
+     *         charset encoder, as it has chars out of Latin-1 or in U+0080 to U+009F, which windows-1252 maps apart
+     */
+    ByteBuffer getEncodedText(int cue, boolean utf8, ByteBuffer out){
+        int max = 0;
+
+        for (int i = cueOffsets[cue]; i < cueOffsets[cue + 1]; ++i){
+            max += (lineOffsets[cueLines[i] + 1] - lineOffsets[cueLines[i]]) * (utf8 ? 2 : 1) + 1;
+        }
+
+        if (out == null || !out.hasArray() || out.capacity() < max){
+            out = ByteBuffer.allocate(Math.max(max, out == null ? 64 : out.capacity() * 2));
+        }
+
+        byte[] dst = out.array();
+        int pos = 0;
+
+        for (int i = cueOffsets[cue]; i < cueOffsets[cue + 1]; ++i){
+            int line = cueLines[i];
+            int from = lineOffsets[line];
+            int to = lineOffsets[line + 1];
+
+            if (i > cueOffsets[cue]){
+                dst[pos++] = '\n';
+            }
+
+            if (isUtf8(line) != utf8){
+                if (!utf8){
+                    return null;
+                }
+
+                for (int b = from; b < to; ++b){ //Latin-1 to UTF-8
+                    int value = bytes[b] & 0xFF;
+
+                    if (value < 0x80){
+                        dst[pos++] = (byte)value;
+                    }
+                    else {
+                        dst[pos++] = (byte)(0xC0 | value >> 6);
+                        dst[pos++] = (byte)(0x80 | value & 0x3F);
+                    }
+                }
+
+                continue;
+            }
+
+            if (!utf8 && !isSameInWindows1252(bytes, from, to)){
+                return null;
+            }
+
+            System.arraycopy(bytes, from, dst, pos, to - from);
+            pos += to - from;
+        }
+
+        out.clear();
+        out.limit(pos);
+        return out;
+    }
+
+    /**
+     * Checks if texts in a charset can be added and read as bytes, without decoding nor encoding them
+     * @param charset The charset
+     * @return true for UTF-8, ISO-8859-1 and windows-1252
+     */
+    static boolean isEncodedCharset(Charset charset){
+        return charset.equals(StandardCharsets.UTF_8) || charset.equals(StandardCharsets.ISO_8859_1)
+                || charset.name().equals("windows-1252");
+    }
+
+    /**
+     * Appends the text of a cue to a StringBuilder
+     */
+    void append(int cue, StringBuilder sb){
+        char[] buffer = decodeBuffer(maxChars(cue));
+        sb.append(buffer, 0, decode(cue, buffer, 0));
+    }
+
+    /**
+     * Gets the length of the text of a cue without decoding it
+     */
+    int getTextLength(int cue){
+        int length = Math.max(0, cueOffsets[cue + 1] - cueOffsets[cue] - 1); //line breaks
+
+        for (int i = cueOffsets[cue]; i < cueOffsets[cue + 1]; ++i){
+            length += charsOf(cueLines[i]);
+        }
+
+        return length;
+    }
+
+    /**
+     * Gets the length of a line without decoding it
+     */
+    private int charsOf(int line){
+        if (!isUtf8(line)){
+            return lineOffsets[line + 1] - lineOffsets[line];
+        }
+
+        int length = 0;
+
+        for (int b = lineOffsets[line]; b < lineOffsets[line + 1]; ++b){
+            int value = bytes[b] & 0xFF;
+            //every lead byte is a char, and the 4 byte ones are a surrogate pair
+            length += (value & 0xC0) == 0x80 ? 0 : value >= 0xF0 ? 2 : 1;
+        }
+
+        return length;
+    }
+
+    int getTotalChars(){
+        return charCount;
+    }
+
+    int getLineCount(){
+        return lineCount;
+    }
+
+    int getCueLineCount(){
+        return cueLineCount;
+    }
+
+    /**
+     * Releases all the capacity that isn't being used, including the cache of recent lines
+     */
+    void trimToSize(){
+        bytes = Arrays.copyOf(bytes, Math.max(byteCount, 1));
+        lineOffsets = Arrays.copyOf(lineOffsets, lineCount + 1);
+        utf8Lines = Arrays.copyOf(utf8Lines, (lineCount + 64) / 64);
+        cueLines = Arrays.copyOf(cueLines, Math.max(cueLineCount, 1));
+        cueOffsets = Arrays.copyOf(cueOffsets, cueCount + 1);
+        recentLines = null;
+        shared = false;
+    }
+
+    /**
+     * Gets an estimate of the heap retained by the texts, arrays headers included
+     * @return The estimated retained heap in bytes
+     */
+    long retainedBytes(){
+        final int arrayHeader = 16;
+
+        return 5L * arrayHeader
+                + bytes.length
+                + 4L * lineOffsets.length
+                + 8L * utf8Lines.length
+                + 4L * cueLines.length
+                + 4L * cueOffsets.length
+                + (recentLines == null ? 0 : arrayHeader + 4L * recentLines.length);
+    }
+
+    /**
+     * Gets the size of the texts once written by {@link #writeTo(ByteBuffer)}
+     * @return The size in bytes, a multiple of 8
+     */
+    long storedBytes(){
+        return 4L * HEADER_INTS + 8L * ((lineCount + 64) / 64) + 4L * (lineCount + 1) + 4L * (cueCount + 1)
+                + 4L * cueLineCount + (byteCount + 7) / 8 * 8;
+    }
+
+    /**
+     * Writes the texts to a buffer in a layout that can be bulk read back: the counts, the UTF-8 line flags,
+     * the line offsets, the cue offsets, the cue lines and the bytes. The buffer order is kept
+     * @param dst Buffer to write to, at its position and with {@link #storedBytes()} remaining
+     */
+    void writeTo(ByteBuffer dst){
+        int start = dst.position();
+        dst.putInt(lineCount).putInt(cueCount).putInt(cueLineCount).putInt(byteCount).putInt(charCount).putInt(0);
+        int utf8Words = (lineCount + 64) / 64;
+        dst.asLongBuffer().put(utf8Lines, 0, utf8Words);
+        dst.position(dst.position() + 8 * utf8Words);
+        dst.asIntBuffer().put(lineOffsets, 0, lineCount + 1);
+        dst.position(dst.position() + 4 * (lineCount + 1));
+        dst.asIntBuffer().put(cueOffsets, 0, cueCount + 1);
+        dst.position(dst.position() + 4 * (cueCount + 1));
+        dst.asIntBuffer().put(cueLines, 0, cueLineCount);
+        dst.position(dst.position() + 4 * cueLineCount);
+        dst.put(bytes, 0, byteCount);
+        dst.position(start + (int)storedBytes());
+    }
+
+    /**
+     * Reads texts written by {@link #writeTo(ByteBuffer)}
+     * @param src Buffer to read from, at its position
+     * @param cues Amount of cues the texts must have
+     * @return The texts or null if the buffer doesn't hold them
+     */
+    static TextArena readFrom(ByteBuffer src, int cues){
+        if (src.remaining() < 4 * HEADER_INTS){
+            return null;
+        }
+
+        TextArena arena = new TextArena(0, 0);
+        arena.lineCount = src.getInt();
+        arena.cueCount = src.getInt();
+        arena.cueLineCount = src.getInt();
+        arena.byteCount = src.getInt();
+        arena.charCount = src.getInt();
+        src.getInt();
+
+        if (arena.cueCount != cues || arena.lineCount < 0 || arena.cueLineCount < 0 || arena.byteCount < 0
+                || src.remaining() < arena.storedBytes() - 4 * HEADER_INTS){
+            return null;
+        }
+
+        arena.utf8Lines = new long[(arena.lineCount + 64) / 64];
+        arena.lineOffsets = new int[arena.lineCount + 1];
+        arena.cueOffsets = new int[arena.cueCount + 1];
+        arena.cueLines = new int[Math.max(arena.cueLineCount, 1)];
+        arena.bytes = new byte[Math.max(arena.byteCount, 1)];
+
+        src.asLongBuffer().get(arena.utf8Lines);
+        src.position(src.position() + 8 * arena.utf8Lines.length);
+        src.asIntBuffer().get(arena.lineOffsets);
+        src.position(src.position() + 4 * arena.lineOffsets.length);
+        src.asIntBuffer().get(arena.cueOffsets);
+        src.position(src.position() + 4 * arena.cueOffsets.length);
+        src.asIntBuffer().get(arena.cueLines, 0, arena.cueLineCount);
+        src.position(src.position() + 4 * arena.cueLineCount);
+        src.get(arena.bytes, 0, arena.byteCount);
+        src.position(src.position() + (arena.byteCount + 7) / 8 * 8 - arena.byteCount);
+
+        return arena;
+    }
+
+    /**
+     * Creates an empty arena whose arrays are set by {@link #readFrom(ByteBuffer, int)}
+     */
+    private TextArena(int lines, int cues){
+        bytes = new byte[1];
+        lineOffsets = new int[lines + 1];
+        utf8Lines = new long[1];
+        cueLines = new int[1];
+        cueOffsets = new int[cues + 1];
+    }
+}
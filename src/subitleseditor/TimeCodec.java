@@ -0,0 +1,378 @@
+package subitleseditor;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Parses and formats subtitle times in the format hh:mm:ss,uuu without creating any garbage.
+ * Times are written to reusable char or byte sinks, and parsed from any CharSequence or byte range.
+ * Hours take as many digits as needed (at least 2), and negative times are prefixed by a '-'.
+ * Both ',' and '.' are accepted as the milliseconds separator when parsing.
+ * @author isacv
+ */
+public final class TimeCodec {
+    /**
+     * Maximum length of a formatted time: sign, 19 digits of hours and ":mm:ss,uuu"
+     */
+    public static final int MAX_LENGTH = 1 + 19 + 10;
+
+    private static final long[] MULTIPLIERS = {3600000, 60000, 1000, 1}; //hours, minutes, seconds, millis
+
+    private TimeCodec(){
+    }
+
+    /**
+     * Gets the length of a time once formatted
+     * @param time The time in milliseconds
+     * @return The amount of chars of the formatted time
+     */
+    public static int length(long time){
+        long hours = Math.abs(time) / 3600000;
+        return (time < 0 ? 1 : 0) + hourDigits(hours) + 10;
+    }
+
+    /**
+     * Formats a time to a char sink
+     * @param time The time in milliseconds
+     * @param dst The sink, which must have room for {@link #length(long)} chars
+     * @param offset Position in the sink to write to
+     * @return The position after the written time
+     */
+    public static int format(long time, char[] dst, int offset){
+        if (time < 0){
+            dst[offset++] = '-';
+            time = -time;
+        }
+
+        long hours = time / 3600000;
+        int hoursEnd = offset + hourDigits(hours);
+
+        for (int i = hoursEnd - 1; i >= offset; --i){
+            dst[i] = (char)('0' + hours % 10);
+            hours /= 10;
+        }
+
+        offset = hoursEnd;
+        dst[offset++] = ':';
+        offset = twoDigits((int)(time / 60000 % 60), dst, offset);
+        dst[offset++] = ':';
+        offset = twoDigits((int)(time / 1000 % 60), dst, offset);
+        dst[offset++] = ',';
+
+        int millis = (int)(time % 1000);
+        dst[offset++] = (char)('0' + millis / 100);
+        dst[offset++] = (char)('0' + millis / 10 % 10);
+        dst[offset++] = (char)('0' + millis % 10);
+
+        return offset;
+    }
+
+    /**
+     * Formats a time to a byte sink, as ASCII
+     * @param time The time in milliseconds
+     * @param dst The sink, which must have room for {@link #length(long)} bytes
+     * @param offset Position in the sink to write to
+     * @return The position after the written time
+     */
+    public static int format(long time, byte[] dst, int offset){
+        if (time < 0){
+            dst[offset++] = '-';
+            time = -time;
+        }
+
+        long hours = time / 3600000;
+        int hoursEnd = offset + hourDigits(hours);
+
+        for (int i = hoursEnd - 1; i >= offset; --i){
+            dst[i] = (byte)('0' + hours % 10);
+            hours /= 10;
+        }
+
+        offset = hoursEnd;
+        dst[offset++] = ':';
+        offset = twoDigits((int)(time / 60000 % 60), dst, offset);
+        dst[offset++] = ':';
+        offset = twoDigits((int)(time / 1000 % 60), dst, offset);
+        dst[offset++] = ',';
+
+        int millis = (int)(time % 1000);
+        dst[offset++] = (byte)('0' + millis / 100);
+        dst[offset++] = (byte)('0' + millis / 10 % 10);
+        dst[offset++] = (byte)('0' + millis % 10);
+
+        return offset;
+    }
+
+    /**
+     * Formats a time to a char sink in the style of other subtitle formats, like h:mm:ss.cc or hh:mm:ss.uuu.
+     * Times are rounded to the precision of the fraction, and negative ones are prefixed by a '-'
+     * @param time The time in milliseconds
+     * @param dst The sink, which must have room for {@link #MAX_LENGTH} chars
+     * @param offset Position in the sink to write to
+     * @param minHourDigits Minimum amount of hour digits, 1 or 2
+     * @param separator Separator between the seconds and their fraction
+     * @param fractionDigits Digits of the fraction of second, from 1 to 3
+     * @return The position after the written time
+     */
+    public static int format(long time, char[] dst, int offset, int minHourDigits, char separator, 
+            int fractionDigits){
+        if (time < 0){
+            dst[offset++] = '-';
+            time = -time;
+        }
+
+        int unit = fractionDigits == 1 ? 100 : fractionDigits == 2 ? 10 : 1;
+        time = (time + unit / 2) / unit * unit;
+        long hours = time / 3600000;
+        int hoursEnd = offset + (hours < 10 ? minHourDigits : hourDigits(hours));
+
+        for (int i = hoursEnd - 1; i >= offset; --i){
+            dst[i] = (char)('0' + hours % 10);
+            hours /= 10;
+        }
+
+        offset = hoursEnd;
+        dst[offset++] = ':';
+        offset = twoDigits((int)(time / 60000 % 60), dst, offset);
+        dst[offset++] = ':';
+        offset = twoDigits((int)(time / 1000 % 60), dst, offset);
+        dst[offset++] = separator;
+
+        for (int digit = 0, fraction = (int)(time % 1000); digit < fractionDigits; ++digit){
+            dst[offset++] = (char)('0' + fraction / 100);
+            fraction = fraction % 100 * 10;
+        }
+
+        return offset;
+    }
+
+    /**
+     * Appends a formatted time to a StringBuilder, without any intermediate String
+     * @param time The time in milliseconds
+     * @param sb The StringBuilder to append to
+     */
+    public static void append(long time, StringBuilder sb){
+        int offset = sb.length();
+        sb.setLength(offset + length(time));
+
+        if (time < 0){
+            sb.setCharAt(offset++, '-');
+            time = -time;
+        }
+
+        long hours = time / 3600000;
+        int hoursEnd = offset + hourDigits(hours);
+
+        for (int i = hoursEnd - 1; i >= offset; --i){
+            sb.setCharAt(i, (char)('0' + hours % 10));
+            hours /= 10;
+        }
+
+        offset = hoursEnd;
+        int minutes = (int)(time / 60000 % 60);
+        int seconds = (int)(time / 1000 % 60);
+        int millis = (int)(time % 1000);
+
+        sb.setCharAt(offset, ':');
+        sb.setCharAt(offset + 1, (char)('0' + minutes / 10));
+        sb.setCharAt(offset + 2, (char)('0' + minutes % 10));
+        sb.setCharAt(offset + 3, ':');
+        sb.setCharAt(offset + 4, (char)('0' + seconds / 10));
+        sb.setCharAt(offset + 5, (char)('0' + seconds % 10));
+        sb.setCharAt(offset + 6, ',');
+        sb.setCharAt(offset + 7, (char)('0' + millis / 100));
+        sb.setCharAt(offset + 8, (char)('0' + millis / 10 % 10));
+        sb.setCharAt(offset + 9, (char)('0' + millis % 10));
+    }
+
+    /**
+     * Formats a time to a new String
+     * @param time The time in milliseconds
+     * @return The time formatted as hh:mm:ss,uuu
+     */
+    public static String format(long time){
+        char[] chars = new char[length(time)];
+        format(time, chars, 0);
+
+        return new String(chars);
+    }
+
+    /**
+     * Parses a time in the format hh:mm:ss,uuu, optionally preceded by a '-'
+     * @param text Text holding the time
+     * @param from Position where the time starts (inclusive)
+     * @param to Position where the time ends (exclusive)
+     * @return The time in milliseconds
+     * @throws NumberFormatException If the range isn't a valid time
+     */
+    public static long parse(CharSequence text, int from, int to){
+        int pos = from;
+        boolean negative = pos < to && text.charAt(pos) == '-';
+
+        if (negative){
+            ++pos;
+        }
+
+        long time = 0;
+
+        for (int field = 0; field < MULTIPLIERS.length; ++field){
+            long value = 0;
+            int digitsStart = pos;
+
+            while (pos < to){
+                int digit = text.charAt(pos) - '0';
+
+                if (digit < 0 || digit > 9){
+                    break;
+                }
+
+                value = value * 10 + digit;
+                ++pos;
+            }
+
+            if (pos == digitsStart){
+                throw invalidTime(text, from, to);
+            }
+
+            time += value * MULTIPLIERS[field];
+
+            if (field < MULTIPLIERS.length - 1){
+                if (pos >= to || !isSeparator(field, text.charAt(pos))){
+                    throw invalidTime(text, from, to);
+                }
+
+                ++pos;
+            }
+        }
+
+        if (pos != to){
+            throw invalidTime(text, from, to);
+        }
+
+        return negative ? -time : time;
+    }
+
+    /**
+     * Parses a time in the format hh:mm:ss,uuu
+     * @param text Text holding only the time
+     * @return The time in milliseconds
+     * @throws NumberFormatException If the text isn't a valid time
+     */
+    public static long parse(CharSequence text){
+        return parse(text, 0, text.length());
+    }
+
+    /**
+     * Parses an ASCII time in the format hh:mm:ss,uuu, optionally preceded by a '-'
+     * @param buffer Buffer holding the time, read with absolute positions
+     * @param from Position where the time starts (inclusive)
+     * @param to Position where the time ends (exclusive)
+     * @return The time in milliseconds
+     * @throws NumberFormatException If the range isn't a valid time
+     */
+    public static long parse(ByteBuffer buffer, int from, int to){
+        int pos = from;
+        boolean negative = pos < to && buffer.get(pos) == '-';
+
+        if (negative){
+            ++pos;
+        }
+
+        long time = 0;
+
+        for (int field = 0; field < MULTIPLIERS.length; ++field){
+            long value = 0;
+            int digitsStart = pos;
+
+            while (pos < to){
+                int digit = buffer.get(pos) - '0';
+
+                if (digit < 0 || digit > 9){
+                    break;
+                }
+
+                value = value * 10 + digit;
+                ++pos;
+            }
+
+            if (pos == digitsStart){
+                throw new NumberFormatException("Invalid time at byte " + from);
+            }
+
+            time += value * MULTIPLIERS[field];
+
+            if (field < MULTIPLIERS.length - 1){
+                if (pos >= to || !isSeparator(field, (char)buffer.get(pos))){
+                    throw new NumberFormatException("Invalid time at byte " + from);
+                }
+
+                ++pos;
+            }
+        }
+
+        if (pos != to){
+            throw new NumberFormatException("Invalid time at byte " + from);
+        }
+
+        return negative ? -time : time;
+    }
+
+    /**
+     * Finds where an ASCII time starting at a given position ends, which is the first byte that
+     * can't be part of a time
+     * @param buffer Buffer holding the time, read with absolute positions
+     * @param from Position where the time starts
+     * @param to Maximum position to look at (exclusive)
+     * @return The position after the time
+     */
+    public static int scanEnd(ByteBuffer buffer, int from, int to){
+        int pos = from;
+
+        if (pos < to && buffer.get(pos) == '-'){
+            ++pos;
+        }
+
+        while (pos < to){
+            byte b = buffer.get(pos);
+
+            if ((b < '0' || b > '9') && b != ':' && b != ',' && b != '.'){
+                break;
+            }
+
+            ++pos;
+        }
+
+        return pos;
+    }
+
+    private static boolean isSeparator(int field, char c){
+        return field < 2 ? c == ':' : (c == ',' || c == '.');
+    }
+
+    private static int hourDigits(long hours){
+        int digits = 2;
+
+        for (long limit = 100; hours >= limit && digits < 19; limit *= 10){
+            ++digits;
+        }
+
+        return digits;
+    }
+
+    private static int twoDigits(int value, char[] dst, int offset){
+        dst[offset] = (char)('0' + value / 10);
+        dst[offset + 1] = (char)('0' + value % 10);
+
+        return offset + 2;
+    }
+
+    private static int twoDigits(int value, byte[] dst, int offset){
+        dst[offset] = (byte)('0' + value / 10);
+        dst[offset + 1] = (byte)('0' + value % 10);
+
+        return offset + 2;
+    }
+
+    private static NumberFormatException invalidTime(CharSequence text, int from, int to){
+        return new NumberFormatException("Invalid time: " + text.subSequence(from, to));
+    }
+}
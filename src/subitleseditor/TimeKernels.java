@@ -0,0 +1,129 @@
+package subitleseditor;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Bulk arithmetic over arrays of times, for files with millions of cues. The loops are kept simple enough
+ * for the JIT to unroll and vectorize them, and big arrays are split in chunks that are processed in parallel.
+ * @author isacv
+ */
+public final class TimeKernels {
+    /**
+     * Amount of times below which a single thread is used, as splitting costs more than it saves
+     */
+    public static final int PARALLEL_THRESHOLD = 1 << 17;
+
+    private static final int CHUNK_SIZE = 1 << 15; //times per parallel task, fits the L2 cache
+
+    private TimeKernels(){
+    }
+
+    /**
+     * Adds the same amount to a range of times, in parallel for big ranges
+     * @param src The times, in milliseconds
+     * @param dst Receives the changed times, may be the same array as the source
+     * @param from First position (inclusive)
+     * @param to Last position (exclusive)
+     * @param delta Milliseconds to add
+     */
+    public static void shift(long[] src, long[] dst, int from, int to, long delta){
+        transform(to - from >= PARALLEL_THRESHOLD ? ForkJoinPool.commonPool() : null, src, dst, from, to, 1, delta, 0);
+    }
+
+    /**
+     * Changes a range of times: the time at position i becomes {@code scale * t + offset + step * i},
+     * rounded to the millisecond. Done in parallel for big ranges
+     * @param src The times, in milliseconds
+     * @param dst Receives the changed times, may be the same array as the source
+     * @param from First position (inclusive)
+     * @param to Last position (exclusive)
+     * @param scale Factor of the times
+     * @param offset Milliseconds added to the times
+     * @param step Milliseconds added per position
+     */
+    public static void transform(long[] src, long[] dst, int from, int to, double scale, double offset, double step){
+        transform(to - from >= PARALLEL_THRESHOLD ? ForkJoinPool.commonPool() : null, src, dst, from, to,
+                scale, offset, step);
+    }
+
+    /**
+     * Changes a range of times in a given pool: the time at position i becomes
+     * {@code scale * t + offset + step * i}, rounded to the millisecond
+     * @param pool The pool that processes the chunks, or null to do it all in the calling thread
+     * @param src The times, in milliseconds
+     * @param dst Receives the changed times, may be the same array as the source
+     * @param from First position (inclusive)
+     * @param to Last position (exclusive)
+     * @param scale Factor of the times
+     * @param offset Milliseconds added to the times
+     * @param step Milliseconds added per position
+     */
+    public static void transform(ForkJoinPool pool, long[] src, long[] dst, int from, int to,
+            double scale, double offset, double step){
+        if (pool == null || to - from <= CHUNK_SIZE){
+            transformChunk(src, dst, from, to, scale, offset, step);
+        }
+        else {
+            pool.invoke(new TransformTask(src, dst, from, to, scale, offset, step));
+        }
+    }
+
+    private static void transformChunk(long[] src, long[] dst, int from, int to,
+            double scale, double offset, double step){
+        if (scale == 1 && step == 0 && offset == (long)offset){ //exact integer addition, the common case
+            long delta = (long)offset;
+
+            for (int i = from; i < to; ++i){
+                dst[i] = src[i] + delta;
+            }
+        }
+        else if (step == 0){
+            for (int i = from; i < to; ++i){
+                dst[i] = Math.round(scale * src[i] + offset);
+            }
+        }
+        else {
+            for (int i = from; i < to; ++i){
+                dst[i] = Math.round(scale * src[i] + offset + step * i);
+            }
+        }
+    }
+
+    /**
+     * Splits a range in halves until they are one chunk long
+     */
+    private static class TransformTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final long[] src;
+        private final long[] dst;
+        private final int from;
+        private final int to;
+        private final double scale;
+        private final double offset;
+        private final double step;
+
+        TransformTask(long[] src, long[] dst, int from, int to, double scale, double offset, double step){
+            this.src = src;
+            this.dst = dst;
+            this.from = from;
+            this.to = to;
+            this.scale = scale;
+            this.offset = offset;
+            this.step = step;
+        }
+
+        @Override
+        protected void compute(){
+            if (to - from <= CHUNK_SIZE){
+                transformChunk(src, dst, from, to, scale, offset, step);
+                return;
+            }
+
+            int middle = (from + to) >>> 1;
+            invokeAll(new TransformTask(src, dst, from, middle, scale, offset, step),
+                    new TransformTask(src, dst, middle, to, scale, offset, step));
+        }
+    }
+}
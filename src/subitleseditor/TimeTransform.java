@@ -0,0 +1,69 @@
+package subitleseditor;
+
+/**
+ * A change of the times of the cues, that can be applied while the cues are read
+ * without having the whole file loaded.
+ * @author isacv
+ */
+public interface TimeTransform {
+    
+    /**
+     * Gets the new value of a cue time. It's applied to both the start and the end of each cue
+     * @param index Position of the cue in the file
+     * @param number The subtitle number
+     * @param time The current time in milliseconds
+     * @return The new time in milliseconds
+     */
+    long apply(int index, int number, long time);
+    
+    /**
+     * Gets the new end of a cue. By default it changes like any other time, transforms that move each cue
+     * by its start override it
+     * @param index Position of the cue in the file
+     * @param number The subtitle number
+     * @param start The current start time in milliseconds
+     * @param end The current end time in milliseconds
+     * @return The new end time in milliseconds
+     */
+    default long applyToEnd(int index, int number, long start, long end){
+        return apply(index, number, end);
+    }
+    
+    /**
+     * Creates a transform that moves a range of subtitles forward(later) or backward(earlier), with the
+     * same semantics of {@link SubtitlesManager#updateRangedSubs(int, int, int, int, int)}
+     * @param minutes minutes to advance/delay
+     * @param seconds seconds to advance/delay
+     * @param milliseconds milliseconds to advance/delay
+     * @param min subtitle number where the update starts (inclusive)
+     * @param max subtitle number where the update ends (inclusive)
+     * @return The shift transform
+     */
+    static TimeTransform shift(int minutes, int seconds, int milliseconds, int min, int max){
+        long change = (minutes * 60000L) + (seconds * 1000L) + milliseconds;
+        
+        return (index, number, time) -> number >= min && number <= max ? time + change : time;
+    }
+    
+    /**
+     * Creates a transform that applies a time map, with the same semantics of 
+     * {@link SubtitlesManager#syncSubs(int[], long[])}: each cue is moved by the segment of its start, so
+     * both its times follow the same line
+     * @param map The time map
+     * @return The sync transform
+     */
+    static TimeTransform sync(SyncMap map){
+        return new TimeTransform(){
+            @Override
+            public long apply(int index, int number, long time){
+                return map.apply(time);
+            }
+            
+            @Override
+            public long applyToEnd(int index, int number, long start, long end){
+                int segment = map.segmentOf(start);
+                return Math.round(map.getScale(segment) * end + map.getOffset(segment));
+            }
+        };
+    }
+}
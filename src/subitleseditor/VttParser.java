@@ -0,0 +1,141 @@
+package subitleseditor;
+
+import java.io.IOException;
+
+/**
+ * Parses WebVTT files by scanning their bytes directly, like {@link SrtParser}.
+ * The WEBVTT header and the NOTE, STYLE and REGION blocks are skipped, and the cue settings after
+ * the end time are ignored. Cues with a numeric identifier keep it as their number, the rest are numbered
+ * by their position in the file.
+ * @author isacv
+ */
+public class VttParser extends CueTokenizer {
+    private boolean headerSkipped;
+
+    public VttParser(CueHandler handler){
+        super(handler);
+    }
+
+    @Override
+    protected void reset(){
+        headerSkipped = false;
+    }
+
+    @Override
+    protected int parseBuffer(int from, boolean endOfInput) throws IOException {
+        final int limit = buffer.limit();
+        int pos = from;
+
+        while (true){
+            pos = skipBlankLines(pos, limit);
+            int blockStart = pos;
+
+            if (pos >= limit){
+                return limit;
+            }
+
+            //the whole block, up to an empty line
+            int blockEnd = pos;
+            int lines = 0;
+            int secondLine = -1;
+
+            while (pos < limit){
+                int lineEnd = findLineEnd(pos, limit);
+
+                if (isBlank(pos, lineEnd)){
+                    break;
+                }
+
+                if (++lines == 2){
+                    secondLine = pos;
+                }
+
+                blockEnd = contentEnd(pos, lineEnd);
+                pos = nextLine(lineEnd, limit);
+            }
+
+            if (pos >= limit && !endOfInput){
+                return blockStart;
+            }
+
+            int firstLineEnd = findLineEnd(blockStart, limit);
+
+            if (!headerSkipped && startsWith(blockStart, limit, "WEBVTT")){
+                headerSkipped = true;
+                continue;
+            }
+
+            headerSkipped = true;
+
+            if (isKeyword(blockStart, firstLineEnd, "NOTE") || isKeyword(blockStart, firstLineEnd, "STYLE")
+                    || isKeyword(blockStart, firstLineEnd, "REGION")){
+                continue;
+            }
+
+            int timesLine = blockStart;
+            int number = getCuesParsed() + 1;
+
+            if (indexOf(blockStart, firstLineEnd, "-->") < 0){ //identifier line
+                if (secondLine < 0){
+                    throw formatError("Expected the cue times", blockStart);
+                }
+
+                number = parseIdentifier(blockStart, contentEnd(blockStart, firstLineEnd), number);
+                timesLine = secondLine;
+            }
+
+            int timesEnd = contentEnd(timesLine, findLineEnd(timesLine, limit));
+            int arrow = indexOf(timesLine, timesEnd, "-->");
+
+            if (arrow < 0){
+                throw formatError("Expected \" --> \" between subtitle times", timesLine);
+            }
+
+            int startEnd = arrow;
+
+            while (startEnd > timesLine && buffer.get(startEnd - 1) == ' '){
+                --startEnd;
+            }
+
+            int endStart = skipSpaces(arrow + 3, timesEnd);
+            long start = parseClock(skipSpaces(timesLine, startEnd), startEnd);
+            long end = parseClock(endStart, TimeCodec.scanEnd(buffer, endStart, timesEnd));
+            int textStart = Math.min(nextLine(findLineEnd(timesLine, limit), limit), blockEnd);
+
+            emit(number, start, end, textStart, Math.max(textStart, blockEnd));
+        }
+    }
+
+    /**
+     * Checks if a line is a keyword, alone or followed by a space
+     */
+    private boolean isKeyword(int pos, int lineEnd, String keyword){
+        int end = contentEnd(pos, lineEnd);
+
+        return startsWith(pos, end, keyword) && (end == pos + keyword.length()
+                || buffer.get(pos + keyword.length()) == ' ' || buffer.get(pos + keyword.length()) == '\t');
+    }
+
+    /**
+     * Gets the number of a cue identifier, or the default number if it isn't a number
+     */
+    private int parseIdentifier(int pos, int end, int defaultNumber){
+        if (end - pos > 9){
+            return defaultNumber;
+        }
+
+        int number = 0;
+
+        for (int i = pos; i < end; ++i){
+            int digit = buffer.get(i) - '0';
+
+            if (digit < 0 || digit > 9){
+                return defaultNumber;
+            }
+
+            number = number * 10 + digit;
+        }
+
+        return pos == end ? defaultNumber : number;
+    }
+}
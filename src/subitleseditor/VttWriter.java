@@ -0,0 +1,45 @@
+package subitleseditor;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Writes cues in the WebVTT format straight to a byte channel, keeping the subtitle numbers as cue identifiers.
+ * @author isacv
+ */
+public class VttWriter extends CueWriter {
+
+    /**
+     * Creates a writer to a channel. The channel isn't closed by this writer
+     * @param channel The channel to write to
+     * @param charset The charset used to encode the subtitles
+     */
+    public VttWriter(WritableByteChannel channel, Charset charset){
+        super(channel, charset);
+    }
+
+    @Override
+    protected void writeFileHeader() throws IOException {
+        writeAscii("WEBVTT\n\n");
+    }
+
+    /**
+     * Writes the identifier line and the times line of a cue
+     */
+    @Override
+    protected void writeHeader(int number, long start, long end) throws IOException {
+        int length = formatNumber(number, chars, 0);
+        chars[length++] = '\n';
+        length = TimeCodec.format(start, chars, length, 2, '.', 3);
+        chars[length++] = ' ';
+        chars[length++] = '-';
+        chars[length++] = '-';
+        chars[length++] = '>';
+        chars[length++] = ' ';
+        length = TimeCodec.format(end, chars, length, 2, '.', 3);
+        chars[length++] = '\n';
+
+        writeAscii(chars, length);
+    }
+}